@@ -2,7 +2,8 @@
 
 const newrelic = require('newrelic')
 
-const yargs = require('yargs/yargs'),
+const readline = require('readline'),
+  yargs = require('yargs/yargs'),
   puppeteer = require('puppeteer'),
   {
     rootLogger,
@@ -18,6 +19,7 @@ const yargs = require('yargs/yargs'),
   } = require('nr-reports-core')
 
 const DEFAULT_DELAY_TIMEOUT_MS = 10000,
+  WORKER_MESSAGE_MARKER = 'nrReportsWorker',
   logger = rootLogger,
   runnerId = getEnv('APP_NAME', 'nr-reports-cli'),
   runnerVersion = getEnv('APP_VERSION', '<unknown>')
@@ -161,6 +163,12 @@ details.`)
     .boolean('full-chrome')
     .default('full-chrome', false)
     .describe('full-chrome', 'Don\'t launch Chromium in headless mode. Use only for testing purposes when rendering a template report.')
+    .boolean('worker')
+    .default('worker', false)
+    .describe('worker', `Run as a long-lived worker for the Java scheduler.
+
+    In worker mode, run requests are read from stdin and results are written to stdout, one JSON object per line. The browser is launched once and reused across runs.
+  `)
 
   return y
 }
@@ -205,11 +213,149 @@ function processPendingData() {
   }, exitDelay)
 }
 
-async function main() {
-  const argv = configureOptions().argv,
-    fullChrome = argv.fullChrome
+function getPuppetArgs(fullChrome) {
+  return {
+    args: ['--disable-dev-shm-usage'],
+    headless: !fullChrome,
+    ignoreHTTPSErrors: true,
+  }
+}
+
+function recordStatus(options) {
+  logger.trace('Recording job status...')
+
+  newrelic.recordCustomEvent(
+    'NrReportsStatus',
+    {
+      error: false,
+      runnerId,
+      runnerVersion,
+      reportIds: options.reportIds,
+      publishConfigIds: options.publishConfigIds,
+      dashboardIds: options.dashboardIds,
+      channelIds: options.channelIds,
+    },
+  )
+}
+
+function recordError(err) {
+  logger.error('Uncaught exception:')
+  logger.error(err)
+
+  newrelic.noticeError(err)
+
+  logger.trace('Recording job status...')
+
+  newrelic.recordCustomEvent(
+    'NrReportsStatus',
+    {
+      error: true,
+      runnerId,
+      runnerVersion,
+      message: err.message,
+    },
+  )
+}
+
+function sendWorkerMessage(message) {
+  process.stdout.write(
+    `${JSON.stringify({ [WORKER_MESSAGE_MARKER]: 1, ...message })}\n`,
+  )
+}
+
+async function runWorkerRequest(request, callbacks) {
+  const options = {
+    reportIds: request.reportIds,
+    publishConfigIds: request.publishConfigIds,
+    reportPublishConfigIds: request.reportPublishConfigIds,
+  }
+
+  try {
+    const engine = new Engine(
+      newrelic,
+      runnerId,
+      runnerVersion,
+      getSecretData(request.accountId),
+      DEFAULT_CHANNEL,
+      callbacks,
+    )
+
+    await engine.run(options)
+
+    recordStatus(options)
+
+    sendWorkerMessage({ type: 'result', id: request.id, exitCode: 0 })
+  } catch (err) {
+    recordError(err)
+
+    sendWorkerMessage({
+      type: 'result',
+      id: request.id,
+      exitCode: 1,
+      message: err.message,
+    })
+  }
+}
+
+async function worker(argv) {
+  const fullChrome = argv.fullChrome,
+    rl = readline.createInterface({ input: process.stdin, terminal: false })
+  let browser = null
+
+  // The browser is launched on first use and kept open across runs so that
+  // only the first PDF report run by this worker pays the launch cost.
+
+  const callbacks = {
+    getPuppetArgs: async () => getPuppetArgs(fullChrome),
+    openChrome: async puppetArgs => {
+      if (!browser || !browser.connected) {
+        browser = await puppeteer.launch(puppetArgs)
+      }
+
+      return browser
+    },
+    closeChrome: async () => {},
+  }
+
+  logger.debug('Worker started.')
+
+  sendWorkerMessage({ type: 'ready', pid: process.pid })
+
+  for await (const line of rl) {
+    let request
+
+    try {
+      request = JSON.parse(line)
+    } catch (err) {
+      logger.warn(`Ignoring invalid worker request: ${err.message}`)
+      continue
+    }
+
+    if (request.type === 'ping') {
+      sendWorkerMessage({ type: 'pong', id: request.id })
+      continue
+    }
+
+    if (request.type !== 'run') {
+      logger.warn(`Ignoring unknown worker request type ${request.type}.`)
+      continue
+    }
+
+    await newrelic.startBackgroundTransaction(
+      'runReports',
+      () => runWorkerRequest(request, callbacks),
+    )
+  }
+
+  logger.debug('Worker input closed, stopping worker...')
 
-  configureLogger(argv)
+  if (browser && !fullChrome) {
+    await browser.close()
+  }
+}
+
+async function main(argv) {
+  const fullChrome = argv.fullChrome
 
   const options = {
       manifestFilePath: argv.f,
@@ -231,11 +377,7 @@ async function main() {
       getSecretData(argv.a),
       DEFAULT_CHANNEL,
       {
-        getPuppetArgs: async () => ({
-          args: ['--disable-dev-shm-usage'],
-          headless: !fullChrome,
-          ignoreHTTPSErrors: true,
-        }),
+        getPuppetArgs: async () => getPuppetArgs(fullChrome),
         openChrome: async puppetArgs => (
           await puppeteer.launch(puppetArgs)
         ),
@@ -249,50 +391,41 @@ async function main() {
 
   await engine.run(options)
 
-  logger.trace('Recording job status...')
+  recordStatus(options)
+}
 
-  newrelic.recordCustomEvent(
-    'NrReportsStatus',
-    {
-      error: false,
-      runnerId,
-      runnerVersion,
-      reportIds: options.reportIds,
-      publishConfigIds: options.publishConfigIds,
-      dashboardIds: options.dashboardIds,
-      channelIds: options.channelIds,
-    },
+const argv = configureOptions().argv
+
+configureLogger(argv)
+
+if (argv.worker) {
+
+  // In worker mode each run request is tracked as its own background
+  // transaction by the worker loop.
+
+  worker(argv)
+    .catch(err => {
+      recordError(err)
+    })
+    .finally(() => {
+      processPendingData()
+    })
+} else {
+
+  // Start a background transaction to track the CLI execution as a Non-Web
+  // transaction and delay termination after main execution to allow the agent
+  // data to settle before the agent harvests and sends it.
+
+  newrelic.startBackgroundTransaction(
+    'runReports',
+    () => (
+      main(argv)
+        .catch(err => {
+          recordError(err)
+        })
+        .finally(() => {
+          processPendingData()
+        })
+    ),
   )
 }
-
-// Start a background transaction to track the CLI execution as a Non-Web
-// transaction and delay termination after main execution to allow the agent
-// data to settle before the agent harvests and sends it.
-
-newrelic.startBackgroundTransaction(
-  'runReports',
-  () => (
-    main()
-      .catch(err => {
-        logger.error('Uncaught exception:')
-        logger.error(err)
-
-        newrelic.noticeError(err)
-
-        logger.trace('Recording job status...')
-
-        newrelic.recordCustomEvent(
-          'NrReportsStatus',
-          {
-            error: true,
-            runnerId,
-            runnerVersion,
-            message: err.message,
-          },
-        )
-      })
-      .finally(() => {
-        processPendingData()
-      })
-  ),
-)
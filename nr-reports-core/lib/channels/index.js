@@ -10,6 +10,8 @@ const email = require('./email'),
   {
     PUBLISH_CONFIG_IDS_OPTION,
     PUBLISH_CONFIG_IDS_VAR,
+    REPORT_PUBLISH_CONFIG_IDS_OPTION,
+    REPORT_PUBLISH_CONFIG_IDS_VAR,
     DEFAULT_PUBLISH_CONFIG_ID,
   } = require('../constants')
 
@@ -44,6 +46,41 @@ function getPublishConfigIds(options) {
   return publishConfigIds
 }
 
+// Reports with different publish config IDs can be run by one invocation, for
+// example when the Java scheduler coalesces report runs, by specifying the
+// publish config IDs of each report as an object keyed by report ID, or as a
+// JSON string of one. Returns null when none are specified.
+function getReportPublishConfigIds(options) {
+  const reportPublishConfigIdsOpt = getOption(
+    options,
+    REPORT_PUBLISH_CONFIG_IDS_OPTION,
+    REPORT_PUBLISH_CONFIG_IDS_VAR,
+  )
+
+  if (!reportPublishConfigIdsOpt) {
+    return null
+  }
+
+  logger.trace(`Found report publish config ids ${JSON.stringify(reportPublishConfigIdsOpt)}.`)
+
+  const reportPublishConfigIds = typeof reportPublishConfigIdsOpt === 'string' ? (
+      JSON.parse(reportPublishConfigIdsOpt)
+    ) : reportPublishConfigIdsOpt,
+    result = {}
+
+  Object.keys(reportPublishConfigIds).forEach(reportId => {
+    const publishConfigIds = reportPublishConfigIds[reportId]
+
+    result[reportId] = getPublishConfigIds({
+      [PUBLISH_CONFIG_IDS_OPTION]: Array.isArray(publishConfigIds) ? (
+        publishConfigIds.join(',')
+      ) : publishConfigIds,
+    })
+  })
+
+  return result
+}
+
 function getPublishConfig(context, report) {
   const { publishConfigIds } = context,
     { publishConfigs } = report
@@ -145,4 +182,5 @@ module.exports = {
   publish,
   getChannelDefaults,
   getPublishConfigIds,
+  getReportPublishConfigIds,
 }
@@ -32,6 +32,8 @@ const MANIFEST_FILE_PATH_OPTION = 'manifestFilePath',
   SOURCE_NERDLET_ID_VAR = 'SOURCE_NERDLET_ID',
   PUBLISH_CONFIG_IDS_OPTION = 'publishConfigIds',
   PUBLISH_CONFIG_IDS_VAR = 'PUBLISH_CONFIG_IDS',
+  REPORT_PUBLISH_CONFIG_IDS_OPTION = 'reportPublishConfigIds',
+  REPORT_PUBLISH_CONFIG_IDS_VAR = 'REPORT_PUBLISH_CONFIG_IDS',
   DEFAULT_PUBLISH_CONFIG_ID = 'default'
 
 // Output formats
@@ -165,6 +167,8 @@ module.exports = {
   SOURCE_NERDLET_ID_VAR,
   PUBLISH_CONFIG_IDS_OPTION,
   PUBLISH_CONFIG_IDS_VAR,
+  REPORT_PUBLISH_CONFIG_IDS_OPTION,
+  REPORT_PUBLISH_CONFIG_IDS_VAR,
   DEFAULT_PUBLISH_CONFIG_ID,
 
   // Output formats
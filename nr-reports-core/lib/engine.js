@@ -3,6 +3,7 @@
 const {
     publish,
     getPublishConfigIds,
+    getReportPublishConfigIds,
   } = require('./channels'),
   {
     LOG_LEVEL_DEBUG,
@@ -73,6 +74,7 @@ class Engine {
       const reportIndex = manifest.reports.findIndex(shouldRender),
         templatePath = getOption(options, 'templatePath', 'TEMPLATE_PATH'),
         publishConfigIds = getPublishConfigIds(options),
+        reportPublishConfigIds = getReportPublishConfigIds(options),
         context = this.context.context({
           browser: null,
           templatePath,
@@ -99,7 +101,10 @@ class Engine {
       await withTempDir(async tempDir => {
         for (let index = 0; index < manifest.reports.length; index += 1) {
           const report = manifest.reports[index],
-            reportName = report.name || report.id || index
+            reportName = report.name || report.id || index,
+            reportConfigIds = (
+              reportPublishConfigIds && reportPublishConfigIds[report.id]
+            ) || publishConfigIds
 
           try {
             let generator
@@ -119,7 +124,10 @@ class Engine {
               continue
             }
 
-            const reportContext = context.contextNs(report.id, report)
+            const reportContext = context.contextNs(
+              report.id,
+              { ...report, publishConfigIds: reportConfigIds },
+            )
 
             logTrace(logger, log => {
               log(
@@ -156,7 +164,7 @@ class Engine {
                 reportName,
                 runnerId: context.runnerId,
                 runnerVersion: context.runnerVersion,
-                publishConfigIds: publishConfigIds.join(','),
+                publishConfigIds: reportConfigIds.join(','),
                 error: false,
               },
             )
@@ -180,7 +188,7 @@ class Engine {
                 reportName,
                 runnerId: context.runnerId,
                 runnerVersion: context.runnerVersion,
-                publishConfigIds: publishConfigIds.join(','),
+                publishConfigIds: reportConfigIds.join(','),
                 error: true,
                 message: err.message,
               },
@@ -0,0 +1,177 @@
+package com.newrelic.labs.reports.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// Creates the AppCDS archive of an installed scheduler distribution. The
+// training run starts the scheduler against a NerdgraphStubServer with
+// -XX:ArchiveClassesAtExit, waits until it has bootstrapped the schedules,
+// completed a sync and served the metrics endpoint, and stops it, at which
+// point the JVM writes the classes it loaded to lib/ in the distribution. The
+// start script uses the archive when it is present.
+//
+// The archive is only valid for the JVM that created it and the jars it was
+// created from, so the training runs on the installed distribution itself,
+// for example
+//
+//   java -cp "nr-reports-quartz-scheduler-training.jar:lib/*" \
+//     com.newrelic.labs.reports.benchmark.CdsTraining /app/nr-reports-quartz-scheduler
+//
+// Arguments after the distribution directory are key=value pairs, for example
+// accounts=50 echo=true.
+public class CdsTraining {
+	static final String ARCHIVE = "lib/nr-reports-quartz-scheduler.jsa";
+	private static final long TIMEOUT_MILLIS = 120_000;
+
+	static String accountIds(int count) {
+		return IntStream.range(0, count)
+			.mapToObj(i -> String.valueOf(1000000 + i))
+			.collect(Collectors.joining(","));
+	}
+
+	static NerdgraphStubServer startStub(
+		Map<String, String> args,
+		String accountIds
+	) throws IOException {
+		NerdgraphStubServer stub = new NerdgraphStubServer(
+			NerdgraphStubServer.Config.fromArgs(args),
+			0
+		);
+
+		for (String accountId : accountIds.split(",")) {
+			stub.seed(accountId);
+		}
+
+		stub.start();
+
+		return stub;
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static Map<Path, byte[]> readFiles(Path dir) throws IOException {
+		Map<Path, byte[]> contents = new HashMap<>();
+
+		if (Files.isDirectory(dir)) {
+			try (Stream<Path> files = Files.list(dir)) {
+				for (Path file : files.collect(Collectors.toList())) {
+					if (Files.isRegularFile(file)) {
+						contents.put(file, Files.readAllBytes(file));
+					}
+				}
+			}
+		}
+
+		return contents;
+	}
+
+	// Puts the log directory back the way it was so that the training run
+	// does not leave its logs in the distribution.
+	private static void restoreFiles(
+		Path dir,
+		Map<Path, byte[]> contents
+	) throws IOException {
+		for (Path file : readFiles(dir).keySet()) {
+			byte[] original = contents.get(file);
+
+			if (original == null) {
+				Files.delete(file);
+			} else {
+				Files.write(file, original);
+			}
+		}
+	}
+
+	private static void scrapeMetrics(int port) throws IOException {
+		try (
+			InputStream in = URI.create("http://127.0.0.1:" + port + "/metrics")
+				.toURL()
+				.openStream()
+		) {
+			in.readAllBytes();
+		}
+	}
+
+	public static void main(String[] argv) throws Exception {
+		if (argv.length < 1) {
+			System.err.println(
+				"usage: CdsTraining <distribution directory> [key=value ...]"
+			);
+			System.exit(2);
+		}
+
+		Path appHome = Path.of(argv[0]).toAbsolutePath();
+		Map<String, String> args = NerdgraphStubServer.parseArgs(
+			Arrays.copyOfRange(argv, 1, argv.length)
+		);
+		int accounts = Integer.parseInt(args.getOrDefault("accounts", "50"));
+		boolean echo = Boolean.parseBoolean(args.getOrDefault("echo", "false"));
+		Path archive = appHome.resolve(ARCHIVE);
+		Path logs = appHome.resolve("logs");
+		Map<Path, byte[]> existingLogs = readFiles(logs);
+		String ids = accountIds(accounts);
+		int metricsPort = freePort();
+
+		// A stale archive would be mapped by the training run itself
+		Files.deleteIfExists(archive);
+
+		try (
+			NerdgraphStubServer stub = startStub(args, ids);
+			SchedulerProcess scheduler = SchedulerProcess.start(
+				appHome,
+				stub,
+				ids,
+				Map.of(
+					"SYNC_SCHEDULE", "0/1 * * * * ?",
+					"METRICS_PORT", String.valueOf(metricsPort)
+				),
+				"-XX:ArchiveClassesAtExit=" + archive,
+				echo
+			)
+		) {
+			long started =
+				scheduler.await("scheduler started", TIMEOUT_MILLIS).millis;
+			long synced =
+				scheduler.await("sync completed", TIMEOUT_MILLIS).millis;
+
+			scrapeMetrics(metricsPort);
+
+			int exitCode = scheduler.stop(TIMEOUT_MILLIS);
+
+			System.out.printf(
+				"training run: started after %d ms; synced %d accounts after %d ms; exit code: %d%n",
+				started,
+				accounts,
+				synced,
+				exitCode
+			);
+		} finally {
+			restoreFiles(logs, existingLogs);
+		}
+
+		if (!Files.isRegularFile(archive)) {
+			System.err.println("training run did not create " + archive);
+			System.exit(1);
+		}
+
+		System.out.printf(
+			"created %s (%d KiB)%n",
+			archive,
+			Files.size(archive) / 1024
+		);
+	}
+}
@@ -0,0 +1,309 @@
+package com.newrelic.labs.reports.benchmark;
+
+import com.newrelic.labs.reports.JobStoreSchema;
+import com.newrelic.labs.reports.SyncException;
+import org.quartz.Job;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.impl.SchedulerRepository;
+import org.quartz.impl.StdSchedulerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+// Measures how many triggers a cluster of scheduler instances sharing a
+// JobStoreTX fires per second as instances are added. Every instance runs in
+// this JVM against the same in-memory H2 database, so the results show the
+// cost of the job store and its cluster locks rather than of the network.
+//
+// Arguments are key=value pairs, for example:
+//
+//   gradle clusterBenchmark -PbenchmarkArgs="nodes=1,2,4 jobs=1000"
+public class ClusterThroughputBenchmark {
+	private static final String INSTANCE_NAME = "ClusterBenchmark";
+
+	public static class CountingJob implements Job {
+		static final LongAdder FIRED = new LongAdder();
+		static final LongAdder LATENESS_MILLIS = new LongAdder();
+		static final AtomicLong MAX_LATENESS_MILLIS = new AtomicLong();
+		static final Map<String, LongAdder> FIRED_BY_INSTANCE =
+			new ConcurrentHashMap<>();
+		static volatile boolean recording = false;
+
+		@Override
+		public void execute(JobExecutionContext context) {
+			if (!recording) {
+				return;
+			}
+
+			long lateness = System.currentTimeMillis() -
+				context.getScheduledFireTime().getTime();
+			String instanceId;
+
+			try {
+				instanceId = context.getScheduler().getSchedulerInstanceId();
+			} catch (SchedulerException e) {
+				instanceId = "unknown";
+			}
+
+			FIRED.increment();
+			LATENESS_MILLIS.add(lateness);
+			MAX_LATENESS_MILLIS.accumulateAndGet(lateness, Math::max);
+			FIRED_BY_INSTANCE
+				.computeIfAbsent(instanceId, k -> new LongAdder())
+				.increment();
+		}
+
+		static void reset() {
+			FIRED.reset();
+			LATENESS_MILLIS.reset();
+			MAX_LATENESS_MILLIS.set(0);
+			FIRED_BY_INSTANCE.clear();
+		}
+	}
+
+	private final int[] nodeCounts;
+	private final int jobs;
+	private final long intervalMillis;
+	private final int threads;
+	private final int warmupSeconds;
+	private final int seconds;
+
+	public ClusterThroughputBenchmark(Map<String, String> args) {
+		this.nodeCounts = parseNodeCounts(args.getOrDefault("nodes", "1,2,4"));
+		this.jobs = Integer.parseInt(args.getOrDefault("jobs", "500"));
+		this.intervalMillis = Long.parseLong(
+			args.getOrDefault("intervalMillis", "1000")
+		);
+		this.threads = Integer.parseInt(args.getOrDefault("threads", "10"));
+		this.warmupSeconds = Integer.parseInt(
+			args.getOrDefault("warmupSeconds", "5")
+		);
+		this.seconds = Integer.parseInt(args.getOrDefault("seconds", "20"));
+	}
+
+	private static int[] parseNodeCounts(String value) {
+		String[] parts = value.split(",");
+		int[] counts = new int[parts.length];
+
+		for (int i = 0; i < parts.length; i += 1) {
+			counts[i] = Integer.parseInt(parts[i].trim());
+		}
+
+		return counts;
+	}
+
+	private Properties createProperties(
+		String database,
+		int node
+	) {
+		Properties props = new Properties();
+		String dataSource = "bench" + node;
+
+		props.setProperty("org.quartz.scheduler.instanceName", INSTANCE_NAME);
+		props.setProperty("org.quartz.scheduler.instanceId", "node" + node);
+		props.setProperty(
+			"org.quartz.scheduler.batchTriggerAcquisitionMaxCount",
+			String.valueOf(this.threads)
+		);
+		props.setProperty(
+			"org.quartz.threadPool.threadCount",
+			String.valueOf(this.threads)
+		);
+		props.setProperty(
+			"org.quartz.jobStore.class",
+			"org.quartz.impl.jdbcjobstore.JobStoreTX"
+		);
+		props.setProperty(
+			"org.quartz.jobStore.driverDelegateClass",
+			"org.quartz.impl.jdbcjobstore.StdJDBCDelegate"
+		);
+		props.setProperty("org.quartz.jobStore.isClustered", "true");
+		props.setProperty(
+			"org.quartz.jobStore.acquireTriggersWithinLock",
+			"true"
+		);
+		props.setProperty("org.quartz.jobStore.dataSource", dataSource);
+		props.setProperty(
+			"org.quartz.dataSource." + dataSource + ".driver",
+			"org.h2.Driver"
+		);
+		props.setProperty(
+			"org.quartz.dataSource." + dataSource + ".URL",
+			"jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1"
+		);
+		props.setProperty(
+			"org.quartz.dataSource." + dataSource + ".user",
+			"sa"
+		);
+		props.setProperty(
+			"org.quartz.dataSource." + dataSource + ".password",
+			""
+		);
+		props.setProperty(
+			"org.quartz.dataSource." + dataSource + ".provider",
+			"hikaricp"
+		);
+		props.setProperty(
+			"org.quartz.dataSource." + dataSource + ".maxConnections",
+			String.valueOf(this.threads + 2)
+		);
+
+		return props;
+	}
+
+	private Scheduler createNode(
+		String database,
+		int node
+	) throws SchedulerException {
+		Scheduler scheduler = new StdSchedulerFactory(
+			createProperties(database, node)
+		).getScheduler();
+
+		// Cluster members share an instance name, which is also the key of
+		// the scheduler repository, so each one is removed from it to let
+		// the next one be created in the same JVM.
+		SchedulerRepository.getInstance().remove(INSTANCE_NAME);
+
+		return scheduler;
+	}
+
+	private void scheduleJobs(Scheduler scheduler) throws SchedulerException {
+		Map<JobDetail, Set<? extends Trigger>> jobs = new LinkedHashMap<>();
+
+		for (int i = 0; i < this.jobs; i += 1) {
+			JobDetail job = newJob(CountingJob.class)
+				.withIdentity("job" + i, "benchmark")
+				.build();
+			Trigger trigger = newTrigger()
+				.withIdentity("trigger" + i, "benchmark")
+				// Spread the first fire times over one interval
+				.startAt(new Date(
+					System.currentTimeMillis() +
+						(i * this.intervalMillis) / this.jobs
+				))
+				.withSchedule(
+					simpleSchedule()
+						.withIntervalInMilliseconds(this.intervalMillis)
+						.repeatForever()
+						.withMisfireHandlingInstructionNextWithRemainingCount()
+				)
+				.build();
+
+			jobs.put(job, Set.of(trigger));
+		}
+
+		scheduler.scheduleJobs(jobs, false);
+	}
+
+	private void run(int nodes) throws Exception {
+		String database = "quartz_bench_" + nodes;
+		List<Scheduler> schedulers = new ArrayList<>(nodes);
+
+		try {
+			for (int node = 1; node <= nodes; node += 1) {
+				schedulers.add(createNode(database, node));
+			}
+
+			new JobStoreSchema("bench1", "QRTZ_").initialize("h2");
+			scheduleJobs(schedulers.get(0));
+
+			CountingJob.recording = false;
+			CountingJob.reset();
+
+			for (Scheduler scheduler : schedulers) {
+				scheduler.start();
+			}
+
+			Thread.sleep(this.warmupSeconds * 1000L);
+
+			CountingJob.reset();
+			CountingJob.recording = true;
+
+			long startTime = System.nanoTime();
+
+			Thread.sleep(this.seconds * 1000L);
+
+			CountingJob.recording = false;
+
+			double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+			long fired = CountingJob.FIRED.sum();
+
+			System.out.printf(
+				"%5d %12.1f %12.1f %12.1f %12d   %s%n",
+				nodes,
+				this.jobs * 1000.0 / this.intervalMillis,
+				fired / elapsedSeconds,
+				fired == 0 ?
+					0.0 :
+					CountingJob.LATENESS_MILLIS.sum() / (double) fired,
+				CountingJob.MAX_LATENESS_MILLIS.get(),
+				new TreeMap<>(CountingJob.FIRED_BY_INSTANCE)
+			);
+		} finally {
+			for (Scheduler scheduler : schedulers) {
+				scheduler.shutdown(true);
+			}
+		}
+	}
+
+	public void run() throws Exception {
+		System.out.printf(
+			"jobs: %d; interval: %d ms; threads per node: %d; duration: %d s%n",
+			this.jobs,
+			this.intervalMillis,
+			this.threads,
+			this.seconds
+		);
+		System.out.printf(
+			"%5s %12s %12s %12s %12s   %s%n",
+			"nodes",
+			"offered/s",
+			"fired/s",
+			"avg late ms",
+			"max late ms",
+			"fired by node"
+		);
+
+		for (int nodes : this.nodeCounts) {
+			run(nodes);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>();
+
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+
+			if (index <= 0) {
+				throw new IllegalArgumentException("invalid argument " + arg);
+			}
+
+			options.put(arg.substring(0, index), arg.substring(index + 1));
+		}
+
+		try {
+			new ClusterThroughputBenchmark(options).run();
+		} catch (SyncException e) {
+			System.err.println("failed to create quartz schema: " + e);
+			System.exit(1);
+		}
+	}
+}
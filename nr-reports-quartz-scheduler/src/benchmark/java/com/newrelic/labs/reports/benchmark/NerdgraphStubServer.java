@@ -0,0 +1,673 @@
+package com.newrelic.labs.reports.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+// A local stand-in for the parts of NerdGraph that the scheduler uses: the
+// NerdStorage document query, the batched document query with one alias per
+// account, and the nerdStorageWriteDocument mutation, alone or with one alias
+// per account. Accounts are seeded with a metadata document and a synthetic
+// manifest. Latency, server errors, GraphQL errors and throttling can be
+// injected to see how a sync behaves against a slow or unreliable endpoint.
+//
+// The server can also be run on its own and used as the NERDGRAPH_URL of a
+// scheduler. Arguments are key=value pairs, for example:
+//
+//   gradle nerdgraphStub -PbenchmarkArgs="port=8765 accounts=1000"
+public class NerdgraphStubServer implements Closeable {
+	private static final Pattern ACCOUNT_ALIAS = Pattern.compile(
+		"(\\w+): account\\(id: \\$(\\w+)\\)"
+	);
+	private static final Pattern DOCUMENT_ALIAS = Pattern.compile(
+		"(\\w+): document\\(documentId: \\$(\\w+), collection: \\$(\\w+)\\)"
+	);
+	private static final Pattern WRITE_ALIAS = Pattern.compile(
+		"(\\w+): nerdStorageWriteDocument\\(collection: \\$(\\w+),document: \\$(\\w+),documentId: \\$(\\w+),scope: \\{id: \\$(\\w+)"
+	);
+	private static final int PUBLISH_CONFIGS_PER_REPORT = 5;
+
+	public static class Config {
+		private long latencyMillis = 0;
+		private long latencyJitterMillis = 0;
+		private double errorRate = 0;
+		private double graphqlErrorRate = 0;
+		private int maxRequestsPerSecond = 0;
+		private int publishConfigs = 10;
+		private int threads = 16;
+
+		public static Config fromArgs(Map<String, String> args) {
+			Config config = new Config();
+
+			config.latencyMillis = Long.parseLong(
+				args.getOrDefault("latencyMillis", "0")
+			);
+			config.latencyJitterMillis = Long.parseLong(
+				args.getOrDefault("latencyJitterMillis", "0")
+			);
+			config.errorRate = Double.parseDouble(
+				args.getOrDefault("errorRate", "0")
+			);
+			config.graphqlErrorRate = Double.parseDouble(
+				args.getOrDefault("graphqlErrorRate", "0")
+			);
+			config.maxRequestsPerSecond = Integer.parseInt(
+				args.getOrDefault("maxRequestsPerSecond", "0")
+			);
+			config.publishConfigs = Integer.parseInt(
+				args.getOrDefault("publishConfigs", "10")
+			);
+			config.threads = Integer.parseInt(
+				args.getOrDefault("threads", "16")
+			);
+
+			return config;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+				"latency: %d ms (+0-%d ms); error rate: %.3f; graphql error rate: %.3f; max requests/s: %s; publish configs per account: %d",
+				this.latencyMillis,
+				this.latencyJitterMillis,
+				this.errorRate,
+				this.graphqlErrorRate,
+				this.maxRequestsPerSecond > 0 ?
+					String.valueOf(this.maxRequestsPerSecond) :
+					"unlimited",
+				this.publishConfigs
+			);
+		}
+	}
+
+	private final Config config;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Map<String, String> documents = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> versions =
+		new ConcurrentHashMap<>();
+	private final AtomicLong windowStart = new AtomicLong();
+	private final AtomicInteger windowCount = new AtomicInteger();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder reads = new LongAdder();
+	private final LongAdder documentsRead = new LongAdder();
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder documentsWritten = new LongAdder();
+	private final LongAdder serverErrors = new LongAdder();
+	private final LongAdder graphqlErrors = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+
+	public NerdgraphStubServer(Config config, int port) throws IOException {
+		AtomicInteger threadNumber = new AtomicInteger();
+
+		this.config = config;
+		this.server = HttpServer.create(
+			new InetSocketAddress("127.0.0.1", port),
+			0
+		);
+		this.executor = Executors.newFixedThreadPool(config.threads, r -> {
+			Thread t = new Thread(
+				r,
+				"nerdgraph-stub-" + threadNumber.incrementAndGet()
+			);
+
+			t.setDaemon(true);
+
+			return t;
+		});
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/graphql", this::handle);
+	}
+
+	public void start() {
+		this.server.start();
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" +
+			this.server.getAddress().getPort() +
+			"/graphql";
+	}
+
+	private static String key(
+		String accountId,
+		String collection,
+		String documentId
+	) {
+		return accountId + "/" + collection + "/" + documentId;
+	}
+
+	// Seeds an account with a manifest and a metadata document modified now
+	public void seed(String accountId) {
+		this.versions.put(accountId, new AtomicInteger());
+		putManifest(accountId, 0);
+	}
+
+	// The name of the schedule that modify changes
+	public static String getModifiedScheduleName(String accountId) {
+		return accountId + ".report-0.publish-0";
+	}
+
+	// Changes the schedule of the first publish configuration of the account
+	// and its last modified date, as saving a schedule in the Reports Builder
+	// does.
+	public void modify(String accountId) {
+		int version = this.versions
+			.computeIfAbsent(accountId, k -> new AtomicInteger())
+			.incrementAndGet();
+
+		putManifest(accountId, version);
+	}
+
+	private void putManifest(String accountId, int version) {
+		this.documents.put(
+			key(accountId, "manifests", "manifest.json"),
+			toManifestJson(this.config.publishConfigs, version)
+		);
+		this.documents.put(
+			key(accountId, "metadata", "metadata.json"),
+			"{\"lastModifiedDate\":" + System.currentTimeMillis() + "}"
+		);
+	}
+
+	// Schedules are in 2099 so that no report runs while a scheduler is
+	// synced against the stub.
+	static String toManifestJson(int publishConfigs, int version) {
+		StringBuilder json = new StringBuilder(publishConfigs * 96 + 32);
+		int reportCount = (publishConfigs + PUBLISH_CONFIGS_PER_REPORT - 1) /
+			PUBLISH_CONFIGS_PER_REPORT;
+		int index = 0;
+
+		json.append("{\"reports\":[");
+
+		for (int r = 0; r < reportCount; r += 1) {
+			if (r > 0) {
+				json.append(',');
+			}
+
+			json
+				.append("{\"id\":\"report-").append(r)
+				.append("\",\"name\":\"Report ").append(r)
+				.append("\",\"publishConfigs\":[");
+
+			for (
+				int p = 0;
+				p < PUBLISH_CONFIGS_PER_REPORT && index < publishConfigs;
+				p += 1, index += 1
+			) {
+				int minute = (index == 0 ? index + version : index) % 60;
+
+				if (p > 0) {
+					json.append(',');
+				}
+
+				json
+					.append("{\"id\":\"publish-").append(p)
+					.append("\",\"schedule\":\"")
+					.append(minute).append(' ')
+					.append((index / 60) % 24)
+					.append(" 1 1 ? 2099\"}");
+			}
+
+			json.append("]}");
+		}
+
+		json.append("]}");
+
+		return json.toString();
+	}
+
+	private boolean isThrottled() {
+		int max = this.config.maxRequestsPerSecond;
+
+		if (max <= 0) {
+			return false;
+		}
+
+		long second = System.currentTimeMillis() / 1000;
+		long start = this.windowStart.get();
+
+		if (second != start && this.windowStart.compareAndSet(start, second)) {
+			this.windowCount.set(0);
+		}
+
+		return this.windowCount.incrementAndGet() > max;
+	}
+
+	private void delay() {
+		long millis = this.config.latencyMillis;
+
+		if (this.config.latencyJitterMillis > 0) {
+			millis += ThreadLocalRandom.current().nextLong(
+				this.config.latencyJitterMillis + 1
+			);
+		}
+
+		if (millis <= 0) {
+			return;
+		}
+
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean injectGraphqlError() {
+		return this.config.graphqlErrorRate > 0 &&
+			ThreadLocalRandom.current().nextDouble() <
+				this.config.graphqlErrorRate;
+	}
+
+	private static String error(String message, String... path) {
+		JsonObject error = new JsonObject();
+
+		error.addProperty("message", message);
+
+		if (path.length > 0) {
+			JsonArray array = new JsonArray();
+
+			for (String p : path) {
+				array.add(p);
+			}
+
+			error.add("path", array);
+		}
+
+		return error.toString();
+	}
+
+	private String readDocument(JsonObject variables) {
+		String accountId = variables.get("accountId").getAsString();
+
+		this.reads.increment();
+
+		if (injectGraphqlError()) {
+			this.graphqlErrors.increment();
+			return "{\"data\":{\"actor\":{\"account\":null}},\"errors\":[" +
+				error("injected error", "actor", "account") +
+				"]}";
+		}
+
+		String document = this.documents.get(key(
+			accountId,
+			variables.get("collectionId").getAsString(),
+			variables.get("documentId").getAsString()
+		));
+
+		this.documentsRead.increment();
+
+		return "{\"data\":{\"actor\":{\"account\":{\"nerdStorage\":{\"document\":" +
+			document +
+			"}}}}}";
+	}
+
+	private String readDocuments(String query, JsonObject variables) {
+		Map<String, String> accounts = new LinkedHashMap<>();
+		List<String[]> refs = new ArrayList<>();
+		List<String> errors = new ArrayList<>();
+		Matcher matcher = ACCOUNT_ALIAS.matcher(query);
+
+		this.reads.increment();
+
+		while (matcher.find()) {
+			accounts.put(
+				matcher.group(1),
+				variables.get(matcher.group(2)).getAsString()
+			);
+		}
+
+		matcher = DOCUMENT_ALIAS.matcher(query);
+
+		while (matcher.find()) {
+			String alias = matcher.group(1);
+
+			// Every account has the same documents so the aliases repeat
+			if (refs.stream().noneMatch(ref -> ref[0].equals(alias))) {
+				refs.add(new String[] {
+					alias,
+					variables.get(matcher.group(2)).getAsString(),
+					variables.get(matcher.group(3)).getAsString()
+				});
+			}
+		}
+
+		StringBuilder json = new StringBuilder(4096);
+
+		json.append("{\"data\":{\"actor\":{");
+
+		boolean first = true;
+
+		for (Map.Entry<String, String> account : accounts.entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+
+			first = false;
+			json.append('"').append(account.getKey()).append("\":");
+
+			if (injectGraphqlError()) {
+				this.graphqlErrors.increment();
+				errors.add(error("injected error", "actor", account.getKey()));
+				json.append("null");
+				continue;
+			}
+
+			json.append("{\"nerdStorage\":{");
+
+			for (int i = 0; i < refs.size(); i += 1) {
+				String[] ref = refs.get(i);
+
+				if (i > 0) {
+					json.append(',');
+				}
+
+				json
+					.append('"').append(ref[0]).append("\":")
+					.append(this.documents.get(
+						key(account.getValue(), ref[2], ref[1])
+					));
+				this.documentsRead.increment();
+			}
+
+			json.append("}}");
+		}
+
+		json.append("}}");
+
+		if (!errors.isEmpty()) {
+			json.append(",\"errors\":[")
+				.append(String.join(",", errors))
+				.append(']');
+		}
+
+		json.append('}');
+
+		return json.toString();
+	}
+
+	private String writeDocument(JsonObject variables) {
+		this.writes.increment();
+
+		if (injectGraphqlError()) {
+			this.graphqlErrors.increment();
+			return "{\"data\":null,\"errors\":[" +
+				error("injected error", "nerdStorageWriteDocument") +
+				"]}";
+		}
+
+		String document = variables.get("document").getAsString();
+
+		this.documentsWritten.increment();
+		this.documents.put(
+			key(
+				variables.get("accountId").getAsString(),
+				variables.get("collectionId").getAsString(),
+				variables.get("documentId").getAsString()
+			),
+			document
+		);
+
+		return "{\"data\":{\"nerdStorageWriteDocument\":" +
+			JsonParser.parseString(document) +
+			"}}";
+	}
+
+	private String writeDocuments(String query, JsonObject variables) {
+		StringBuilder json = new StringBuilder(1024);
+		List<String> errors = new ArrayList<>();
+		Matcher matcher = WRITE_ALIAS.matcher(query);
+		boolean first = true;
+
+		this.writes.increment();
+		json.append("{\"data\":{");
+
+		while (matcher.find()) {
+			String alias = matcher.group(1);
+
+			if (!first) {
+				json.append(',');
+			}
+
+			first = false;
+			json.append('"').append(alias).append("\":");
+
+			if (injectGraphqlError()) {
+				this.graphqlErrors.increment();
+				errors.add(error("injected error", alias));
+				json.append("null");
+				continue;
+			}
+
+			String document = variables.get(matcher.group(3)).getAsString();
+
+			this.documentsWritten.increment();
+			this.documents.put(
+				key(
+					variables.get(matcher.group(5)).getAsString(),
+					variables.get(matcher.group(2)).getAsString(),
+					variables.get(matcher.group(4)).getAsString()
+				),
+				document
+			);
+			json.append(document);
+		}
+
+		json.append('}');
+
+		if (!errors.isEmpty()) {
+			json.append(",\"errors\":[")
+				.append(String.join(",", errors))
+				.append(']');
+		}
+
+		json.append('}');
+
+		return json.toString();
+	}
+
+	private void send(
+		HttpExchange exchange,
+		int code,
+		String body
+	) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		String acceptEncoding =
+			exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		boolean gzip = acceptEncoding != null &&
+			acceptEncoding.contains("gzip");
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+
+		if (gzip) {
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+
+		exchange.sendResponseHeaders(code, gzip ? 0 : bytes.length);
+
+		try (
+			OutputStream out = gzip ?
+				new GZIPOutputStream(exchange.getResponseBody()) :
+				exchange.getResponseBody()
+		) {
+			out.write(bytes);
+		}
+
+		this.bytesSent.add(bytes.length);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			this.requests.increment();
+
+			if (!exchange.getRequestMethod().equals("POST")) {
+				send(exchange, 405, "{\"errors\":[" + error("POST only") + "]}");
+				return;
+			}
+
+			byte[] body = exchange.getRequestBody().readAllBytes();
+
+			delay();
+
+			if (isThrottled()) {
+				this.throttled.increment();
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				send(
+					exchange,
+					429,
+					"{\"errors\":[" + error("too many requests") + "]}"
+				);
+				return;
+			}
+
+			if (
+				this.config.errorRate > 0 &&
+				ThreadLocalRandom.current().nextDouble() < this.config.errorRate
+			) {
+				this.serverErrors.increment();
+				send(
+					exchange,
+					503,
+					"{\"errors\":[" + error("injected error") + "]}"
+				);
+				return;
+			}
+
+			JsonObject request;
+
+			try {
+				request = JsonParser.parseString(
+					new String(body, StandardCharsets.UTF_8)
+				).getAsJsonObject();
+			} catch (JsonParseException | IllegalStateException e) {
+				send(exchange, 400, "{\"errors\":[" + error("bad request") + "]}");
+				return;
+			}
+
+			String query = request.get("query").getAsString();
+			JsonElement variables = request.get("variables");
+			JsonObject vars = variables == null || !variables.isJsonObject() ?
+				new JsonObject() :
+				variables.getAsJsonObject();
+
+			if (query.startsWith("mutation") && query.contains("w0:")) {
+				send(exchange, 200, writeDocuments(query, vars));
+			} else if (query.startsWith("mutation")) {
+				send(exchange, 200, writeDocument(vars));
+			} else if (query.contains("account(id: $accountId)")) {
+				send(exchange, 200, readDocument(vars));
+			} else {
+				send(exchange, 200, readDocuments(query, vars));
+			}
+		}
+	}
+
+	public String getStats() {
+		return String.format(
+			"requests: %d; reads: %d; documents read: %d; writes: %d; documents written: %d; server errors: %d; graphql errors: %d; throttled: %d; sent: %.1f MB",
+			this.requests.sum(),
+			this.reads.sum(),
+			this.documentsRead.sum(),
+			this.writes.sum(),
+			this.documentsWritten.sum(),
+			this.serverErrors.sum(),
+			this.graphqlErrors.sum(),
+			this.throttled.sum(),
+			this.bytesSent.sum() / 1e6
+		);
+	}
+
+	public void resetStats() {
+		this.requests.reset();
+		this.reads.reset();
+		this.documentsRead.reset();
+		this.writes.reset();
+		this.documentsWritten.reset();
+		this.serverErrors.reset();
+		this.graphqlErrors.reset();
+		this.throttled.reset();
+		this.bytesSent.reset();
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	static Map<String, String> parseArgs(String[] args) {
+		Map<String, String> options = new LinkedHashMap<>();
+
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+
+			if (index <= 0) {
+				throw new IllegalArgumentException("invalid argument " + arg);
+			}
+
+			options.put(arg.substring(0, index), arg.substring(index + 1));
+		}
+
+		return options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseArgs(args);
+		Config config = Config.fromArgs(options);
+		int accounts = Integer.parseInt(options.getOrDefault("accounts", "100"));
+		long firstAccountId = Long.parseLong(
+			options.getOrDefault("firstAccountId", "1000000")
+		);
+		NerdgraphStubServer server = new NerdgraphStubServer(
+			config,
+			Integer.parseInt(options.getOrDefault("port", "8765"))
+		);
+		StringBuilder accountIds = new StringBuilder();
+
+		for (int i = 0; i < accounts; i += 1) {
+			String accountId = String.valueOf(firstAccountId + i);
+
+			server.seed(accountId);
+			accountIds.append(i == 0 ? "" : ",").append(accountId);
+		}
+
+		server.start();
+
+		System.out.println(config);
+		System.out.println("NERDGRAPH_URL=" + server.getUrl());
+		System.out.println("REPORT_ACCOUNT_IDS=" + accountIds);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			System.out.println(server.getStats());
+			server.close();
+		}));
+
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,184 @@
+package com.newrelic.labs.reports.benchmark;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Runs an installed scheduler distribution as a child process against a
+// NerdgraphStubServer, the way the start script runs it in a container, and
+// watches its console log for the messages that mark startup milestones.
+class SchedulerProcess implements Closeable {
+	private static final Line END_OF_OUTPUT = new Line("", 0);
+
+	private final Process process;
+	private final Path manifestDir;
+	private final BlockingQueue<Line> lines = new LinkedBlockingQueue<>();
+
+	// A line of console output and the time in milliseconds from starting
+	// the process until it was read
+	static class Line {
+		final String text;
+		final long millis;
+
+		Line(String text, long millis) {
+			this.text = text;
+			this.millis = millis;
+		}
+	}
+
+	private SchedulerProcess(
+		Process process,
+		long startNanos,
+		Path manifestDir,
+		boolean echo
+	) {
+		this.process = process;
+		this.manifestDir = manifestDir;
+
+		Thread reader = new Thread(() -> {
+			try (
+				BufferedReader in = new BufferedReader(new InputStreamReader(
+					process.getInputStream(),
+					StandardCharsets.UTF_8
+				))
+			) {
+				String line;
+
+				while ((line = in.readLine()) != null) {
+					if (echo) {
+						System.out.println("  | " + line);
+					}
+
+					this.lines.add(new Line(
+						line,
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+					));
+				}
+			} catch (IOException e) {
+				// the process is gone
+			} finally {
+				this.lines.add(END_OF_OUTPUT);
+			}
+		}, "scheduler-process-output");
+
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	static SchedulerProcess start(
+		Path appHome,
+		NerdgraphStubServer stub,
+		String accountIds,
+		Map<String, String> environment,
+		String jvmOptions,
+		boolean echo
+	) throws IOException {
+		Path manifestDir = Files.createTempDirectory("nr-reports-startup");
+		ProcessBuilder builder = new ProcessBuilder(
+			appHome.resolve("bin/nr-reports-quartz-scheduler").toString()
+		);
+		Map<String, String> env = builder.environment();
+
+		env.put("NERDGRAPH_URL", stub.getUrl());
+		env.put("NEW_RELIC_API_KEY", "stub");
+		env.put("SOURCE_NERDLET_ID", "stub");
+		env.put("REPORT_ACCOUNT_IDS", accountIds);
+		env.put("MANIFEST_DIR", manifestDir.toString());
+		env.put("CHECKPOINT_ENABLED", "false");
+		env.put("LOG_LEVEL", "INFO");
+		env.put("NR_REPORTS_QUARTZ_SCHEDULER_OPTS", jvmOptions);
+		env.putAll(environment);
+
+		builder.directory(appHome.toFile());
+		builder.redirectErrorStream(true);
+
+		long startNanos = System.nanoTime();
+
+		return new SchedulerProcess(
+			builder.start(),
+			startNanos,
+			manifestDir,
+			echo
+		);
+	}
+
+	// Waits for a log line containing text and returns it
+	Line await(String text, long timeoutMillis) throws IOException {
+		long deadline = System.nanoTime() +
+			TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+		try {
+			while (true) {
+				Line line = this.lines.poll(
+					deadline - System.nanoTime(),
+					TimeUnit.NANOSECONDS
+				);
+
+				if (line == null) {
+					throw new IOException(
+						"timed out waiting for \"" + text + "\""
+					);
+				}
+
+				if (line == END_OF_OUTPUT) {
+					throw new IOException(
+						"scheduler exited while waiting for \"" + text + "\""
+					);
+				}
+
+				if (line.text.contains(text)) {
+					return line;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", e);
+		}
+	}
+
+	// Stops the scheduler with SIGTERM, which runs its shutdown hook and lets
+	// the JVM write any archive requested with -XX:ArchiveClassesAtExit.
+	int stop(long timeoutMillis) throws IOException {
+		this.process.destroy();
+
+		try {
+			if (!this.process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				this.process.destroyForcibly();
+				throw new IOException("scheduler did not stop in time");
+			}
+		} catch (InterruptedException e) {
+			this.process.destroyForcibly();
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", e);
+		}
+
+		return this.process.exitValue();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.process.isAlive()) {
+			this.process.destroyForcibly();
+		}
+
+		try (Stream<Path> files = Files.walk(this.manifestDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> {
+				try {
+					Files.delete(file);
+				} catch (IOException e) {
+					// left for the OS to clean up
+				}
+			});
+		}
+	}
+}
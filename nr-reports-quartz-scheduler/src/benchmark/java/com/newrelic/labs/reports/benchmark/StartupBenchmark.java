@@ -0,0 +1,148 @@
+package com.newrelic.labs.reports.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Measures how long an installed scheduler distribution takes from launch
+// until the scheduler is started with the bootstrapped schedules, that is
+// until reports can fire, with
+//
+// - appcds: the archive created by CdsTraining,
+// - jdk: only the default CDS archive of the JDK, and
+// - off: class data sharing disabled.
+//
+// Every mode is run the given number of times, interleaved so that drift in
+// the machine's load affects every mode alike. The wall time includes the
+// start script and the bootstrap requests to the NerdgraphStubServer; the
+// uptime is the time the scheduler reports for itself. Arguments are
+// key=value pairs after the distribution directory, for example
+//
+//   gradle startupBenchmark -PbenchmarkArgs="runs=10 accounts=200"
+public class StartupBenchmark {
+	private static final Pattern UPTIME =
+		Pattern.compile("scheduler started (\\d+) ms after JVM start");
+	private static final long TIMEOUT_MILLIS = 120_000;
+
+	private static class Mode {
+		final String name;
+		final Map<String, String> environment;
+		final String jvmOptions;
+		final List<Long> wallMillis = new ArrayList<>();
+		final List<Long> uptimeMillis = new ArrayList<>();
+
+		Mode(String name, Map<String, String> environment, String jvmOptions) {
+			this.name = name;
+			this.environment = environment;
+			this.jvmOptions = jvmOptions;
+		}
+	}
+
+	private static long median(List<Long> values) {
+		List<Long> sorted = new ArrayList<>(values);
+
+		Collections.sort(sorted);
+
+		return sorted.get(sorted.size() / 2);
+	}
+
+	private static String summarize(List<Long> values) {
+		return String.format(
+			"median: %d ms; min: %d ms",
+			median(values),
+			Collections.min(values)
+		);
+	}
+
+	public static void main(String[] argv) throws Exception {
+		if (argv.length < 1) {
+			System.err.println(
+				"usage: StartupBenchmark <distribution directory> [key=value ...]"
+			);
+			System.exit(2);
+		}
+
+		Path appHome = Path.of(argv[0]).toAbsolutePath();
+		Map<String, String> args = NerdgraphStubServer.parseArgs(
+			Arrays.copyOfRange(argv, 1, argv.length)
+		);
+		int runs = Integer.parseInt(args.getOrDefault("runs", "5"));
+		int accounts = Integer.parseInt(args.getOrDefault("accounts", "50"));
+		boolean echo = Boolean.parseBoolean(args.getOrDefault("echo", "false"));
+		String ids = CdsTraining.accountIds(accounts);
+		List<Mode> modes = new ArrayList<>();
+
+		if (Files.isRegularFile(appHome.resolve(CdsTraining.ARCHIVE))) {
+			modes.add(new Mode("appcds", Map.of(), ""));
+		} else {
+			System.out.println(
+				"no AppCDS archive in " + appHome + ", run CdsTraining first"
+			);
+		}
+
+		modes.add(new Mode("jdk", Map.of("CDS_ENABLED", "false"), ""));
+		modes.add(
+			new Mode("off", Map.of("CDS_ENABLED", "false"), "-Xshare:off")
+		);
+
+		System.out.printf(
+			"accounts: %d; runs: %d; java: %s%n",
+			accounts,
+			runs,
+			System.getProperty("java.version")
+		);
+
+		try (NerdgraphStubServer stub = CdsTraining.startStub(args, ids)) {
+			// The first run warms up the file system cache and the stub
+			for (int run = -1; run < runs; run += 1) {
+				for (Mode mode : modes) {
+					try (
+						SchedulerProcess scheduler = SchedulerProcess.start(
+							appHome,
+							stub,
+							ids,
+							mode.environment,
+							mode.jvmOptions,
+							echo
+						)
+					) {
+						SchedulerProcess.Line started = scheduler.await(
+							"scheduler started",
+							TIMEOUT_MILLIS
+						);
+						Matcher matcher = UPTIME.matcher(started.text);
+
+						scheduler.stop(TIMEOUT_MILLIS);
+
+						if (run < 0) {
+							continue;
+						}
+
+						mode.wallMillis.add(started.millis);
+
+						if (matcher.find()) {
+							mode.uptimeMillis.add(Long.parseLong(matcher.group(1)));
+						}
+					}
+				}
+			}
+		}
+
+		for (Mode mode : modes) {
+			System.out.printf("%s:%n", mode.name);
+			System.out.println("  wall time to scheduler started: " +
+				summarize(mode.wallMillis));
+
+			if (!mode.uptimeMillis.isEmpty()) {
+				System.out.println("  JVM uptime at scheduler started: " +
+					summarize(mode.uptimeMillis));
+			}
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package com.newrelic.labs.reports.benchmark;
+
+import com.newrelic.labs.reports.ManifestCache;
+import com.newrelic.labs.reports.NerdgraphClient;
+import com.newrelic.labs.reports.ReportScheduler;
+import com.newrelic.labs.reports.SyncException;
+import com.newrelic.labs.reports.SyncJob;
+import com.newrelic.labs.reports.SyncState;
+import com.newrelic.labs.reports.Util;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerContext;
+import org.quartz.Trigger;
+import org.quartz.impl.matchers.KeyMatcher;
+import org.quartz.listeners.JobListenerSupport;
+import org.quartz.listeners.SchedulerListenerSupport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+// Runs the sync job against a NerdgraphStubServer seeded with the accounts
+// in REPORT_ACCOUNT_IDS and reports
+//
+// - the duration and throughput of a cold sync, which downloads every
+//   manifest and creates every schedule, and
+// - the duration of steady state syncs and the change propagation latency,
+//   the time from a manifest being modified in the stub until the changed
+//   schedule is applied to Quartz, while accounts are modified at a fixed
+//   rate.
+//
+// The sync uses the same NerdGraph client settings, parallelism and manifest
+// directory as the scheduler, read from the environment. Arguments are
+// key=value pairs, for example:
+//
+//   gradle syncLoadTest -PloadTestAccounts=5000 \
+//     -PbenchmarkArgs="seconds=60 syncIntervalSeconds=5 changesPerSecond=20 latencyMillis=50"
+public class SyncLoadHarness {
+	private static final String STUB_KEY = "stub";
+
+	private final Util util = Util.getInstance();
+	private final Map<String, String> args;
+	private final int seconds;
+	private final int syncIntervalSeconds;
+	private final int changesPerSecond;
+
+	private final Semaphore syncsCompleted = new Semaphore(0);
+	private final List<Long> syncMillis =
+		Collections.synchronizedList(new ArrayList<>());
+	private final LongAdder syncFailures = new LongAdder();
+	private final Map<String, Long> pendingChanges = new ConcurrentHashMap<>();
+	private final List<Long> propagationMillis =
+		Collections.synchronizedList(new ArrayList<>());
+	private volatile boolean recording = false;
+
+	public SyncLoadHarness(Map<String, String> args) {
+		this.args = args;
+		this.seconds = Integer.parseInt(args.getOrDefault("seconds", "60"));
+		this.syncIntervalSeconds = Integer.parseInt(
+			args.getOrDefault("syncIntervalSeconds", "5")
+		);
+		this.changesPerSecond = Integer.parseInt(
+			args.getOrDefault("changesPerSecond", "10")
+		);
+	}
+
+	private class SyncListener extends JobListenerSupport {
+		@Override
+		public String getName() {
+			return "syncLoadHarness";
+		}
+
+		@Override
+		public void jobWasExecuted(
+			JobExecutionContext context,
+			JobExecutionException e
+		) {
+			if (recording) {
+				syncMillis.add(context.getJobRunTime());
+
+				if (e != null) {
+					syncFailures.increment();
+				}
+			}
+
+			syncsCompleted.release();
+		}
+	}
+
+	private class ScheduleListener extends SchedulerListenerSupport {
+		@Override
+		public void jobScheduled(Trigger trigger) {
+			Long modified = pendingChanges.remove(trigger.getJobKey().getName());
+
+			if (modified != null) {
+				propagationMillis.add(
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - modified)
+				);
+			}
+		}
+	}
+
+	private static long percentile(List<Long> sorted, double p) {
+		if (sorted.isEmpty()) {
+			return 0;
+		}
+
+		int index = (int) Math.ceil(p * sorted.size()) - 1;
+
+		return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+	}
+
+	private static String summarize(List<Long> values) {
+		List<Long> sorted;
+
+		synchronized (values) {
+			sorted = new ArrayList<>(values);
+		}
+
+		Collections.sort(sorted);
+
+		return String.format(
+			"count: %d; p50: %d ms; p95: %d ms; p99: %d ms; max: %d ms",
+			sorted.size(),
+			percentile(sorted, 0.5),
+			percentile(sorted, 0.95),
+			percentile(sorted, 0.99),
+			sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1)
+		);
+	}
+
+	private void coldSync(
+		Scheduler scheduler,
+		JobDetail job,
+		NerdgraphStubServer stub,
+		int accountCount
+	) throws Exception {
+		this.recording = true;
+		scheduler.triggerJob(job.getKey());
+		this.syncsCompleted.acquire();
+		this.recording = false;
+
+		long millis = this.syncMillis.get(0);
+
+		System.out.printf(
+			"cold sync: %d accounts in %d ms (%.1f accounts/s); failed: %d%n",
+			accountCount,
+			millis,
+			accountCount * 1000.0 / Math.max(1, millis),
+			this.syncFailures.sum()
+		);
+		System.out.println("  stub: " + stub.getStats());
+
+		this.syncMillis.clear();
+		this.syncFailures.reset();
+		stub.resetStats();
+	}
+
+	private void steadyState(
+		Scheduler scheduler,
+		JobDetail job,
+		NerdgraphStubServer stub,
+		String[] accountIds
+	) throws Exception {
+		ScheduledExecutorService modifier =
+			Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "sync-load-modifier");
+
+				t.setDaemon(true);
+
+				return t;
+			});
+		Trigger trigger = newTrigger()
+			.withIdentity("syncLoadTrigger", "default")
+			.forJob(job)
+			.withSchedule(
+				simpleSchedule()
+					.withIntervalInSeconds(this.syncIntervalSeconds)
+					.repeatForever()
+					.withMisfireHandlingInstructionNextWithRemainingCount()
+			)
+			.startNow()
+			.build();
+
+		this.syncsCompleted.drainPermits();
+		this.recording = true;
+		scheduler.scheduleJob(trigger);
+
+		if (this.changesPerSecond > 0) {
+			modifier.scheduleAtFixedRate(
+				() -> {
+					String accountId = accountIds[
+						ThreadLocalRandom.current().nextInt(accountIds.length)
+					];
+
+					// A change that is modified again before it was synced is
+					// measured from the first modification.
+					this.pendingChanges.putIfAbsent(
+						NerdgraphStubServer.getModifiedScheduleName(accountId),
+						System.nanoTime()
+					);
+					stub.modify(accountId);
+				},
+				0,
+				1_000_000L / this.changesPerSecond,
+				TimeUnit.MICROSECONDS
+			);
+		}
+
+		Thread.sleep(this.seconds * 1000L);
+
+		modifier.shutdownNow();
+
+		// Let the changes made just before the end propagate
+		this.syncsCompleted.drainPermits();
+		this.syncsCompleted.tryAcquire(
+			2,
+			this.syncIntervalSeconds * 10L,
+			TimeUnit.SECONDS
+		);
+
+		scheduler.unscheduleJob(trigger.getKey());
+		this.recording = false;
+
+		System.out.printf(
+			"steady state: %d s; sync interval: %d s; changes/s: %d%n",
+			this.seconds,
+			this.syncIntervalSeconds,
+			this.changesPerSecond
+		);
+		System.out.println("  syncs: " + summarize(this.syncMillis) +
+			"; failed: " + this.syncFailures.sum());
+		System.out.println("  propagation: " +
+			summarize(this.propagationMillis) +
+			"; not propagated: " + this.pendingChanges.size());
+		System.out.println("  stub: " + stub.getStats());
+	}
+
+	public void run() throws Exception {
+		String[] accountIds = this.util.requireAccountIds();
+		NerdgraphStubServer.Config config =
+			NerdgraphStubServer.Config.fromArgs(this.args);
+
+		System.out.println("accounts: " + accountIds.length + "; " + config);
+
+		try (NerdgraphStubServer stub = new NerdgraphStubServer(config, 0)) {
+			for (String accountId : accountIds) {
+				stub.seed(accountId);
+			}
+
+			stub.start();
+
+			NerdgraphClient client = new NerdgraphClient(
+				this.util,
+				stub.getUrl(),
+				STUB_KEY,
+				STUB_KEY,
+				this.util.createNerdgraphClientConfig()
+			);
+			ManifestCache manifestCache = new ManifestCache(this.util);
+			ExecutorService syncExecutor = this.util.createSyncExecutor();
+			Scheduler scheduler = this.util.getScheduler();
+
+			try {
+				SchedulerContext context = scheduler.getContext();
+				JobDetail job = newJob(SyncJob.class)
+					.withIdentity("sync", "default")
+					.storeDurably()
+					.build();
+
+				client.start();
+				context.put(ReportScheduler.NERDGRAPH_CLIENT_KEY, client);
+				context.put(ReportScheduler.SYNC_EXECUTOR_KEY, syncExecutor);
+				context.put(ReportScheduler.SYNC_STATE_KEY, new SyncState());
+				context.put(ReportScheduler.MANIFEST_CACHE_KEY, manifestCache);
+
+				scheduler.getListenerManager().addJobListener(
+					new SyncListener(),
+					KeyMatcher.keyEquals(job.getKey())
+				);
+				scheduler.getListenerManager().addSchedulerListener(
+					new ScheduleListener()
+				);
+				scheduler.addJob(job, false);
+				scheduler.start();
+
+				coldSync(scheduler, job, stub, accountIds.length);
+				steadyState(scheduler, job, stub, accountIds);
+			} finally {
+				scheduler.shutdown(true);
+				syncExecutor.shutdownNow();
+				manifestCache.close();
+				client.close();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		try {
+			new SyncLoadHarness(NerdgraphStubServer.parseArgs(args)).run();
+		} catch (SyncException e) {
+			System.err.println("sync load test failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.newrelic.labs.reports.benchmark;
+
+import com.newrelic.labs.reports.SyncException;
+import com.newrelic.labs.reports.Util;
+import com.newrelic.labs.reports.model.PublishConfigItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quartz.SchedulerException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Calculating and applying the change set of a manifest to the in-memory
+// Quartz scheduler that the scheduler uses by default. The scheduler is never
+// started so no jobs fire.
+//
+// create:    every schedule is new
+// update:    every schedule changed since the last sync
+// unchanged: nothing changed, so only the change set is calculated
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeSetBenchmark {
+	private static final String ACCOUNT_ID = "1";
+
+	@Param({ "10", "1000", "100000" })
+	int publishConfigs;
+
+	@Param({ "create", "update", "unchanged" })
+	String change;
+
+	private final Util util = Util.getInstance();
+	private String scheduleGroupName;
+	private final PublishConfigItem[][] variants = new PublishConfigItem[2][];
+	private final List<Map<String, String>> variantDigests = new ArrayList<>();
+	private Map<String, String> appliedDigests;
+	private String[] scheduleNames;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() throws SyncException {
+		this.scheduleGroupName = this.util.getScheduleGroupName();
+
+		for (int variant = 0; variant < this.variants.length; variant += 1) {
+			this.variants[variant] = this.util.getPublishConfigurationItems(
+				ACCOUNT_ID,
+				Manifests.create(this.publishConfigs, variant).getReports()
+			);
+			this.variantDigests.add(
+				this.util.getPublishConfigurationDigests(this.variants[variant])
+			);
+		}
+
+		this.util.calculateAndApplyChangeSet(
+			ACCOUNT_ID,
+			this.scheduleGroupName,
+			Map.of(),
+			new String[0],
+			this.variants[0]
+		);
+
+		this.appliedDigests = this.variantDigests.get(0);
+		this.scheduleNames = this.util.getScheduleNames(
+			ACCOUNT_ID,
+			this.scheduleGroupName
+		);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() throws SyncException {
+		switch (this.change) {
+			case "create" -> {
+				this.util.deleteAccountSchedules(
+					ACCOUNT_ID,
+					this.scheduleGroupName
+				);
+				this.appliedDigests = Map.of();
+				this.scheduleNames = new String[0];
+			}
+			case "update" -> {
+				// The variant applied by the previous invocation is replaced
+				// by the other one.
+				this.appliedDigests = this.variantDigests.get(this.next);
+				this.next = 1 - this.next;
+			}
+			default -> {}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() throws SchedulerException {
+		this.util.getScheduler().shutdown();
+	}
+
+	@Benchmark
+	public void calculateAndApplyChangeSet() throws SyncException {
+		this.util.calculateAndApplyChangeSet(
+			ACCOUNT_ID,
+			this.scheduleGroupName,
+			this.appliedDigests,
+			this.scheduleNames,
+			this.variants[this.next]
+		);
+	}
+}
@@ -0,0 +1,57 @@
+package com.newrelic.labs.reports.benchmark;
+
+import com.google.gson.stream.JsonReader;
+import com.newrelic.labs.reports.NerdgraphCodec;
+import com.newrelic.labs.reports.NerdgraphQueryException;
+import com.newrelic.labs.reports.model.Manifest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Decoding a manifest from the NerdGraph response to a NerdStorage document
+// query, from the response bytes as they are read from the connection.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManifestDecodeBenchmark {
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	int publishConfigs;
+
+	private byte[] response;
+
+	@Setup
+	public void setUp() {
+		this.response = Manifests.toReadDocumentResponse(
+			Manifests.toJson(this.publishConfigs, 0)
+		).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public Manifest decodeDocument()
+		throws IOException, NerdgraphQueryException {
+		return NerdgraphCodec.decodeDocument(
+			new JsonReader(new InputStreamReader(
+				new ByteArrayInputStream(this.response),
+				StandardCharsets.UTF_8
+			)),
+			Manifest.class
+		);
+	}
+}
@@ -0,0 +1,82 @@
+package com.newrelic.labs.reports.benchmark;
+
+import com.newrelic.labs.reports.NerdgraphCodec;
+import com.newrelic.labs.reports.model.Manifest;
+
+// Builds synthetic manifests for the benchmarks. Reports have up to five
+// publish configurations each, alternating between daily and weekday
+// schedules.
+// Manifests built with a different variant have the same schedule names but
+// different schedules, so applying one after the other updates every
+// schedule.
+final class Manifests {
+	private static final int PUBLISH_CONFIGS_PER_REPORT = 5;
+
+	private Manifests() {}
+
+	static String toJson(int publishConfigs, int variant) {
+		StringBuilder json = new StringBuilder(publishConfigs * 96 + 32);
+		int reportCount = (publishConfigs + PUBLISH_CONFIGS_PER_REPORT - 1) /
+			PUBLISH_CONFIGS_PER_REPORT;
+		int index = 0;
+
+		json.append("{\"reports\":[");
+
+		for (int r = 0; r < reportCount; r += 1) {
+			if (r > 0) {
+				json.append(',');
+			}
+
+			json
+				.append("{\"id\":\"report-").append(r)
+				.append("\",\"name\":\"Report ").append(r)
+				.append("\",\"lastModifiedDate\":1700000000000")
+				.append(",\"publishConfigs\":[");
+
+			for (
+				int p = 0;
+				p < PUBLISH_CONFIGS_PER_REPORT && index < publishConfigs;
+				p += 1, index += 1
+			) {
+				int minute = (index + variant) % 60;
+				int hour = (index / 60) % 24;
+
+				if (p > 0) {
+					json.append(',');
+				}
+
+				json
+					.append("{\"id\":\"publish-").append(p)
+					.append("\",\"schedule\":\"")
+					.append(
+						index % 2 == 0 ?
+							minute + " " + hour + " * * ? *" :
+							minute + " " + hour + " ? * MON-FRI *"
+					)
+					.append("\",\"enabled\":")
+					.append(index % 10 != 9)
+					.append('}');
+			}
+
+			json.append("]}");
+		}
+
+		json.append("]}");
+
+		return json.toString();
+	}
+
+	static Manifest create(int publishConfigs, int variant) {
+		return NerdgraphCodec.getGson().fromJson(
+			toJson(publishConfigs, variant),
+			Manifest.class
+		);
+	}
+
+	// A NerdGraph response to the query for a single NerdStorage document
+	static String toReadDocumentResponse(String manifestJson) {
+		return "{\"data\":{\"actor\":{\"account\":{\"nerdStorage\":{\"document\":" +
+			manifestJson +
+			"}}}}}";
+	}
+}
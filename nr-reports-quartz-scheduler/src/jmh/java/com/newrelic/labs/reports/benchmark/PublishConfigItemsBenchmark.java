@@ -0,0 +1,44 @@
+package com.newrelic.labs.reports.benchmark;
+
+import com.newrelic.labs.reports.Util;
+import com.newrelic.labs.reports.model.PublishConfigItem;
+import com.newrelic.labs.reports.model.Report;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Flattening the reports of a manifest into publish configuration items,
+// which every sync of a modified account starts with.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishConfigItemsBenchmark {
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	int publishConfigs;
+
+	private final Util util = Util.getInstance();
+	private Report[] reports;
+
+	@Setup
+	public void setUp() {
+		this.reports = Manifests.create(this.publishConfigs, 0).getReports();
+	}
+
+	@Benchmark
+	public PublishConfigItem[] getPublishConfigurationItems() {
+		return this.util.getPublishConfigurationItems("1", this.reports);
+	}
+}
@@ -0,0 +1,63 @@
+package com.newrelic.labs.reports.benchmark;
+
+import com.newrelic.labs.reports.SyncException;
+import com.newrelic.labs.reports.Util;
+import com.newrelic.labs.reports.model.Manifest;
+import com.newrelic.labs.reports.model.PublishConfigItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Validating the schedules of every publish configuration of a manifest and
+// getting their Quartz cron expressions, and building the Quartz triggers for
+// them, as done for each schedule that is created or updated.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScheduleExpressionBenchmark {
+	@Param({ "10", "1000", "100000" })
+	int publishConfigs;
+
+	private final Util util = Util.getInstance();
+	private PublishConfigItem[] publishConfigItems;
+
+	@Setup
+	public void setUp() {
+		Manifest manifest = Manifests.create(this.publishConfigs, 0);
+
+		this.publishConfigItems = this.util.getPublishConfigurationItems(
+			"1",
+			manifest.getReports()
+		);
+	}
+
+	@Benchmark
+	public void getValidSchedule(Blackhole blackhole) throws SyncException {
+		for (PublishConfigItem item : this.publishConfigItems) {
+			blackhole.consume(
+				this.util.getValidSchedule(item).getQuartzExpression()
+			);
+		}
+	}
+
+	@Benchmark
+	public void buildTrigger(Blackhole blackhole) throws SyncException {
+		for (PublishConfigItem item : this.publishConfigItems) {
+			blackhole.consume(this.util.buildTrigger("schedules", item));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.newrelic.labs.reports;
+
+import java.util.Map;
+
+public class AccountState {
+	// Used when the lastModifiedDate of the account metadata has not been
+	// seen yet so that the next sync always checks the manifest.
+	public static final long UNKNOWN_LAST_MODIFIED_DATE = Long.MIN_VALUE;
+
+	private final long lastModifiedDate;
+	private final String manifestDigest;
+	private final Map<String, String> scheduleDigests;
+	private final long lastPolledDate;
+	// Only set with adaptive polling. An account whose next poll date is not
+	// set is polled on the next sync.
+	private final long pollIntervalMillis;
+	private final long nextPollDate;
+
+	public AccountState(
+		long lastModifiedDate,
+		String manifestDigest,
+		Map<String, String> scheduleDigests,
+		long lastPolledDate
+	) {
+		this(
+			lastModifiedDate,
+			manifestDigest,
+			scheduleDigests,
+			lastPolledDate,
+			0,
+			0
+		);
+	}
+
+	public AccountState(
+		long lastModifiedDate,
+		String manifestDigest,
+		Map<String, String> scheduleDigests,
+		long lastPolledDate,
+		long pollIntervalMillis,
+		long nextPollDate
+	) {
+		this.lastModifiedDate = lastModifiedDate;
+		this.manifestDigest = manifestDigest;
+		this.scheduleDigests = Map.copyOf(scheduleDigests);
+		this.lastPolledDate = lastPolledDate;
+		this.pollIntervalMillis = pollIntervalMillis;
+		this.nextPollDate = nextPollDate;
+	}
+
+	public long getLastModifiedDate() {
+		return this.lastModifiedDate;
+	}
+
+	public String getManifestDigest() {
+		return this.manifestDigest;
+	}
+
+	public Map<String, String> getScheduleDigests() {
+		return this.scheduleDigests;
+	}
+
+	public long getLastPolledDate() {
+		return this.lastPolledDate;
+	}
+
+	public long getPollIntervalMillis() {
+		return this.pollIntervalMillis;
+	}
+
+	public long getNextPollDate() {
+		return this.nextPollDate;
+	}
+
+	public AccountState withLastModifiedDate(
+		long lastModifiedDate,
+		long lastPolledDate
+	) {
+		return new AccountState(
+			lastModifiedDate,
+			this.manifestDigest,
+			this.scheduleDigests,
+			lastPolledDate,
+			this.pollIntervalMillis,
+			this.nextPollDate
+		);
+	}
+
+	public AccountState withNextPoll(long pollIntervalMillis, long nextPollDate) {
+		return new AccountState(
+			this.lastModifiedDate,
+			this.manifestDigest,
+			this.scheduleDigests,
+			this.lastPolledDate,
+			pollIntervalMillis,
+			nextPollDate
+		);
+	}
+}
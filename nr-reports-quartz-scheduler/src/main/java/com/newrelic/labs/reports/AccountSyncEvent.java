@@ -0,0 +1,22 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.AccountSync")
+@Label("Account Sync")
+@Category({"New Relic Reports", "Sync"})
+@Description("Applying the manifest of a modified account and storing its metadata")
+class AccountSyncEvent extends Event {
+	@Label("Account ID")
+	String accountId;
+
+	@Label("Publish Configurations")
+	int publishConfigCount;
+
+	@Label("Manifest Changed")
+	boolean manifestChanged;
+}
@@ -0,0 +1,44 @@
+package com.newrelic.labs.reports;
+
+import com.newrelic.labs.reports.model.PublishConfigItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChangeSet {
+	private final List<PublishConfigItem> schedulesToCreate;
+	private final List<PublishConfigItem> schedulesToUpdate;
+	private final List<String> schedulesToDelete;
+	private final List<PublishConfigItem> unchangedSchedules;
+
+	public ChangeSet(int expectedSize) {
+		this.schedulesToCreate = new ArrayList<>(expectedSize);
+		this.schedulesToUpdate = new ArrayList<>(expectedSize);
+		this.schedulesToDelete = new ArrayList<>();
+		this.unchangedSchedules = new ArrayList<>(expectedSize);
+	}
+
+	public List<PublishConfigItem> getSchedulesToCreate() {
+		return this.schedulesToCreate;
+	}
+
+	public List<PublishConfigItem> getSchedulesToUpdate() {
+		return this.schedulesToUpdate;
+	}
+
+	public List<String> getSchedulesToDelete() {
+		return this.schedulesToDelete;
+	}
+
+	public List<PublishConfigItem> getUnchangedSchedules() {
+		return this.unchangedSchedules;
+	}
+
+	public boolean isEmpty() {
+		return (
+			this.schedulesToCreate.isEmpty() &&
+			this.schedulesToUpdate.isEmpty() &&
+			this.schedulesToDelete.isEmpty()
+		);
+	}
+}
@@ -0,0 +1,34 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.ChangeSet")
+@Label("Change Set Calculation")
+@Category({"New Relic Reports", "Sync"})
+@Description("Calculating the schedules to create, update and delete for an account")
+class ChangeSetEvent extends Event {
+	@Label("Account ID")
+	String accountId;
+
+	@Label("Publish Configurations")
+	int publishConfigCount;
+
+	@Label("Existing Schedules")
+	int scheduleCount;
+
+	@Label("Creates")
+	int createCount;
+
+	@Label("Updates")
+	int updateCount;
+
+	@Label("Deletes")
+	int deleteCount;
+
+	@Label("Unchanged")
+	int unchangedCount;
+}
@@ -0,0 +1,31 @@
+package com.newrelic.labs.reports;
+
+import java.util.Map;
+
+public class Checkpoint {
+	public static final int VERSION = 1;
+
+	private int version = VERSION;
+	private long createdDate;
+	private Map<String, AccountState> accounts;
+
+	public Checkpoint() {
+	}
+
+	public Checkpoint(long createdDate, Map<String, AccountState> accounts) {
+		this.createdDate = createdDate;
+		this.accounts = Map.copyOf(accounts);
+	}
+
+	public int getVersion() {
+		return this.version;
+	}
+
+	public long getCreatedDate() {
+		return this.createdDate;
+	}
+
+	public Map<String, AccountState> getAccounts() {
+		return this.accounts;
+	}
+}
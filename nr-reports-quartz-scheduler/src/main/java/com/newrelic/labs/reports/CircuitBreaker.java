@@ -0,0 +1,153 @@
+package com.newrelic.labs.reports;
+
+import java.util.logging.Logger;
+
+// Sheds NerdGraph requests while the endpoint is unhealthy. The breaker opens
+// after failureThreshold consecutive failures, that is throttled requests,
+// server errors and I/O errors, and rejects every request until openMillis
+// have passed. It then lets a single trial request through. The breaker
+// closes again if the trial succeeds and opens for another openMillis if it
+// fails.
+public class CircuitBreaker {
+	private static final Logger LOGGER =
+		Logger.getLogger(CircuitBreaker.class.getName());
+
+	public enum State {
+		CLOSED,
+		HALF_OPEN,
+		OPEN
+	}
+
+	// Identifies an admitted request. Every trial request gets its own
+	// permit while all other requests share one.
+	public static final class Permit {
+		private Permit() {}
+	}
+
+	private static final Permit REQUEST = new Permit();
+
+	private final int failureThreshold;
+	private final long openMillis;
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openedAt = 0;
+	private Permit trial = null;
+	private long opened = 0;
+	private long rejected = 0;
+
+	public CircuitBreaker(int failureThreshold, long openMillis) {
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	public boolean isEnabled() {
+		return this.failureThreshold > 0;
+	}
+
+	// Admits a request through the breaker. The permit is null if the request
+	// is rejected and otherwise identifies the request when its outcome is
+	// recorded.
+	public synchronized Permit acquire() {
+		if (!isEnabled() || this.state == State.CLOSED) {
+			return REQUEST;
+		}
+
+		long now = System.currentTimeMillis();
+
+		if (this.state == State.OPEN && now - this.openedAt >= this.openMillis) {
+			this.state = State.HALF_OPEN;
+			this.trial = null;
+			LOGGER.info("nerdgraph circuit breaker half open");
+		}
+
+		if (this.state == State.HALF_OPEN && this.trial == null) {
+			this.trial = new Permit();
+			return this.trial;
+		}
+
+		this.rejected += 1;
+
+		return null;
+	}
+
+	// Only the trial request decides whether a breaker that is not closed
+	// closes or opens again. Requests admitted before the breaker opened can
+	// still complete while it is open or half open, and such stragglers must
+	// neither close the breaker nor count towards opening it again.
+	private boolean isVerdict(Permit permit) {
+		return this.state == State.CLOSED ||
+			(permit != null && permit == this.trial);
+	}
+
+	public synchronized void onSuccess(Permit permit) {
+		if (!isVerdict(permit)) {
+			return;
+		}
+
+		this.failures = 0;
+		this.trial = null;
+
+		if (this.state != State.CLOSED) {
+			this.state = State.CLOSED;
+			LOGGER.info("nerdgraph circuit breaker closed");
+		}
+	}
+
+	public synchronized void onFailure(Permit permit) {
+		if (!isVerdict(permit)) {
+			return;
+		}
+
+		this.failures += 1;
+		this.trial = null;
+
+		if (!isEnabled()) {
+			return;
+		}
+
+		if (
+			this.state == State.HALF_OPEN ||
+			(this.state == State.CLOSED && this.failures >= this.failureThreshold)
+		) {
+			this.state = State.OPEN;
+			this.openedAt = System.currentTimeMillis();
+			this.opened += 1;
+			LOGGER.warning(String.format(
+				"nerdgraph circuit breaker opened for %d ms after %d consecutive failures",
+				this.openMillis,
+				this.failures
+			));
+		}
+	}
+
+	// Records a request that ended without a verdict on the health of the
+	// endpoint, for example because it was interrupted. Only the trial request
+	// releases the trial, so that abandoning any other request does not let a
+	// second trial through.
+	public synchronized void onAbandoned(Permit permit) {
+		if (permit != null && permit == this.trial) {
+			this.trial = null;
+		}
+	}
+
+	public synchronized State getState() {
+		return this.state;
+	}
+
+	public synchronized long getOpened() {
+		return this.opened;
+	}
+
+	public synchronized long getRejected() {
+		return this.rejected;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"failure threshold: %d; open: %d ms",
+			this.failureThreshold,
+			this.openMillis
+		);
+	}
+}
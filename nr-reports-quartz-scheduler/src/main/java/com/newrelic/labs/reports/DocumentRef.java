@@ -0,0 +1,38 @@
+package com.newrelic.labs.reports;
+
+import java.lang.reflect.Type;
+
+public class DocumentRef {
+	private final String alias;
+	private final String collectionName;
+	private final String documentId;
+	private final Type type;
+
+	public DocumentRef(
+		String alias,
+		String collectionName,
+		String documentId,
+		Type type
+	) {
+		this.alias = alias;
+		this.collectionName = collectionName;
+		this.documentId = documentId;
+		this.type = type;
+	}
+
+	public String getAlias() {
+		return this.alias;
+	}
+
+	public String getCollectionName() {
+		return this.collectionName;
+	}
+
+	public String getDocumentId() {
+		return this.documentId;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+}
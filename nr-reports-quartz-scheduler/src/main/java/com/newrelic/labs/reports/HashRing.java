@@ -0,0 +1,57 @@
+package com.newrelic.labs.reports;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// A consistent hash ring over a list of members. Each member is placed on the
+// ring at several points so that keys are spread evenly and, when a member is
+// added or removed, only the keys of that member move. The hash does not
+// depend on the JVM, so every instance computes the same owners.
+public class HashRing {
+	private final List<String> members;
+	private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+	public HashRing(List<String> members, int virtualNodes) {
+		this.members = List.copyOf(members);
+
+		for (String member : this.members) {
+			for (int i = 0; i < virtualNodes; i += 1) {
+				this.ring.putIfAbsent(hash(member + "#" + i), member);
+			}
+		}
+	}
+
+	private static long hash(String key) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+			return ByteBuffer.wrap(
+				md.digest(key.getBytes(StandardCharsets.UTF_8))
+			).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not supported", e);
+		}
+	}
+
+	public List<String> getMembers() {
+		return this.members;
+	}
+
+	public String getOwner(String key) {
+		if (this.ring.isEmpty()) {
+			return null;
+		}
+
+		Map.Entry<Long, String> entry = this.ring.ceilingEntry(hash(key));
+
+		return entry == null ?
+			this.ring.firstEntry().getValue() :
+			entry.getValue();
+	}
+}
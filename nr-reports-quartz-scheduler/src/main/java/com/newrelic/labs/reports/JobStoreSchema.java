@@ -0,0 +1,148 @@
+package com.newrelic.labs.reports;
+
+import org.quartz.utils.DBConnectionManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+
+// Creates the Quartz tables for a JDBC job store from the DDL scripts that
+// ship with Quartz so that a new database does not have to be prepared by
+// hand before the first scheduler instance starts.
+public class JobStoreSchema {
+	private static final Logger LOGGER =
+		Logger.getLogger(JobStoreSchema.class.getName());
+
+	private static final String SCRIPT_PATH =
+		"/org/quartz/impl/jdbcjobstore/tables_%s.sql";
+	private static final String DEFAULT_TABLE_PREFIX = "QRTZ_";
+
+	private final String dataSourceName;
+	private final String tablePrefix;
+
+	public JobStoreSchema(String dataSourceName, String tablePrefix) {
+		this.dataSourceName = dataSourceName;
+		this.tablePrefix = tablePrefix == null || tablePrefix.isEmpty() ?
+			DEFAULT_TABLE_PREFIX :
+			tablePrefix;
+	}
+
+	private boolean exists(Connection connection) {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeQuery(
+				"SELECT COUNT(*) FROM " + this.tablePrefix + "LOCKS"
+			).close();
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private List<String> readStatements(
+		String database
+	) throws SyncException {
+		String path = String.format(SCRIPT_PATH, database);
+		String script;
+
+		try (InputStream in = JobStoreSchema.class.getResourceAsStream(path)) {
+			if (in == null) {
+				throw new SyncException(
+					"no quartz schema script found for database " + database
+				);
+			}
+
+			script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new SyncException("failed to read " + path, e);
+		}
+
+		StringBuilder sql = new StringBuilder();
+
+		for (String line : script.split("\\R")) {
+			String trimmed = line.trim();
+
+			if (trimmed.startsWith("--") || trimmed.startsWith("#")) {
+				continue;
+			}
+
+			sql.append(line).append('\n');
+		}
+
+		List<String> statements = new ArrayList<>();
+
+		for (String statement : sql.toString().split(";")) {
+			String trimmed = statement.trim();
+
+			// Transactions are handled here and the scripts for some
+			// databases drop the tables first, which is never wanted.
+			if (
+				trimmed.isEmpty() ||
+				trimmed.equalsIgnoreCase("commit") ||
+				trimmed.toUpperCase().startsWith("DROP ")
+			) {
+				continue;
+			}
+
+			statements.add(trimmed.replaceAll(
+				"(?i)" + DEFAULT_TABLE_PREFIX,
+				Matcher.quoteReplacement(this.tablePrefix)
+			));
+		}
+
+		return statements;
+	}
+
+	public void initialize(String database) throws SyncException {
+		try (
+			Connection connection = DBConnectionManager.getInstance()
+				.getConnection(this.dataSourceName)
+		) {
+			if (exists(connection)) {
+				LOGGER.finest("quartz schema already exists");
+				return;
+			}
+
+			LOGGER.info("creating quartz schema for database " + database);
+
+			List<String> statements = readStatements(database);
+			boolean autoCommit = connection.getAutoCommit();
+
+			connection.setAutoCommit(false);
+
+			try (Statement statement = connection.createStatement()) {
+				for (String sql : statements) {
+					statement.execute(sql);
+				}
+
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+
+				// Another scheduler instance sharing the database may have
+				// created the schema at the same time.
+				if (exists(connection)) {
+					LOGGER.log(
+						Level.FINEST,
+						"quartz schema created concurrently",
+						e
+					);
+					return;
+				}
+
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		} catch (SQLException e) {
+			throw new SyncException("failed to create quartz schema", e);
+		}
+	}
+}
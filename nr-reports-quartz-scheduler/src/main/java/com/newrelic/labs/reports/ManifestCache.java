@@ -0,0 +1,126 @@
+package com.newrelic.labs.reports;
+
+import com.newrelic.labs.reports.model.Manifest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ManifestCache implements Closeable {
+	private static final Logger LOGGER =
+		Logger.getLogger(ManifestCache.class.getName());
+
+	private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+	private final Util util;
+	private final Map<String, Manifest> pendingWrites =
+		new ConcurrentHashMap<>();
+	private final AtomicReference<Checkpoint> pendingCheckpoint =
+		new AtomicReference<>();
+	private final ExecutorService writer;
+
+	public ManifestCache(Util util) {
+		this.util = util;
+		this.writer = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "manifest-writer");
+
+			t.setDaemon(true);
+
+			return t;
+		});
+	}
+
+	// The sync path works with the sync state and the manifest it just read,
+	// so the manifest file is only a crash-recovery copy. It is written behind
+	// on a separate thread and, when an account is updated again before its
+	// file is written, only the latest manifest is written. Files of accounts
+	// that are released are left in place so that they can be used again if
+	// the account is owned by this instance again later.
+	public void put(String accountId, Manifest manifest) {
+		if (this.pendingWrites.put(accountId, manifest) == null) {
+			this.writer.execute(() -> write(accountId));
+		}
+	}
+
+	// The checkpoint is written on the same thread as the manifest files and
+	// after any manifest file queued before it, so that a checkpoint on disk
+	// never refers to a manifest whose file has not been written yet.
+	public void checkpoint(SyncState syncState) {
+		if (!this.util.isCheckpointEnabled()) {
+			return;
+		}
+
+		Checkpoint checkpoint = new Checkpoint(
+			System.currentTimeMillis(),
+			syncState.getAccounts()
+		);
+
+		if (this.pendingCheckpoint.getAndSet(checkpoint) == null) {
+			try {
+				this.writer.execute(this::writeCheckpoint);
+			} catch (RejectedExecutionException e) {
+				LOGGER.warning("manifest cache closed, checkpoint not written");
+			}
+		}
+	}
+
+	private void writeCheckpoint() {
+		Checkpoint checkpoint = this.pendingCheckpoint.getAndSet(null);
+
+		if (checkpoint == null) {
+			return;
+		}
+
+		try {
+			this.util.writeCheckpoint(checkpoint);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "failed to write checkpoint", e);
+		}
+	}
+
+	private void write(String accountId) {
+		Manifest manifest = this.pendingWrites.remove(accountId);
+
+		if (manifest == null) {
+			return;
+		}
+
+		try {
+			this.util.writeManifest(accountId, manifest);
+		} catch (IOException | SyncException e) {
+			LOGGER.log(
+				Level.WARNING,
+				"failed to write manifest file for account ID " + accountId,
+				e
+			);
+		}
+	}
+
+	@Override
+	public void close() {
+		// Pending writes are flushed so that the files match the sync state
+		// when the scheduler shuts down cleanly.
+		this.writer.shutdown();
+
+		try {
+			if (
+				!this.writer.awaitTermination(
+					CLOSE_TIMEOUT_SECONDS,
+					TimeUnit.SECONDS
+				)
+			) {
+				LOGGER.warning("timed out writing pending manifest files");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.ManifestDownload")
+@Label("Manifest Download")
+@Category({"New Relic Reports", "Sync"})
+@Description("Downloading the manifests of accounts from NerdStorage")
+class ManifestDownloadEvent extends Event {
+	@Label("Accounts")
+	int accountCount;
+
+	@Label("Failed Accounts")
+	int failedCount;
+}
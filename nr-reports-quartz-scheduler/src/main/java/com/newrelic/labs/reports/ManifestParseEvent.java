@@ -0,0 +1,28 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.ManifestParse")
+@Label("Manifest Parse")
+@Category({"New Relic Reports", "Sync"})
+@Description("Parsing the manifest of an account")
+class ManifestParseEvent extends Event {
+	@Label("Account ID")
+	String accountId;
+
+	@Label("Source")
+	@Description("nerdstorage or file")
+	String source;
+
+	@Label("Reports")
+	int reportCount;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+}
@@ -0,0 +1,22 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.MetadataRead")
+@Label("Metadata Read")
+@Category({"New Relic Reports", "Sync"})
+@Description("Reading the metadata of all accounts at the start of a sync")
+class MetadataReadEvent extends Event {
+	@Label("Accounts")
+	int accountCount;
+
+	@Label("Failed Accounts")
+	int failedCount;
+
+	@Label("Includes Manifests")
+	boolean includesManifests;
+}
@@ -0,0 +1,163 @@
+package com.newrelic.labs.reports;
+
+import com.newrelic.labs.reports.model.Metadata;
+import org.apache.hc.core5.util.Timeout;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Collects the metadata writes of a sync and sends them as batched NerdGraph
+// mutations of up to batchSize accounts each. A batch is sent as soon as it
+// is full, so that writes overlap with the accounts still being synced, or
+// lingerMillis after its first write, so that an account that is slow to sync
+// does not hold back the writes of the others. flush sends whatever is left
+// once every account has been added.
+//
+// Cancelling the future of a single write does not cancel the batch it is
+// part of.
+public class MetadataWriteBuffer {
+	private static final Logger LOGGER =
+		Logger.getLogger(MetadataWriteBuffer.class.getName());
+
+	private final NerdgraphClient client;
+	private final int batchSize;
+	private final Timeout deadline;
+	private final long lingerMillis;
+	private Map<String, Metadata> pending = new LinkedHashMap<>();
+	private Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+	// Counts the batches taken from pending so that a linger timer only
+	// sends the batch it was started for.
+	private long generation = 0;
+
+	public MetadataWriteBuffer(
+		NerdgraphClient client,
+		int batchSize,
+		Timeout deadline,
+		long lingerMillis
+	) {
+		this.client = client;
+		this.batchSize = Math.max(1, batchSize);
+		this.deadline = deadline;
+		this.lingerMillis = lingerMillis;
+	}
+
+	public CompletableFuture<Void> write(String accountId, Metadata metadata) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		Map<String, Metadata> batch = null;
+		Map<String, CompletableFuture<Void>> batchFutures = null;
+		long lingerGeneration = -1;
+
+		synchronized (this) {
+			// A later write for the same account replaces the earlier one
+			CompletableFuture<Void> previous = this.futures.put(accountId, future);
+
+			if (previous != null) {
+				previous.complete(null);
+			}
+
+			this.pending.put(accountId, metadata);
+
+			if (this.pending.size() >= this.batchSize) {
+				batch = this.pending;
+				batchFutures = this.futures;
+				this.pending = new LinkedHashMap<>();
+				this.futures = new LinkedHashMap<>();
+				this.generation += 1;
+			} else if (this.pending.size() == 1) {
+				lingerGeneration = this.generation;
+			}
+		}
+
+		if (batch != null) {
+			send(batch, batchFutures);
+		} else if (lingerGeneration >= 0) {
+			final long generation = lingerGeneration;
+
+			CompletableFuture.delayedExecutor(
+				this.lingerMillis,
+				TimeUnit.MILLISECONDS
+			).execute(() -> flush(generation));
+		}
+
+		return future;
+	}
+
+	public void flush() {
+		flush(-1);
+	}
+
+	// Sends the pending writes, unless generation is not negative and the
+	// batch it refers to was already sent.
+	private void flush(long generation) {
+		Map<String, Metadata> batch;
+		Map<String, CompletableFuture<Void>> batchFutures;
+
+		synchronized (this) {
+			if (
+				this.pending.isEmpty() ||
+				(generation >= 0 && generation != this.generation)
+			) {
+				return;
+			}
+
+			batch = this.pending;
+			batchFutures = this.futures;
+			this.pending = new LinkedHashMap<>();
+			this.futures = new LinkedHashMap<>();
+			this.generation += 1;
+		}
+
+		send(batch, batchFutures);
+	}
+
+	private void send(
+		Map<String, Metadata> batch,
+		Map<String, CompletableFuture<Void>> batchFutures
+	) {
+		if (LOGGER.isLoggable(Level.FINEST)) {
+			LOGGER.finest(String.format(
+				"writing metadata for %d accounts",
+				batch.size()
+			));
+		}
+
+		this.client.writeDocumentsAsync(
+			"metadata",
+			"metadata.json",
+			batch,
+			this.deadline
+		).whenComplete((failed, t) -> {
+			Metrics metrics = Metrics.getInstance();
+
+			for (Map.Entry<String, CompletableFuture<Void>> entry :
+				batchFutures.entrySet()) {
+				String accountId = entry.getKey();
+				Throwable cause = t != null ? t : failed.get(accountId);
+
+				if (cause == null) {
+					recordWrite(metrics, "written");
+					entry.getValue().complete(null);
+					continue;
+				}
+
+				recordWrite(metrics, "failed");
+				entry.getValue().completeExceptionally(new SyncException(
+					"failed to write metadata for account ID " + accountId,
+					Util.getInstance().unwrap(cause)
+				));
+			}
+		});
+	}
+
+	static void recordWrite(Metrics metrics, String outcome) {
+		metrics.increment(
+			"nr_reports_sync_metadata_writes_total",
+			"Metadata documents written, skipped because nothing material changed, or failed, by outcome",
+			"outcome", outcome
+		);
+	}
+}
@@ -0,0 +1,437 @@
+package com.newrelic.labs.reports;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// A minimal registry of counters, gauges and histograms that can be written in
+// the Prometheus text format or as JSON. Metrics are created on first use and
+// identified by their name and label values. Labels are given as alternating
+// names and values.
+public final class Metrics {
+	private static final Metrics INSTANCE = new Metrics();
+
+	// Seconds, for NerdGraph requests and syncs
+	public static final double[] LATENCY_BUCKETS = {
+		0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120
+	};
+
+	// Seconds, for report runs
+	public static final double[] DURATION_BUCKETS = {
+		1, 5, 10, 30, 60, 120, 300, 600, 1200, 1800, 3600
+	};
+
+	// Number of items, for change sets
+	public static final double[] SIZE_BUCKETS = {
+		0, 1, 5, 10, 50, 100, 500, 1000, 5000
+	};
+
+	private enum Type {
+		COUNTER,
+		GAUGE,
+		HISTOGRAM;
+
+		String getName() {
+			return name().toLowerCase();
+		}
+	}
+
+	private static class Histogram {
+		private final double[] buckets;
+		private final LongAdder[] counts;
+		private final DoubleAdder sum = new DoubleAdder();
+		private final LongAdder count = new LongAdder();
+
+		Histogram(double[] buckets) {
+			this.buckets = buckets;
+			this.counts = new LongAdder[buckets.length];
+
+			for (int i = 0; i < buckets.length; i += 1) {
+				this.counts[i] = new LongAdder();
+			}
+		}
+
+		void observe(double value) {
+			int index = Arrays.binarySearch(this.buckets, value);
+
+			// Only the first matching bucket is counted here. The counts are
+			// made cumulative when they are written.
+			if (index < 0) {
+				index = -index - 1;
+			}
+
+			if (index < this.counts.length) {
+				this.counts[index].increment();
+			}
+
+			this.sum.add(value);
+			this.count.increment();
+		}
+	}
+
+	private static class Family {
+		private final String name;
+		private final String help;
+		private final Type type;
+		private final List<String> labelNames;
+		private final Map<List<String>, Object> samples =
+			new ConcurrentSkipListMap<>(
+				(a, b) -> String.join("\u0000", a).compareTo(
+					String.join("\u0000", b)
+				)
+			);
+
+		Family(String name, String help, Type type, List<String> labelNames) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.labelNames = labelNames;
+		}
+	}
+
+	private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+	private Metrics() {}
+
+	public static Metrics getInstance() {
+		return INSTANCE;
+	}
+
+	private static List<String> labelNames(String[] labels) {
+		List<String> names = new ArrayList<>(labels.length / 2);
+
+		for (int i = 0; i < labels.length; i += 2) {
+			names.add(labels[i]);
+		}
+
+		return names;
+	}
+
+	private static List<String> labelValues(String[] labels) {
+		List<String> values = new ArrayList<>(labels.length / 2);
+
+		for (int i = 1; i < labels.length; i += 2) {
+			values.add(labels[i] == null ? "" : labels[i]);
+		}
+
+		return values;
+	}
+
+	private Family family(
+		String name,
+		String help,
+		Type type,
+		String[] labels
+	) {
+		Family family = this.families.computeIfAbsent(
+			name,
+			k -> new Family(name, help, type, labelNames(labels))
+		);
+
+		if (family.type != type) {
+			throw new IllegalArgumentException(
+				"metric " + name + " is a " + family.type.getName()
+			);
+		}
+
+		return family;
+	}
+
+	public void increment(String name, String help, String... labels) {
+		add(name, help, 1, labels);
+	}
+
+	public void add(
+		String name,
+		String help,
+		long amount,
+		String... labels
+	) {
+		((LongAdder) family(name, help, Type.COUNTER, labels).samples
+			.computeIfAbsent(labelValues(labels), k -> new LongAdder()))
+			.add(amount);
+	}
+
+	public void observe(
+		String name,
+		String help,
+		double[] buckets,
+		double value,
+		String... labels
+	) {
+		((Histogram) family(name, help, Type.HISTOGRAM, labels).samples
+			.computeIfAbsent(labelValues(labels), k -> new Histogram(buckets)))
+			.observe(value);
+	}
+
+	// Registers a gauge whose value is read when the metrics are written
+	public void gauge(
+		String name,
+		String help,
+		DoubleSupplier supplier,
+		String... labels
+	) {
+		family(name, help, Type.GAUGE, labels).samples.put(
+			labelValues(labels),
+			supplier
+		);
+	}
+
+	// Registers a counter that is maintained elsewhere and read when the
+	// metrics are written
+	public void counter(
+		String name,
+		String help,
+		DoubleSupplier supplier,
+		String... labels
+	) {
+		family(name, help, Type.COUNTER, labels).samples.put(
+			labelValues(labels),
+			supplier
+		);
+	}
+
+	private static double value(Object sample) {
+		if (sample instanceof LongAdder) {
+			return ((LongAdder) sample).sum();
+		}
+
+		try {
+			return ((DoubleSupplier) sample).getAsDouble();
+		} catch (RuntimeException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static String formatDouble(double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		}
+
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+
+		return Double.toString(value);
+	}
+
+	private static String escape(String value) {
+		return value
+			.replace("\\", "\\\\")
+			.replace("\"", "\\\"")
+			.replace("\n", "\\n");
+	}
+
+	private static void writeLabels(
+		Writer writer,
+		List<String> names,
+		List<String> values,
+		String extraName,
+		String extraValue
+	) throws IOException {
+		if (names.isEmpty() && extraName == null) {
+			return;
+		}
+
+		writer.write('{');
+
+		for (int i = 0; i < names.size(); i += 1) {
+			if (i > 0) {
+				writer.write(',');
+			}
+
+			writer.write(names.get(i));
+			writer.write("=\"");
+			writer.write(escape(values.get(i)));
+			writer.write('"');
+		}
+
+		if (extraName != null) {
+			if (!names.isEmpty()) {
+				writer.write(',');
+			}
+
+			writer.write(extraName);
+			writer.write("=\"");
+			writer.write(extraValue);
+			writer.write('"');
+		}
+
+		writer.write('}');
+	}
+
+	private static void writeSample(
+		Writer writer,
+		String name,
+		List<String> names,
+		List<String> values,
+		String extraName,
+		String extraValue,
+		String value
+	) throws IOException {
+		writer.write(name);
+		writeLabels(writer, names, values, extraName, extraValue);
+		writer.write(' ');
+		writer.write(value);
+		writer.write('\n');
+	}
+
+	public void writePrometheus(Writer writer) throws IOException {
+		List<Family> sorted = new ArrayList<>(this.families.values());
+
+		sorted.sort((a, b) -> a.name.compareTo(b.name));
+
+		for (Family family : sorted) {
+			writer.write("# HELP " + family.name + " " + family.help + "\n");
+			writer.write(
+				"# TYPE " + family.name + " " + family.type.getName() + "\n"
+			);
+
+			for (Map.Entry<List<String>, Object> entry :
+				family.samples.entrySet()
+			) {
+				List<String> values = entry.getKey();
+
+				if (family.type != Type.HISTOGRAM) {
+					writeSample(
+						writer,
+						family.name,
+						family.labelNames,
+						values,
+						null,
+						null,
+						formatDouble(value(entry.getValue()))
+					);
+					continue;
+				}
+
+				Histogram histogram = (Histogram) entry.getValue();
+				long cumulative = 0;
+
+				for (int i = 0; i < histogram.buckets.length; i += 1) {
+					cumulative += histogram.counts[i].sum();
+					writeSample(
+						writer,
+						family.name + "_bucket",
+						family.labelNames,
+						values,
+						"le",
+						formatDouble(histogram.buckets[i]),
+						Long.toString(cumulative)
+					);
+				}
+
+				long count = histogram.count.sum();
+
+				writeSample(
+					writer,
+					family.name + "_bucket",
+					family.labelNames,
+					values,
+					"le",
+					"+Inf",
+					Long.toString(count)
+				);
+				writeSample(
+					writer,
+					family.name + "_sum",
+					family.labelNames,
+					values,
+					null,
+					null,
+					formatDouble(histogram.sum.sum())
+				);
+				writeSample(
+					writer,
+					family.name + "_count",
+					family.labelNames,
+					values,
+					null,
+					null,
+					Long.toString(count)
+				);
+			}
+		}
+	}
+
+	public void writeJson(JsonWriter writer) throws IOException {
+		List<Family> sorted = new ArrayList<>(this.families.values());
+
+		sorted.sort((a, b) -> a.name.compareTo(b.name));
+
+		writer.beginObject();
+		writer.name("metrics").beginArray();
+
+		for (Family family : sorted) {
+			writer.beginObject();
+			writer.name("name").value(family.name);
+			writer.name("help").value(family.help);
+			writer.name("type").value(family.type.getName());
+			writer.name("samples").beginArray();
+
+			for (Map.Entry<List<String>, Object> entry :
+				family.samples.entrySet()
+			) {
+				List<String> values = entry.getKey();
+
+				writer.beginObject();
+				writer.name("labels").beginObject();
+
+				for (int i = 0; i < family.labelNames.size(); i += 1) {
+					writer.name(family.labelNames.get(i)).value(values.get(i));
+				}
+
+				writer.endObject();
+
+				if (family.type != Type.HISTOGRAM) {
+					double value = value(entry.getValue());
+
+					if (Double.isNaN(value)) {
+						writer.name("value").nullValue();
+					} else {
+						writer.name("value").value(value);
+					}
+
+					writer.endObject();
+					continue;
+				}
+
+				Histogram histogram = (Histogram) entry.getValue();
+				long cumulative = 0;
+
+				writer.name("count").value(histogram.count.sum());
+				writer.name("sum").value(histogram.sum.sum());
+				writer.name("buckets").beginObject();
+
+				for (int i = 0; i < histogram.buckets.length; i += 1) {
+					cumulative += histogram.counts[i].sum();
+					writer.name(formatDouble(histogram.buckets[i]))
+						.value(cumulative);
+				}
+
+				writer.endObject();
+				writer.endObject();
+			}
+
+			writer.endArray();
+			writer.endObject();
+		}
+
+		writer.endArray();
+		writer.endObject();
+	}
+}
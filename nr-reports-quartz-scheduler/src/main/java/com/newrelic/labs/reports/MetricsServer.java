@@ -0,0 +1,135 @@
+package com.newrelic.labs.reports;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Serves the metrics in the Prometheus text format on /metrics and as JSON on
+// /metrics.json.
+public class MetricsServer implements Closeable {
+	private static final Logger LOGGER =
+		Logger.getLogger(MetricsServer.class.getName());
+
+	private static final String PROMETHEUS_CONTENT_TYPE =
+		"text/plain; version=0.0.4; charset=utf-8";
+	private static final String JSON_CONTENT_TYPE =
+		"application/json; charset=utf-8";
+
+	private interface MetricsWriter {
+		void write(Writer writer) throws IOException;
+	}
+
+	private final Metrics metrics;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	public MetricsServer(
+		Metrics metrics,
+		InetSocketAddress address
+	) throws IOException {
+		this.metrics = metrics;
+		this.server = HttpServer.create(address, 0);
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "metrics-server");
+
+			t.setDaemon(true);
+
+			return t;
+		});
+
+		this.server.setExecutor(this.executor);
+		this.server.createContext(
+			"/metrics",
+			exchange -> {
+				String path = exchange.getRequestURI().getPath();
+
+				if (path.equals("/metrics.json")) {
+					respond(exchange, JSON_CONTENT_TYPE, writer -> {
+						JsonWriter jsonWriter = new JsonWriter(writer);
+
+						this.metrics.writeJson(jsonWriter);
+						jsonWriter.flush();
+					});
+					return;
+				}
+
+				// The context also receives every other path that starts
+				// with /metrics.
+				if (!path.equals("/metrics")) {
+					try (exchange) {
+						exchange.sendResponseHeaders(404, -1);
+					}
+					return;
+				}
+
+				respond(
+					exchange,
+					PROMETHEUS_CONTENT_TYPE,
+					this.metrics::writePrometheus
+				);
+			}
+		);
+	}
+
+	public InetSocketAddress getAddress() {
+		return this.server.getAddress();
+	}
+
+	private void respond(
+		HttpExchange exchange,
+		String contentType,
+		MetricsWriter metricsWriter
+	) throws IOException {
+		try (exchange) {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+			try (
+				Writer writer = new OutputStreamWriter(
+					body,
+					StandardCharsets.UTF_8
+				)
+			) {
+				metricsWriter.write(writer);
+			}
+
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			exchange.sendResponseHeaders(200, body.size());
+
+			try (OutputStream out = exchange.getResponseBody()) {
+				body.writeTo(out);
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.log(Level.WARNING, "failed to serve metrics", e);
+			throw e;
+		}
+	}
+
+	public void start() {
+		this.server.start();
+		LOGGER.info("serving metrics on " + this.server.getAddress());
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+}
@@ -1,25 +1,57 @@
 package com.newrelic.labs.reports;
 
-import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
 import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
 import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
 import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
 import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
 import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
 import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.concurrent.FutureCallback;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
 import org.apache.hc.core5.io.CloseMode;
 import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
 import org.apache.hc.core5.util.Timeout;
 
-import java.lang.reflect.Type;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
-public class NerdgraphClient {
+public class NerdgraphClient implements Closeable {
 	private static final Logger LOGGER =
 		Logger.getLogger(NerdgraphClient.class.getName());
 
@@ -27,202 +59,934 @@ public class NerdgraphClient {
 	private final String apiKey;
 	private final String nerdletPackageId;
 	private final Util util;
+	private final NerdgraphClientConfig config;
+	private final RateLimiter rateLimiter;
+	private final CircuitBreaker circuitBreaker;
+	private CloseableHttpAsyncClient client;
 
 	public NerdgraphClient(
 		Util util,
 		String endpointUrl,
 		String apiKey,
-		String nerdletPackageId
+		String nerdletPackageId,
+		NerdgraphClientConfig config
 	) {
 		this.util = util;
 		this.endpointUrl = endpointUrl;
 		this.apiKey = apiKey;
 		this.nerdletPackageId = nerdletPackageId;
+		this.config = config;
+		this.rateLimiter = RateLimiter.forKey(
+			apiKey,
+			config.getRateLimit(),
+			config.getRateLimitBurst()
+		);
+		this.circuitBreaker = new CircuitBreaker(
+			config.getBreakerFailureThreshold(),
+			config.getBreakerOpenDuration().toMilliseconds()
+		);
+
+		registerMetrics(Metrics.getInstance());
 	}
 
-	public <T> void writeDocument(
-		String collectionName,
-		String documentId,
-		String accountId,
-		T document
-	) throws NerdgraphQueryException {
-		String json = this.util.escapeQuotes(new Gson().toJson(document));
-		String payload = String.format("""
-{
-	"query": "mutation($accountId: String!,$documentId: String!,$collectionId: String!,$document: NerdStorageDocument!){nerdStorageWriteDocument(collection: $collectionId,document: $document,documentId: $documentId,scope: {id: $accountId, name: ACCOUNT},scopeByActor: false)}",
-	"variables": {
-		"accountId": "%s",
-		"documentId": "%s",
-		"collectionId": "%s",
-		"document": "%s"
+	private void registerMetrics(Metrics metrics) {
+		metrics.counter(
+			"nr_reports_nerdgraph_rate_limited_total",
+			"NerdGraph requests delayed by the client side rate limiter",
+			this.rateLimiter::getThrottled
+		);
+		metrics.counter(
+			"nr_reports_nerdgraph_rate_limit_wait_seconds_total",
+			"Time NerdGraph requests spent waiting for the client side rate limiter",
+			this.rateLimiter::getWaitedSeconds
+		);
+		metrics.gauge(
+			"nr_reports_nerdgraph_circuit_state",
+			"State of the NerdGraph circuit breaker: 0 closed, 1 half open, 2 open",
+			() -> this.circuitBreaker.getState().ordinal()
+		);
+		metrics.counter(
+			"nr_reports_nerdgraph_circuit_opened_total",
+			"Times the NerdGraph circuit breaker opened",
+			this.circuitBreaker::getOpened
+		);
+		metrics.counter(
+			"nr_reports_nerdgraph_circuit_rejected_total",
+			"NerdGraph requests rejected while the circuit breaker was open",
+			this.circuitBreaker::getRejected
+		);
 	}
-}
-		""", accountId, documentId, collectionName, json);
+
+	public NerdgraphClientConfig getConfig() {
+		return this.config;
+	}
+
+	public synchronized void start() {
+		if (this.client != null) {
+			return;
+		}
 
 		final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
-			.setSoTimeout(Timeout.ofSeconds(5))
+			.setSoTimeout(this.config.getSocketTimeout())
+			.setIoThreadCount(this.config.getIoThreadCount())
 			.build();
 
-		final CloseableHttpAsyncClient client = HttpAsyncClients.custom()
-			.setIOReactorConfig(ioReactorConfig)
+		final RequestConfig requestConfig = RequestConfig.custom()
+			.setConnectionRequestTimeout(this.config.getConnectTimeout())
+			.setResponseTimeout(this.config.getResponseTimeout())
 			.build();
 
-		client.start();
+		HttpVersionPolicy versionPolicy = this.config.getVersionPolicy();
+
+		if (versionPolicy == HttpVersionPolicy.FORCE_HTTP_2) {
+			// The HTTP/2 only client multiplexes all concurrent requests over
+			// a single connection to the NerdGraph endpoint.
+			this.client = HttpAsyncClients.customHttp2()
+				.setIOReactorConfig(ioReactorConfig)
+				.setDefaultRequestConfig(requestConfig)
+				.setDefaultConnectionConfig(
+					ConnectionConfig.custom()
+						.setConnectTimeout(this.config.getConnectTimeout())
+						.setSocketTimeout(this.config.getSocketTimeout())
+						.build()
+				)
+				.evictIdleConnections(this.config.getIdleTimeout())
+				.build();
+		} else {
+			final PoolingAsyncClientConnectionManager connectionManager =
+				PoolingAsyncClientConnectionManagerBuilder.create()
+					.setMaxConnTotal(this.config.getMaxConnections())
+					.setMaxConnPerRoute(this.config.getMaxConnections())
+					.setDefaultTlsConfig(
+						TlsConfig.custom()
+							.setVersionPolicy(versionPolicy)
+							.build()
+					)
+					.setDefaultConnectionConfig(
+						ConnectionConfig.custom()
+							.setConnectTimeout(this.config.getConnectTimeout())
+							.setSocketTimeout(this.config.getSocketTimeout())
+							.setValidateAfterInactivity(TimeValue.ofSeconds(10))
+							.build()
+					)
+					.build();
+
+			this.client = HttpAsyncClients.custom()
+				.setConnectionManager(connectionManager)
+				.setIOReactorConfig(ioReactorConfig)
+				.setDefaultRequestConfig(requestConfig)
+				.evictExpiredConnections()
+				.evictIdleConnections(this.config.getIdleTimeout())
+				.build();
+		}
+
+		if (LOGGER.isLoggable(Level.FINEST)) {
+			LOGGER.finest(String.format(
+				"starting nerdgraph client with version policy %s and max connections %d",
+				versionPolicy,
+				this.config.getMaxConnections()
+			));
+		}
+
+		this.client.start();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (this.client == null) {
+			return;
+		}
+
+		LOGGER.finest("closing nerdgraph client");
+
+		this.client.close(CloseMode.GRACEFUL);
+		this.client = null;
+	}
+
+	private synchronized CloseableHttpAsyncClient getClient() {
+		if (this.client == null) {
+			start();
+		}
+
+		return this.client;
+	}
+
+	// Counts the bytes of a response body as received, before any content
+	// decoding, for the NerdGraph request events.
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+
+			if (b >= 0) {
+				this.count += 1;
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+
+			if (n > 0) {
+				this.count += n;
+			}
+
+			return n;
+		}
+
+		long getCount() {
+			return this.count;
+		}
+	}
+
+	@FunctionalInterface
+	private interface ResponseDecoder<T> {
+		T decode(JsonReader reader) throws IOException, NerdgraphQueryException;
+	}
+
+	private InputStream decodeContent(
+		HttpResponse resp,
+		InputStream body
+	) throws IOException {
+		Header header = resp.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+		String encoding = header == null ? null : header.getValue();
+
+		if (encoding == null || encoding.equalsIgnoreCase("identity")) {
+			return body;
+		}
+
+		if (encoding.equalsIgnoreCase("gzip")) {
+			return new GZIPInputStream(body);
+		}
+
+		if (encoding.equalsIgnoreCase("deflate")) {
+			return new InflaterInputStream(body);
+		}
+
+		throw new IOException(
+			"unsupported content encoding " + encoding
+		);
+	}
+
+	// Returns the delay requested by a Retry-After header, given either in
+	// seconds or as an HTTP date, or -1 if there is none.
+	private static long getRetryAfterMillis(HttpResponse resp) {
+		Header header = resp.getFirstHeader(HttpHeaders.RETRY_AFTER);
+
+		if (header == null) {
+			return -1;
+		}
+
+		String value = header.getValue().trim();
+
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+			// Not a number of seconds
+		}
 
-		final SimpleHttpRequest request = SimpleRequestBuilder.post()
+		Instant date = DateUtils.parseStandardDate(value);
+
+		if (date == null) {
+			return -1;
+		}
+
+		return Math.max(0, date.toEpochMilli() - System.currentTimeMillis());
+	}
+
+	private SimpleHttpRequest buildRequest(byte[] payload) {
+		return SimpleRequestBuilder.post()
 			.setUri(this.endpointUrl)
 			.setBody(payload, ContentType.APPLICATION_JSON)
 			.addHeader("Content-Type", "application/json")
 			.addHeader("Accept", "application/json")
 			.addHeader("Accept-Charset", "utf-8")
+			.addHeader("Accept-Encoding", "gzip, deflate")
 			.addHeader("API-Key", this.apiKey)
 			.addHeader("newrelic-package-id", this.nerdletPackageId)
 			.build();
+	}
+
+	private void checkResponseCode(
+		HttpResponse resp
+	) throws NerdgraphQueryException {
+		int httpCode = resp.getCode();
+		String reasonPhrase = resp.getReasonPhrase();
 
 		if (LOGGER.isLoggable(Level.FINEST)) {
 			LOGGER.finest(String.format(
-				"posting GraphQL for writing document %s in collection %s for account %s and nerdlet %s",
-				documentId,
-				collectionName,
-				accountId,
-				this.nerdletPackageId
+				"reason code: %d; reason phrase: %s; version: %s",
+				httpCode,
+				reasonPhrase,
+				resp.getVersion()
 			));
-			LOGGER.finest(payload);
 		}
 
-		final Future<SimpleHttpResponse> future = client.execute(
-			SimpleRequestProducer.create(request),
-			SimpleResponseConsumer.create(),
+		if (httpCode >= 200 && httpCode <= 299) {
+			return;
+		}
+
+		String message = String.format(
+			"invalid response code on nerdgraph query: %d \"%s\"",
+			httpCode,
+			reasonPhrase
+		);
+
+		if (httpCode == 429 || httpCode >= 500) {
+			throw new NerdgraphRetryableException(
+				message,
+				getRetryAfterMillis(resp)
+			);
+		}
+
+		throw new NerdgraphQueryException(message);
+	}
+
+	private <T> T decodeBody(
+		HttpResponse resp,
+		InputStream body,
+		ResponseDecoder<T> decoder
+	) throws IOException, NerdgraphQueryException {
+		try (InputStream in = decodeContent(resp, body)) {
+			Reader reader;
+
+			if (LOGGER.isLoggable(Level.FINEST)) {
+				// Only buffer the body when it needs to be logged
+				String s = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+
+				LOGGER.finest(s);
+				reader = new StringReader(s);
+			} else {
+				reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+			}
+
+			return decoder.decode(new JsonReader(reader));
+		}
+	}
+
+	private void recordAttempt(
+		NerdgraphRequestEvent event,
+		String operation,
+		String code,
+		long startTime,
+		long requestBytes,
+		long responseBytes
+	) {
+		recordRequest(operation, code, System.nanoTime() - startTime);
+
+		event.end();
+
+		if (event.shouldCommit()) {
+			event.operation = operation;
+			event.code = code;
+			event.requestBytes = requestBytes;
+			event.responseBytes = responseBytes;
+			event.commit();
+		}
+	}
+
+	private <T> T attempt(
+		byte[] payload,
+		String operation,
+		ResponseDecoder<T> decoder
+	) throws NerdgraphQueryException {
+		final StreamingResponseConsumer consumer =
+			new StreamingResponseConsumer();
+		final long startTime = System.nanoTime();
+		final NerdgraphRequestEvent event = new NerdgraphRequestEvent();
+
+		event.begin();
+
+		final Future<HttpResponse> future = getClient().execute(
+			SimpleRequestProducer.create(buildRequest(payload)),
+			consumer,
 			null
 		);
+		String code = "error";
+		CountingInputStream counter = null;
 
 		try {
-			SimpleHttpResponse resp = future.get();
-			int httpCode = resp.getCode();
-			String reasonPhrase = resp.getReasonPhrase();
-			String body = resp.getBodyText();
+			HttpResponse resp = consumer.getHead().get();
 
-			if (LOGGER.isLoggable(Level.FINEST)) {
-				LOGGER.finest(String.format(
-					"reason code: %d; reason phrase: %s",
-					httpCode,
-					reasonPhrase
-				));
-				LOGGER.finest(body);
+			code = String.valueOf(resp.getCode());
+
+			try {
+				checkResponseCode(resp);
+			} catch (NerdgraphQueryException e) {
+				future.cancel(true);
+				throw e;
 			}
 
-			if (httpCode < 200 || httpCode > 299) {
-				throw new NerdgraphQueryException(String.format(
-					"invalid response code on nerdgraph query: %d \"%s\"",
-					httpCode,
-					reasonPhrase
-				));
+			counter = new CountingInputStream(consumer.getBody());
+
+			try {
+				return decodeBody(resp, counter, decoder);
+			} catch (NerdgraphQueryException e) {
+				code = "graphql_error";
+				throw e;
 			}
 		} catch (InterruptedException e) {
+			code = "interrupted";
+			future.cancel(true);
+			Thread.currentThread().interrupt();
 			throw new NerdgraphQueryException(
-				"write document query was interrupted",
+				operation + " query was interrupted",
 				e
 			);
 		} catch (ExecutionException e) {
+			code = "io_error";
+			throw new NerdgraphRetryableException(
+				operation + " query failed",
+				e
+			);
+		} catch (IOException | JsonParseException | IllegalStateException e) {
+			code = "decode_error";
+			future.cancel(true);
 			throw new NerdgraphQueryException(
-				"write document query failed",
+				operation + " query response could not be decoded",
 				e
 			);
 		} finally {
-			client.close(CloseMode.GRACEFUL);
+			recordAttempt(
+				event,
+				operation,
+				code,
+				startTime,
+				payload.length,
+				counter == null ? 0 : counter.getCount()
+			);
+		}
+	}
+
+	// Full jitter backoff: a random delay between zero and the base delay
+	// doubled for every retry, capped at the maximum delay. A delay requested
+	// with Retry-After is honored with up to one base delay of jitter added
+	// so that throttled clients do not all come back at once.
+	private long getRetryDelayMillis(int retry, long retryAfterMillis) {
+		long baseMillis = this.config.getRetryBaseDelay().toMilliseconds();
+		long maxMillis = this.config.getRetryMaxDelay().toMilliseconds();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		if (retryAfterMillis >= 0) {
+			return retryAfterMillis + random.nextLong(baseMillis + 1);
+		}
+
+		long ceiling = Math.min(
+			maxMillis,
+			baseMillis << Math.min(retry, 30)
+		);
+
+		return random.nextLong(ceiling + 1);
+	}
+
+	// Records a failed attempt with the circuit breaker and returns the delay
+	// before the next attempt or -1 if the request is not retried.
+	private long onRetryableFailure(
+		CircuitBreaker.Permit permit,
+		String operation,
+		int retry,
+		NerdgraphRetryableException e
+	) {
+		this.circuitBreaker.onFailure(permit);
+
+		if (retry >= this.config.getMaxRetries()) {
+			return -1;
+		}
+
+		long retryAfterMillis = e.getRetryAfterMillis();
+
+		// Requests that ask to wait longer than the maximum delay are left to
+		// the next sync instead.
+		if (retryAfterMillis > this.config.getRetryMaxDelay().toMilliseconds()) {
+			return -1;
+		}
+
+		long delayMillis = getRetryDelayMillis(retry, retryAfterMillis);
+
+		Metrics.getInstance().increment(
+			"nr_reports_nerdgraph_retries_total",
+			"NerdGraph requests retried after a throttled request, server error or I/O error",
+			"operation", operation
+		);
+
+		if (LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine(String.format(
+				"retrying %s query in %d ms (retry %d of %d): %s",
+				operation,
+				delayMillis,
+				retry + 1,
+				this.config.getMaxRetries(),
+				e.getMessage()
+			));
 		}
+
+		return delayMillis;
+	}
+
+	private NerdgraphQueryException circuitOpen(String operation) {
+		return new NerdgraphQueryException(
+			operation + " query rejected because the nerdgraph circuit breaker is open"
+		);
 	}
 
-	public <T> T readDocument(
-		String collectionName,
-		String documentId,
-		String accountId,
-		Type t
+	private <T> T post(
+		byte[] payload,
+		String operation,
+		ResponseDecoder<T> decoder
 	) throws NerdgraphQueryException {
-		String payload = String.format("""
-{
-  "query": "query($accountId: Int!,$documentId: String!,$collectionId: String!){actor{account(id: $accountId){nerdStorage{document(documentId: $documentId, collection: $collectionId)}}}}",
-  "variables": {
-  	"accountId": %s,
-  	"documentId": "%s",
-  	"collectionId": "%s"
-  }
-}
-			""", accountId, documentId, collectionName);
+		int retry = 0;
 
-		final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
-			.setSoTimeout(Timeout.ofSeconds(5))
-			.build();
+		while (true) {
+			CircuitBreaker.Permit permit = this.circuitBreaker.acquire();
 
-		final CloseableHttpAsyncClient client = HttpAsyncClients.custom()
-			.setIOReactorConfig(ioReactorConfig)
-			.build();
+			if (permit == null) {
+				throw circuitOpen(operation);
+			}
 
-		client.start();
+			try {
+				this.rateLimiter.acquire();
 
-		final SimpleHttpRequest request = SimpleRequestBuilder.post()
-			.setUri(this.endpointUrl)
-			.setBody(payload, ContentType.APPLICATION_JSON)
-			.addHeader("Content-Type", "application/json")
-			.addHeader("Accept", "application/json")
-			.addHeader("Accept-Charset", "utf-8")
-			.addHeader("API-Key", this.apiKey)
-			.addHeader("newrelic-package-id", this.nerdletPackageId)
-			.build();
+				T result = attempt(payload, operation, decoder);
+
+				this.circuitBreaker.onSuccess(permit);
+
+				return result;
+			} catch (InterruptedException e) {
+				this.circuitBreaker.onAbandoned(permit);
+				Thread.currentThread().interrupt();
+				throw new NerdgraphQueryException(
+					operation + " query was interrupted",
+					e
+				);
+			} catch (NerdgraphRetryableException e) {
+				long delayMillis = onRetryableFailure(
+					permit,
+					operation,
+					retry,
+					e
+				);
+
+				if (delayMillis < 0) {
+					throw e;
+				}
+
+				retry += 1;
+
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new NerdgraphQueryException(
+						operation + " query was interrupted",
+						ie
+					);
+				}
+			} catch (NerdgraphQueryException e) {
+				// The endpoint answered, so the failure says nothing about
+				// its health, unless the request was interrupted.
+				if (Thread.currentThread().isInterrupted()) {
+					this.circuitBreaker.onAbandoned(permit);
+				} else {
+					this.circuitBreaker.onSuccess(permit);
+				}
+
+				throw e;
+			}
+		}
+	}
+
+	// State of an asynchronous request across its attempts
+	private static class AsyncCall<T> {
+		private final byte[] payload;
+		private final String operation;
+		private final ResponseDecoder<T> decoder;
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+		private volatile Future<SimpleHttpResponse> inFlight = null;
+		private volatile CircuitBreaker.Permit permit = null;
+		private int retry = 0;
+
+		AsyncCall(
+			byte[] payload,
+			String operation,
+			ResponseDecoder<T> decoder
+		) {
+			this.payload = payload;
+			this.operation = operation;
+			this.decoder = decoder;
+		}
+	}
+
+	// Sends a request without blocking the calling thread. Rate limiter waits
+	// and retry delays are timers rather than sleeping threads, and responses
+	// are buffered and decoded by the I/O reactor, so any number of requests
+	// can be in flight on the reactor threads alone. Completing the returned
+	// future, by cancelling it or because the deadline passed, aborts the
+	// attempt in flight and any further retries.
+	private <T> CompletableFuture<T> postAsync(
+		byte[] payload,
+		String operation,
+		ResponseDecoder<T> decoder,
+		Timeout deadline
+	) {
+		AsyncCall<T> call = new AsyncCall<>(payload, operation, decoder);
+
+		call.result.whenComplete((value, t) -> {
+			Future<SimpleHttpResponse> inFlight = call.inFlight;
+
+			if (inFlight != null) {
+				inFlight.cancel(true);
+			}
+		});
+
+		if (deadline != null && deadline.isEnabled()) {
+			// The timer is cancelled when the call completes, so that it does
+			// not keep the call and its payload alive until the deadline.
+			CompletableFuture<Void> timer = new CompletableFuture<Void>()
+				.orTimeout(deadline.toMilliseconds(), TimeUnit.MILLISECONDS);
+
+			timer.whenComplete((v, t) -> {
+				if (t != null) {
+					call.result.completeExceptionally(
+						new NerdgraphQueryException(String.format(
+							"%s query exceeded its deadline of %d ms",
+							operation,
+							deadline.toMilliseconds()
+						))
+					);
+				}
+			});
+			call.result.whenComplete((value, t) -> timer.complete(null));
+		}
+
+		startAttempt(call);
+
+		return call.result;
+	}
+
+	private <T> void startAttempt(AsyncCall<T> call) {
+		if (call.result.isDone()) {
+			return;
+		}
+
+		CircuitBreaker.Permit permit = this.circuitBreaker.acquire();
+
+		if (permit == null) {
+			call.result.completeExceptionally(circuitOpen(call.operation));
+			return;
+		}
+
+		call.permit = permit;
+
+		long waitNanos = this.rateLimiter.reserve();
+
+		if (waitNanos > 0) {
+			CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS)
+				.execute(() -> sendAttempt(call));
+			return;
+		}
+
+		sendAttempt(call);
+	}
+
+	private <T> void sendAttempt(AsyncCall<T> call) {
+		if (call.result.isDone()) {
+			this.circuitBreaker.onAbandoned(call.permit);
+			return;
+		}
+
+		final long startTime = System.nanoTime();
+		final NerdgraphRequestEvent event = new NerdgraphRequestEvent();
+
+		event.begin();
+
+		Future<SimpleHttpResponse> future = getClient().execute(
+			SimpleRequestProducer.create(buildRequest(call.payload)),
+			SimpleResponseConsumer.create(),
+			new FutureCallback<>() {
+				@Override
+				public void completed(SimpleHttpResponse resp) {
+					onResponse(call, resp, startTime, event);
+				}
+
+				@Override
+				public void failed(Exception ex) {
+					recordAttempt(
+						event,
+						call.operation,
+						"io_error",
+						startTime,
+						call.payload.length,
+						0
+					);
+					onAttemptFailed(call, new NerdgraphRetryableException(
+						call.operation + " query failed",
+						ex
+					));
+				}
+
+				@Override
+				public void cancelled() {
+					recordAttempt(
+						event,
+						call.operation,
+						"interrupted",
+						startTime,
+						call.payload.length,
+						0
+					);
+					NerdgraphClient.this.circuitBreaker.onAbandoned(
+						call.permit
+					);
+					call.result.cancel(false);
+				}
+			}
+		);
+
+		call.inFlight = future;
+
+		// The result may have completed before the attempt was registered
+		if (call.result.isDone()) {
+			future.cancel(true);
+		}
+	}
+
+	private <T> void onResponse(
+		AsyncCall<T> call,
+		SimpleHttpResponse resp,
+		long startTime,
+		NerdgraphRequestEvent event
+	) {
+		byte[] body = resp.getBodyBytes();
+		String code = String.valueOf(resp.getCode());
+
+		try {
+			checkResponseCode(resp);
+
+			T value;
+
+			try {
+				value = decodeBody(
+					resp,
+					new ByteArrayInputStream(body == null ? new byte[0] : body),
+					call.decoder
+				);
+			} catch (NerdgraphQueryException e) {
+				code = "graphql_error";
+				throw e;
+			}
+
+			this.circuitBreaker.onSuccess(call.permit);
+			call.result.complete(value);
+		} catch (NerdgraphRetryableException e) {
+			onAttemptFailed(call, e);
+		} catch (NerdgraphQueryException e) {
+			this.circuitBreaker.onSuccess(call.permit);
+			call.result.completeExceptionally(e);
+		} catch (IOException | JsonParseException | IllegalStateException e) {
+			code = "decode_error";
+			this.circuitBreaker.onSuccess(call.permit);
+			call.result.completeExceptionally(new NerdgraphQueryException(
+				call.operation + " query response could not be decoded",
+				e
+			));
+		} finally {
+			recordAttempt(
+				event,
+				call.operation,
+				code,
+				startTime,
+				call.payload.length,
+				body == null ? 0 : body.length
+			);
+		}
+	}
+
+	private <T> void onAttemptFailed(
+		AsyncCall<T> call,
+		NerdgraphRetryableException e
+	) {
+		if (call.result.isDone()) {
+			return;
+		}
+
+		long delayMillis = onRetryableFailure(
+			call.permit,
+			call.operation,
+			call.retry,
+			e
+		);
+
+		if (delayMillis < 0) {
+			call.result.completeExceptionally(e);
+			return;
+		}
+
+		call.retry += 1;
+		CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS)
+			.execute(() -> startAttempt(call));
+	}
+
+	private void recordRequest(
+		String operation,
+		String code,
+		long durationNanos
+	) {
+		Metrics metrics = Metrics.getInstance();
+
+		metrics.observe(
+			"nr_reports_nerdgraph_request_duration_seconds",
+			"Duration of NerdGraph requests, including decoding the response",
+			Metrics.LATENCY_BUCKETS,
+			durationNanos / 1e9,
+			"operation", operation,
+			"code", code
+		);
+
+		if (!code.startsWith("2")) {
+			metrics.increment(
+				"nr_reports_nerdgraph_errors_total",
+				"NerdGraph requests that failed, by HTTP status code or error",
+				"operation", operation,
+				"code", code
+			);
+		}
+	}
+
+	// Writes a document to many accounts in a single request without
+	// blocking the calling thread. The future completes with the error of
+	// each account whose write failed, or exceptionally with a
+	// NerdgraphQueryException if the whole request failed or did not
+	// complete within the deadline, which may be null.
+	public <T> CompletableFuture<Map<String, NerdgraphQueryException>>
+		writeDocumentsAsync(
+			String collectionName,
+			String documentId,
+			Map<String, T> documents,
+			Timeout deadline
+		) {
+		List<String> accountIds = new ArrayList<>(documents.keySet());
+		byte[] payload;
+
+		try {
+			payload = NerdgraphCodec.encodeWriteDocuments(
+				documentId,
+				collectionName,
+				accountIds,
+				new ArrayList<>(documents.values())
+			);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(new NerdgraphQueryException(
+				"write documents query could not be encoded",
+				e
+			));
+		}
 
 		if (LOGGER.isLoggable(Level.FINEST)) {
 			LOGGER.finest(String.format(
-				"posting GraphQL for reading document %s in collection %s for account %s and nerdlet %s",
+				"posting GraphQL for writing document %s in collection %s for %d accounts and nerdlet %s",
 				documentId,
 				collectionName,
-				accountId,
+				accountIds.size(),
 				this.nerdletPackageId
 			));
-			LOGGER.finest(payload);
+			LOGGER.finest(new String(payload, StandardCharsets.UTF_8));
 		}
 
-		final Future<SimpleHttpResponse> future = client.execute(
-			SimpleRequestProducer.create(request),
-			SimpleResponseConsumer.create(),
-			null
+		return postAsync(
+			payload,
+			"write documents",
+			reader -> NerdgraphCodec.decodeMutations(reader, accountIds),
+			deadline
 		);
+	}
 
+	private void readDocumentsBatch(
+		List<String> accountIds,
+		List<DocumentRef> documents,
+		Map<String, ReadDocumentsResult> results
+	) {
 		try {
-			SimpleHttpResponse resp = future.get();
-			int httpCode = resp.getCode();
-			String reasonPhrase = resp.getReasonPhrase();
-			String body = resp.getBodyText();
+			byte[] payload = NerdgraphCodec.encodeReadDocuments(
+				accountIds,
+				documents
+			);
 
 			if (LOGGER.isLoggable(Level.FINEST)) {
 				LOGGER.finest(String.format(
-					"reason code: %d; reason phrase: %s",
-					httpCode,
-					reasonPhrase
+					"posting GraphQL for reading %d documents for %d accounts and nerdlet %s",
+					documents.size(),
+					accountIds.size(),
+					this.nerdletPackageId
 				));
-				LOGGER.finest(body);
+				LOGGER.finest(new String(payload, StandardCharsets.UTF_8));
+			}
+
+			post(payload, "read documents", reader -> {
+				NerdgraphCodec.decodeDocuments(
+					reader,
+					accountIds,
+					documents,
+					results
+				);
+				return null;
+			});
+		} catch (IOException | NerdgraphQueryException e) {
+			NerdgraphQueryException ex = e instanceof NerdgraphQueryException ?
+				(NerdgraphQueryException) e :
+				new NerdgraphQueryException(
+					"read documents query could not be encoded",
+					e
+				);
+
+			for (String accountId : accountIds) {
+				results.get(accountId).setError(ex);
 			}
+		}
+	}
+
+	public Map<String, ReadDocumentsResult> readDocuments(
+		String[] accountIds,
+		DocumentRef... documents
+	) {
+		Map<String, ReadDocumentsResult> results = new LinkedHashMap<>();
+		List<String> batch = new ArrayList<>();
+		List<DocumentRef> refs = Arrays.asList(documents);
+		int batchSize = this.config.getBatchSize();
 
-			if (httpCode < 200 || httpCode > 299) {
-				throw new NerdgraphQueryException(String.format(
-					"invalid response code on nerdgraph query: %d \"%s\"",
-					httpCode,
-					reasonPhrase
+		for (String accountId : accountIds) {
+			ReadDocumentsResult result = new ReadDocumentsResult(accountId);
+
+			results.put(accountId, result);
+
+			try {
+				Long.parseLong(accountId);
+			} catch (NumberFormatException e) {
+				result.setError(new NerdgraphQueryException(
+					"invalid account ID " + accountId
 				));
+				continue;
 			}
 
-			return new Gson().fromJson(body, t);
-		} catch (InterruptedException e) {
-			throw new NerdgraphQueryException(
-				"read document query was interrupted",
-				e
-			);
-		} catch (ExecutionException e) {
-			throw new NerdgraphQueryException(
-				"read document query failed",
-				e
-			);
-		} finally {
-			client.close(CloseMode.GRACEFUL);
+			batch.add(accountId);
+
+			if (batch.size() >= batchSize) {
+				readDocumentsBatch(batch, refs, results);
+				batch = new ArrayList<>();
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			readDocumentsBatch(batch, refs, results);
 		}
+
+		return results;
 	}
 }
@@ -0,0 +1,152 @@
+package com.newrelic.labs.reports;
+
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+public class NerdgraphClientConfig {
+	private int maxConnections = 10;
+	private int ioThreadCount = 2;
+	private Timeout connectTimeout = Timeout.ofSeconds(10);
+	private Timeout socketTimeout = Timeout.ofSeconds(5);
+	private Timeout responseTimeout = Timeout.ofSeconds(30);
+	private TimeValue idleTimeout = TimeValue.ofSeconds(60);
+	private HttpVersionPolicy versionPolicy = HttpVersionPolicy.NEGOTIATE;
+	private int batchSize = 25;
+	private int writeBatchSize = 25;
+	private double rateLimit = 25;
+	private int rateLimitBurst = 50;
+	private int maxRetries = 3;
+	private TimeValue retryBaseDelay = TimeValue.ofMilliseconds(500);
+	private TimeValue retryMaxDelay = TimeValue.ofSeconds(30);
+	private int breakerFailureThreshold = 5;
+	private TimeValue breakerOpenDuration = TimeValue.ofSeconds(30);
+
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public int getIoThreadCount() {
+		return this.ioThreadCount;
+	}
+
+	public void setIoThreadCount(int ioThreadCount) {
+		this.ioThreadCount = ioThreadCount;
+	}
+
+	public Timeout getConnectTimeout() {
+		return this.connectTimeout;
+	}
+
+	public void setConnectTimeout(Timeout connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public Timeout getSocketTimeout() {
+		return this.socketTimeout;
+	}
+
+	public void setSocketTimeout(Timeout socketTimeout) {
+		this.socketTimeout = socketTimeout;
+	}
+
+	public Timeout getResponseTimeout() {
+		return this.responseTimeout;
+	}
+
+	public void setResponseTimeout(Timeout responseTimeout) {
+		this.responseTimeout = responseTimeout;
+	}
+
+	public TimeValue getIdleTimeout() {
+		return this.idleTimeout;
+	}
+
+	public void setIdleTimeout(TimeValue idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public HttpVersionPolicy getVersionPolicy() {
+		return this.versionPolicy;
+	}
+
+	public void setVersionPolicy(HttpVersionPolicy versionPolicy) {
+		this.versionPolicy = versionPolicy;
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getWriteBatchSize() {
+		return this.writeBatchSize;
+	}
+
+	public void setWriteBatchSize(int writeBatchSize) {
+		this.writeBatchSize = writeBatchSize;
+	}
+
+	public double getRateLimit() {
+		return this.rateLimit;
+	}
+
+	public void setRateLimit(double rateLimit) {
+		this.rateLimit = rateLimit;
+	}
+
+	public int getRateLimitBurst() {
+		return this.rateLimitBurst;
+	}
+
+	public void setRateLimitBurst(int rateLimitBurst) {
+		this.rateLimitBurst = rateLimitBurst;
+	}
+
+	public int getMaxRetries() {
+		return this.maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public TimeValue getRetryBaseDelay() {
+		return this.retryBaseDelay;
+	}
+
+	public void setRetryBaseDelay(TimeValue retryBaseDelay) {
+		this.retryBaseDelay = retryBaseDelay;
+	}
+
+	public TimeValue getRetryMaxDelay() {
+		return this.retryMaxDelay;
+	}
+
+	public void setRetryMaxDelay(TimeValue retryMaxDelay) {
+		this.retryMaxDelay = retryMaxDelay;
+	}
+
+	public int getBreakerFailureThreshold() {
+		return this.breakerFailureThreshold;
+	}
+
+	public void setBreakerFailureThreshold(int breakerFailureThreshold) {
+		this.breakerFailureThreshold = breakerFailureThreshold;
+	}
+
+	public TimeValue getBreakerOpenDuration() {
+		return this.breakerOpenDuration;
+	}
+
+	public void setBreakerOpenDuration(TimeValue breakerOpenDuration) {
+		this.breakerOpenDuration = breakerOpenDuration;
+	}
+}
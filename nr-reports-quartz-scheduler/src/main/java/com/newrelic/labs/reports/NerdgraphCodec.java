@@ -0,0 +1,558 @@
+package com.newrelic.labs.reports;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.newrelic.labs.reports.model.Manifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Encodes NerdGraph requests with a JsonWriter and decodes responses with a
+// JsonReader, descending directly to the NerdStorage documents so that
+// documents are bound straight from the response stream without building
+// intermediate strings or JSON trees.
+public final class NerdgraphCodec {
+	private static final Gson GSON = new Gson();
+	private static final Map<Type, TypeAdapter<?>> ADAPTERS =
+		new ConcurrentHashMap<>();
+
+	@FunctionalInterface
+	private interface Encoder {
+		void encode(JsonWriter writer) throws IOException;
+	}
+
+	private NerdgraphCodec() {}
+
+	public static Gson getGson() {
+		return GSON;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> TypeAdapter<T> getAdapter(Type type) {
+		return (TypeAdapter<T>) ADAPTERS.computeIfAbsent(
+			type,
+			t -> GSON.getAdapter(TypeToken.get(t))
+		);
+	}
+
+	private static byte[] encode(Encoder encoder) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+
+		try (
+			JsonWriter writer = new JsonWriter(
+				new OutputStreamWriter(out, StandardCharsets.UTF_8)
+			)
+		) {
+			encoder.encode(writer);
+		}
+
+		return out.toByteArray();
+	}
+
+	private static long parseAccountId(
+		String accountId
+	) throws NerdgraphQueryException {
+		try {
+			return Long.parseLong(accountId);
+		} catch (NumberFormatException e) {
+			throw new NerdgraphQueryException(
+				"invalid account ID " + accountId,
+				e
+			);
+		}
+	}
+
+	// Writes the same document to many accounts in a single request with one
+	// aliased nerdStorageWriteDocument mutation per account, w0 to wN.
+	public static byte[] encodeWriteDocuments(
+		String documentId,
+		String collectionName,
+		List<String> accountIds,
+		List<?> documents
+	) throws IOException {
+		StringBuilder query = new StringBuilder(
+			96 + accountIds.size() * 192
+		);
+
+		query.append("mutation($c: String!,$d: String!");
+
+		for (int index = 0; index < accountIds.size(); index += 1) {
+			query
+				.append(",$a").append(index).append(": String!")
+				.append(",$v").append(index).append(": NerdStorageDocument!");
+		}
+
+		query.append("){");
+
+		for (int index = 0; index < accountIds.size(); index += 1) {
+			query
+				.append('w').append(index)
+				.append(": nerdStorageWriteDocument(collection: $c,document: $v")
+				.append(index)
+				.append(",documentId: $d,scope: {id: $a").append(index)
+				.append(", name: ACCOUNT},scopeByActor: false) ");
+		}
+
+		query.append('}');
+
+		return encode(writer -> {
+			writer.beginObject();
+			writer.name("query").value(query.toString());
+			writer.name("variables").beginObject();
+			writer.name("c").value(collectionName);
+			writer.name("d").value(documentId);
+
+			for (int index = 0; index < accountIds.size(); index += 1) {
+				writer.name("a" + index).value(accountIds.get(index));
+				writer.name("v" + index).value(
+					GSON.toJson(documents.get(index))
+				);
+			}
+
+			writer.endObject();
+			writer.endObject();
+		});
+	}
+
+	public static byte[] encodeReadDocuments(
+		List<String> accountIds,
+		List<DocumentRef> documents
+	) throws IOException {
+		StringBuilder query = new StringBuilder(
+			128 + accountIds.size() * documents.size() * 64
+		);
+
+		query.append("query(");
+
+		for (int index = 0; index < documents.size(); index += 1) {
+			query
+				.append("$c").append(index).append(": String!,")
+				.append("$d").append(index).append(": String!,");
+		}
+
+		for (int index = 0; index < accountIds.size(); index += 1) {
+			query.append("$a").append(index).append(": Int!,");
+		}
+
+		query.setLength(query.length() - 1);
+		query.append("){actor{");
+
+		for (int index = 0; index < accountIds.size(); index += 1) {
+			query
+				.append('a').append(index)
+				.append(": account(id: $a").append(index)
+				.append("){nerdStorage{");
+
+			for (int j = 0; j < documents.size(); j += 1) {
+				query
+					.append(documents.get(j).getAlias())
+					.append(": document(documentId: $d").append(j)
+					.append(", collection: $c").append(j)
+					.append(") ");
+			}
+
+			query.append("}} ");
+		}
+
+		query.append("}}");
+
+		return encode(writer -> {
+			writer.beginObject();
+			writer.name("query").value(query.toString());
+			writer.name("variables").beginObject();
+
+			for (int index = 0; index < documents.size(); index += 1) {
+				DocumentRef ref = documents.get(index);
+
+				writer.name("c" + index).value(ref.getCollectionName());
+				writer.name("d" + index).value(ref.getDocumentId());
+			}
+
+			for (int index = 0; index < accountIds.size(); index += 1) {
+				writer.name("a" + index).value(
+					Long.parseLong(accountIds.get(index))
+				);
+			}
+
+			writer.endObject();
+			writer.endObject();
+		});
+	}
+
+	private static boolean beginObjectOrSkipNull(
+		JsonReader reader
+	) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return false;
+		}
+
+		reader.beginObject();
+		return true;
+	}
+
+	private static <T> T readPath(
+		JsonReader reader,
+		TypeAdapter<T> adapter,
+		String[] path,
+		int depth
+	) throws IOException {
+		if (depth == path.length) {
+			return adapter.read(reader);
+		}
+
+		if (!beginObjectOrSkipNull(reader)) {
+			return null;
+		}
+
+		T value = null;
+
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(path[depth])) {
+				value = readPath(reader, adapter, path, depth + 1);
+				continue;
+			}
+
+			reader.skipValue();
+		}
+
+		reader.endObject();
+
+		return value;
+	}
+
+	private static String getErrorMessage(JsonElement e) {
+		if (!e.isJsonObject()) {
+			return e.toString();
+		}
+
+		JsonElement message = e.getAsJsonObject().get("message");
+
+		return message == null ? e.toString() : message.getAsString();
+	}
+
+	private static JsonArray readErrors(JsonReader reader) throws IOException {
+		JsonElement errors = JsonParser.parseReader(reader);
+
+		return errors.isJsonArray() ? errors.getAsJsonArray() : null;
+	}
+
+	public static <T> T decodeDocument(
+		JsonReader reader,
+		Type type
+	) throws IOException, NerdgraphQueryException {
+		TypeAdapter<T> adapter = getAdapter(type);
+		String[] path = { "actor", "account", "nerdStorage", "document" };
+		T document = null;
+		JsonArray errors = null;
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "data" -> document = readPath(reader, adapter, path, 0);
+				case "errors" -> errors = readErrors(reader);
+				default -> reader.skipValue();
+			}
+		}
+
+		reader.endObject();
+
+		if (document == null && errors != null && !errors.isEmpty()) {
+			throw new NerdgraphQueryException(
+				"nerdgraph query error: " + getErrorMessage(errors.get(0))
+			);
+		}
+
+		return document;
+	}
+
+	// Returns the error of each account whose write failed, mapped back to
+	// the account with the mutation alias in the error path. Errors without
+	// a usable path apply to every account in the batch.
+	public static Map<String, NerdgraphQueryException> decodeMutations(
+		JsonReader reader,
+		List<String> accountIds
+	) throws IOException {
+		Map<String, NerdgraphQueryException> failed = new HashMap<>();
+		JsonArray errors = null;
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("errors")) {
+				errors = readErrors(reader);
+				continue;
+			}
+
+			reader.skipValue();
+		}
+
+		reader.endObject();
+
+		if (errors == null) {
+			return failed;
+		}
+
+		for (JsonElement e : errors) {
+			NerdgraphQueryException ex = new NerdgraphQueryException(
+				"nerdgraph mutation error: " + getErrorMessage(e)
+			);
+			int index = -1;
+			JsonElement path = e.isJsonObject() ?
+				e.getAsJsonObject().get("path") :
+				null;
+
+			if (
+				path != null &&
+				path.isJsonArray() &&
+				!path.getAsJsonArray().isEmpty()
+			) {
+				index = getAliasIndex(
+					'w',
+					path.getAsJsonArray().get(0).getAsString(),
+					accountIds.size()
+				);
+			}
+
+			if (index >= 0) {
+				failed.putIfAbsent(accountIds.get(index), ex);
+				continue;
+			}
+
+			for (String accountId : accountIds) {
+				failed.putIfAbsent(accountId, ex);
+			}
+		}
+
+		return failed;
+	}
+
+	private static int getAccountIndex(String alias, int accountCount) {
+		return getAliasIndex('a', alias, accountCount);
+	}
+
+	private static int getAliasIndex(
+		char prefix,
+		String alias,
+		int accountCount
+	) {
+		if (alias.isEmpty() || alias.charAt(0) != prefix) {
+			return -1;
+		}
+
+		try {
+			int index = Integer.parseInt(alias.substring(1));
+
+			return index < accountCount ? index : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void readAccount(
+		JsonReader reader,
+		Map<String, DocumentRef> refs,
+		ReadDocumentsResult result
+	) throws IOException {
+		if (!beginObjectOrSkipNull(reader)) {
+			return;
+		}
+
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("nerdStorage")) {
+				reader.skipValue();
+				continue;
+			}
+
+			if (!beginObjectOrSkipNull(reader)) {
+				continue;
+			}
+
+			while (reader.hasNext()) {
+				DocumentRef ref = refs.get(reader.nextName());
+
+				if (ref == null || reader.peek() == JsonToken.NULL) {
+					reader.skipValue();
+					continue;
+				}
+
+				if (ref.getType() != Manifest.class) {
+					result.setDocument(
+						ref.getAlias(),
+						getAdapter(ref.getType()).read(reader)
+					);
+					continue;
+				}
+
+				ManifestParseEvent event = new ManifestParseEvent();
+
+				event.begin();
+
+				Manifest manifest = NerdgraphCodec.<Manifest>getAdapter(
+					Manifest.class
+				).read(reader);
+
+				event.end();
+
+				if (event.shouldCommit()) {
+					event.accountId = result.getAccountId();
+					event.source = "nerdstorage";
+					event.reportCount = manifest == null ||
+						manifest.getReports() == null ?
+						0 :
+						manifest.getReports().length;
+					// The size is unknown as the document is read directly
+					// from the response stream.
+					event.bytes = -1;
+					event.commit();
+				}
+
+				result.setDocument(ref.getAlias(), manifest);
+			}
+
+			reader.endObject();
+		}
+
+		reader.endObject();
+	}
+
+	private static void readActor(
+		JsonReader reader,
+		List<String> accountIds,
+		Map<String, DocumentRef> refs,
+		Map<String, ReadDocumentsResult> results,
+		boolean[] seen
+	) throws IOException {
+		if (!beginObjectOrSkipNull(reader)) {
+			return;
+		}
+
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("actor")) {
+				reader.skipValue();
+				continue;
+			}
+
+			if (!beginObjectOrSkipNull(reader)) {
+				continue;
+			}
+
+			while (reader.hasNext()) {
+				int index = getAccountIndex(
+					reader.nextName(),
+					accountIds.size()
+				);
+
+				if (index < 0 || reader.peek() == JsonToken.NULL) {
+					reader.skipValue();
+					continue;
+				}
+
+				seen[index] = true;
+				readAccount(
+					reader,
+					refs,
+					results.get(accountIds.get(index))
+				);
+			}
+
+			reader.endObject();
+		}
+
+		reader.endObject();
+	}
+
+	public static void decodeDocuments(
+		JsonReader reader,
+		List<String> accountIds,
+		List<DocumentRef> documents,
+		Map<String, ReadDocumentsResult> results
+	) throws IOException {
+		Map<String, DocumentRef> refs = new HashMap<>();
+		boolean[] seen = new boolean[accountIds.size()];
+		JsonArray errors = null;
+
+		for (DocumentRef ref : documents) {
+			refs.put(ref.getAlias(), ref);
+		}
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "data" -> readActor(
+					reader,
+					accountIds,
+					refs,
+					results,
+					seen
+				);
+				case "errors" -> errors = readErrors(reader);
+				default -> reader.skipValue();
+			}
+		}
+
+		reader.endObject();
+
+		// Map each GraphQL error back to the account it belongs to using the
+		// account alias in the error path. Errors without a usable path apply
+		// to every account in the batch.
+
+		if (errors != null) {
+			for (JsonElement e : errors) {
+				NerdgraphQueryException ex = new NerdgraphQueryException(
+					"nerdgraph query error: " + getErrorMessage(e)
+				);
+				int index = -1;
+				JsonElement path = e.isJsonObject() ?
+					e.getAsJsonObject().get("path") :
+					null;
+
+				if (path != null && path.isJsonArray()) {
+					JsonArray segments = path.getAsJsonArray();
+
+					if (segments.size() > 1) {
+						index = getAccountIndex(
+							segments.get(1).getAsString(),
+							accountIds.size()
+						);
+					}
+				}
+
+				if (index >= 0) {
+					results.get(accountIds.get(index)).setError(ex);
+					continue;
+				}
+
+				for (String accountId : accountIds) {
+					results.get(accountId).setError(ex);
+				}
+			}
+		}
+
+		for (int index = 0; index < accountIds.size(); index += 1) {
+			ReadDocumentsResult result = results.get(accountIds.get(index));
+
+			if (!seen[index] && result.isSuccess()) {
+				result.setError(new NerdgraphQueryException(
+					"read documents query returned no data for account"
+				));
+			}
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.NerdgraphRequest")
+@Label("NerdGraph Request")
+@Category({"New Relic Reports", "NerdGraph"})
+@Description("A NerdGraph request, from sending it until its response is decoded")
+class NerdgraphRequestEvent extends Event {
+	@Label("Operation")
+	String operation;
+
+	@Label("Code")
+	@Description("HTTP status code or error")
+	String code;
+
+	@Label("Request Bytes")
+	@DataAmount
+	long requestBytes;
+
+	@Label("Response Bytes")
+	@DataAmount
+	long responseBytes;
+}
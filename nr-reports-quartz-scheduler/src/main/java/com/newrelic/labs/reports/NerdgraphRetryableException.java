@@ -0,0 +1,22 @@
+package com.newrelic.labs.reports;
+
+// Thrown for NerdGraph requests that failed in a way that may succeed when
+// retried: throttled requests, server errors and I/O errors.
+public class NerdgraphRetryableException extends NerdgraphQueryException {
+	private final long retryAfterMillis;
+
+	public NerdgraphRetryableException(String message, long retryAfterMillis) {
+		super(message);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	public NerdgraphRetryableException(String message, Throwable cause) {
+		super(message, cause);
+		this.retryAfterMillis = -1;
+	}
+
+	// The delay requested by the Retry-After header or -1 if there was none
+	public long getRetryAfterMillis() {
+		return this.retryAfterMillis;
+	}
+}
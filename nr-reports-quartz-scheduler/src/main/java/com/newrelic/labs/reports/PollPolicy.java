@@ -0,0 +1,70 @@
+package com.newrelic.labs.reports;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Decides when each account is polled next with adaptive polling. An account
+// whose metadata changed is polled again after the minimum interval. Every
+// poll that finds no change multiplies the interval by the backoff factor up
+// to the maximum, so dormant accounts are polled rarely while accounts that
+// are being edited are polled often. The next poll date is randomly moved by
+// up to the jitter fraction of the interval so that accounts that would
+// otherwise fall due together are spread over several syncs.
+public class PollPolicy {
+	private final long minIntervalMillis;
+	private final long maxIntervalMillis;
+	private final double backoff;
+	private final double jitter;
+
+	public PollPolicy(
+		long minIntervalMillis,
+		long maxIntervalMillis,
+		double backoff,
+		double jitter
+	) {
+		this.minIntervalMillis = minIntervalMillis;
+		this.maxIntervalMillis = Math.max(minIntervalMillis, maxIntervalMillis);
+		this.backoff = backoff;
+		this.jitter = jitter;
+	}
+
+	// Without a minimum interval every account is polled on every sync
+	public boolean isEnabled() {
+		return this.minIntervalMillis > 0;
+	}
+
+	public boolean isDue(AccountState state, long now) {
+		return !isEnabled() || state == null || now >= state.getNextPollDate();
+	}
+
+	public AccountState scheduleNextPoll(
+		AccountState state,
+		boolean modified,
+		long now
+	) {
+		long interval = modified || state.getPollIntervalMillis() <= 0 ?
+			this.minIntervalMillis :
+			Math.min(
+				this.maxIntervalMillis,
+				(long) (state.getPollIntervalMillis() * this.backoff)
+			);
+		double offset = this.jitter == 0 ?
+			0 :
+			ThreadLocalRandom.current().nextDouble(-this.jitter, this.jitter);
+
+		return state.withNextPoll(
+			interval,
+			now + interval + (long) (interval * offset)
+		);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"min interval: %d ms; max interval: %d ms; backoff: %.2f; jitter: %.2f",
+			this.minIntervalMillis,
+			this.maxIntervalMillis,
+			this.backoff,
+			this.jitter
+		);
+	}
+}
@@ -0,0 +1,112 @@
+package com.newrelic.labs.reports;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Token bucket that limits the rate of NerdGraph requests. The bucket holds
+// up to burst permits and is refilled at permitsPerSecond. A request that
+// finds the bucket empty reserves the next permit and waits for it outside
+// the lock, so waiting callers are served in the order they arrived.
+//
+// NerdGraph limits requests per user, so every client that uses the same API
+// key shares a single limiter.
+public class RateLimiter {
+	private static final Map<String, RateLimiter> LIMITERS =
+		new ConcurrentHashMap<>();
+
+	private final double permitsPerSecond;
+	private final double burst;
+	private final long nanosPerPermit;
+	private double permits;
+	private long lastRefillNanos;
+	private long throttled = 0;
+	private long waitedNanos = 0;
+
+	public RateLimiter(double permitsPerSecond, int burst) {
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = Math.max(1, burst);
+		this.nanosPerPermit = permitsPerSecond > 0 ?
+			(long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) :
+			0;
+		this.permits = this.burst;
+		this.lastRefillNanos = System.nanoTime();
+	}
+
+	// Returns the limiter shared by all clients using the given API key. The
+	// rate and burst of the first caller win.
+	public static RateLimiter forKey(
+		String apiKey,
+		double permitsPerSecond,
+		int burst
+	) {
+		return LIMITERS.computeIfAbsent(
+			apiKey,
+			k -> new RateLimiter(permitsPerSecond, burst)
+		);
+	}
+
+	public boolean isEnabled() {
+		return this.permitsPerSecond > 0;
+	}
+
+	// Takes a permit and returns the time in nanoseconds until it may be used,
+	// for callers that wait without blocking a thread.
+	public synchronized long reserve() {
+		if (!isEnabled()) {
+			return 0;
+		}
+
+		long now = System.nanoTime();
+
+		// permits goes negative while callers are waiting for reserved
+		// permits, which pushes later callers further back.
+		this.permits = Math.min(
+			this.burst,
+			this.permits +
+				(now - this.lastRefillNanos) / (double) this.nanosPerPermit
+		);
+		this.lastRefillNanos = now;
+		this.permits -= 1;
+
+		if (this.permits >= 0) {
+			return 0;
+		}
+
+		long waitNanos = (long) (-this.permits * this.nanosPerPermit);
+
+		this.throttled += 1;
+		this.waitedNanos += waitNanos;
+
+		return waitNanos;
+	}
+
+	// Blocks until a permit is available and returns the time waited in
+	// nanoseconds.
+	public long acquire() throws InterruptedException {
+		long waitNanos = reserve();
+
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+
+		return waitNanos;
+	}
+
+	public synchronized long getThrottled() {
+		return this.throttled;
+	}
+
+	public synchronized double getWaitedSeconds() {
+		return this.waitedNanos / 1e9;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"rate: %.2f/s; burst: %d",
+			this.permitsPerSecond,
+			(int) this.burst
+		);
+	}
+}
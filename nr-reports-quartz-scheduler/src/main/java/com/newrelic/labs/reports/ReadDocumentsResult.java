@@ -0,0 +1,41 @@
+package com.newrelic.labs.reports;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ReadDocumentsResult {
+	private final String accountId;
+	private final Map<String, Object> documents = new HashMap<>();
+	private NerdgraphQueryException error;
+
+	public ReadDocumentsResult(String accountId) {
+		this.accountId = accountId;
+	}
+
+	public String getAccountId() {
+		return this.accountId;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T getDocument(String alias) {
+		return (T) this.documents.get(alias);
+	}
+
+	public void setDocument(String alias, Object document) {
+		this.documents.put(alias, document);
+	}
+
+	public NerdgraphQueryException getError() {
+		return this.error;
+	}
+
+	public void setError(NerdgraphQueryException error) {
+		if (this.error == null) {
+			this.error = error;
+		}
+	}
+
+	public boolean isSuccess() {
+		return this.error == null;
+	}
+}
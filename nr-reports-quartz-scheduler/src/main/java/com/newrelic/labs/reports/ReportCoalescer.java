@@ -0,0 +1,259 @@
+package com.newrelic.labs.reports;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ReportCoalescer implements Closeable {
+	private static final Logger LOGGER =
+		Logger.getLogger(ReportCoalescer.class.getName());
+
+	// A run submitted to a batch. Each member has its own result so that it
+	// can leave the batch before the batch is run.
+	private static class Member {
+		private final ReportRun run;
+		private final CompletableFuture<Integer> result =
+			new CompletableFuture<>();
+
+		private Member(ReportRun run) {
+			this.run = run;
+		}
+	}
+
+	// The runs of one account collected for a single CLI invocation. Runs
+	// with different publish config IDs share a batch because the invocation
+	// is given the publish config IDs of each report.
+	private static class Batch {
+		private final String accountId;
+		private final List<Member> members = new ArrayList<>();
+		private final Map<String, List<String>> publishConfigIds =
+			new LinkedHashMap<>();
+		private boolean flushed = false;
+
+		private Batch(ReportRun run) {
+			this.accountId = run.getAccountId();
+		}
+
+		private Member tryAdd(ReportRun run, int maxBatchSize) {
+			if (
+				!this.accountId.equals(run.getAccountId()) ||
+				(
+					!this.members.isEmpty() &&
+					this.publishConfigIds.size() + run.getReportIds().size() >
+						maxBatchSize
+				)
+			) {
+				return null;
+			}
+
+			// The CLI runs each report at most once per invocation, so a
+			// report that is already in the batch needs its own invocation.
+			for (String reportId : run.getReportIds()) {
+				if (this.publishConfigIds.containsKey(reportId)) {
+					return null;
+				}
+			}
+
+			Member member = new Member(run);
+
+			this.members.add(member);
+			this.publishConfigIds.putAll(run.getPublishConfigIdsByReport());
+
+			return member;
+		}
+
+		private Member remove(String reportId, String publishConfigId) {
+			for (Member member : this.members) {
+				List<String> publishConfigIds =
+					member.run.getPublishConfigIdsByReport().get(reportId);
+
+				if (
+					publishConfigIds != null &&
+					publishConfigIds.contains(publishConfigId)
+				) {
+					this.members.remove(member);
+					this.publishConfigIds.keySet().removeAll(
+						member.run.getReportIds()
+					);
+					return member;
+				}
+			}
+
+			return null;
+		}
+
+		private boolean isFull(int maxBatchSize) {
+			return this.publishConfigIds.size() >= maxBatchSize;
+		}
+
+		private ReportRun toReportRun() {
+			return new ReportRun(this.accountId, this.publishConfigIds);
+		}
+	}
+
+	private final ReportExecutor executor;
+	private final long windowMillis;
+	private final int maxBatchSize;
+	// Pending batches keyed by account ID
+	private final Map<String, Batch> batches = new HashMap<>();
+	private final ScheduledExecutorService timer;
+
+	public ReportCoalescer(
+		ReportExecutor executor,
+		long windowMillis,
+		int maxBatchSize
+	) {
+		this.executor = executor;
+		this.windowMillis = windowMillis;
+		this.maxBatchSize = maxBatchSize;
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "report-coalescer");
+
+			t.setDaemon(true);
+
+			return t;
+		});
+	}
+
+	private void flush(Batch batch) {
+		ReportRun batchRun;
+		List<Member> members;
+
+		synchronized (this.batches) {
+			if (batch.flushed) {
+				return;
+			}
+
+			batch.flushed = true;
+			this.batches.remove(batch.accountId, batch);
+
+			// Every member left the batch before it was run
+			if (batch.members.isEmpty()) {
+				return;
+			}
+
+			batchRun = batch.toReportRun();
+			members = List.copyOf(batch.members);
+		}
+
+		if (batchRun.getReportIds().size() > 1) {
+			LOGGER.fine("executing coalesced batch for " + batchRun);
+		}
+
+		try {
+			this.executor.execute(batchRun).whenComplete((exitValue, t) -> {
+				for (Member member : members) {
+					if (t != null) {
+						member.result.completeExceptionally(t);
+					} else {
+						member.result.complete(exitValue);
+					}
+				}
+			});
+		} catch (RunReportException | RuntimeException e) {
+			for (Member member : members) {
+				member.result.completeExceptionally(e);
+			}
+		}
+	}
+
+	// Every run merged into a batch shares the result of the single CLI
+	// invocation for that batch.
+	public CompletableFuture<Integer> submit(ReportRun run) {
+		Batch batch;
+		Member member;
+		Batch full = null;
+		Batch superseded = null;
+
+		synchronized (this.batches) {
+			batch = this.batches.get(run.getAccountId());
+			member = batch == null ?
+				null :
+				batch.tryAdd(run, this.maxBatchSize);
+
+			if (member != null) {
+				if (LOGGER.isLoggable(Level.FINEST)) {
+					LOGGER.finest(String.format(
+						"coalesced %s into pending batch",
+						run
+					));
+				}
+			} else {
+				superseded = batch;
+				batch = new Batch(run);
+				member = batch.tryAdd(run, this.maxBatchSize);
+				this.batches.put(batch.accountId, batch);
+
+				final Batch scheduled = batch;
+
+				this.timer.schedule(
+					() -> flush(scheduled),
+					this.windowMillis,
+					TimeUnit.MILLISECONDS
+				);
+			}
+
+			if (batch.isFull(this.maxBatchSize)) {
+				full = batch;
+			}
+		}
+
+		if (superseded != null) {
+			flush(superseded);
+		}
+
+		if (full != null) {
+			flush(full);
+		}
+
+		return member.result;
+	}
+
+	// Takes the runs of the given report and publish config out of the
+	// batches that have not been run yet, leaving the other reports in those
+	// batches to run as planned. Returns the number of runs removed.
+	public int cancel(
+		String accountId,
+		String reportId,
+		String publishConfigId
+	) {
+		List<Member> removed = new ArrayList<>();
+
+		synchronized (this.batches) {
+			for (Batch batch : this.batches.values()) {
+				if (!batch.accountId.equals(accountId)) {
+					continue;
+				}
+
+				Member member = batch.remove(reportId, publishConfigId);
+
+				if (member != null) {
+					removed.add(member);
+				}
+			}
+		}
+
+		for (Member member : removed) {
+			LOGGER.info("cancelling pending " + member.run);
+			member.result.completeExceptionally(
+				new RunReportException("report run cancelled")
+			);
+		}
+
+		return removed.size();
+	}
+
+	@Override
+	public void close() {
+		this.timer.shutdownNow();
+	}
+}
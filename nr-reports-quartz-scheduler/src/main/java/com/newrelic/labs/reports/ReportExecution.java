@@ -0,0 +1,72 @@
+package com.newrelic.labs.reports;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class ReportExecution {
+	private final ReportRun run;
+	private final long timeoutMillis;
+	private final long startTime;
+	private volatile Runnable canceller = null;
+	private volatile boolean timedOut = false;
+	private volatile boolean cancelled = false;
+
+	public ReportExecution(ReportRun run, long timeoutMillis) {
+		this.run = run;
+		this.timeoutMillis = timeoutMillis;
+		this.startTime = System.currentTimeMillis();
+	}
+
+	public static void destroyProcessTree(ProcessHandle handle) {
+		// Descendants are collected before the parent is destroyed since they
+		// are re-parented, and no longer reachable, once it exits.
+		List<ProcessHandle> descendants = handle.descendants()
+			.collect(Collectors.toList());
+
+		handle.destroyForcibly();
+		descendants.forEach(ProcessHandle::destroyForcibly);
+	}
+
+	public ReportRun getRun() {
+		return this.run;
+	}
+
+	public long getTimeoutMillis() {
+		return this.timeoutMillis;
+	}
+
+	public long getElapsedMillis() {
+		return System.currentTimeMillis() - this.startTime;
+	}
+
+	public boolean isTimedOut() {
+		return this.timedOut;
+	}
+
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	public void setCanceller(Runnable canceller) {
+		this.canceller = canceller;
+
+		if (this.cancelled) {
+			canceller.run();
+		}
+	}
+
+	public void timeout() {
+		this.timedOut = true;
+		cancel();
+	}
+
+	public void cancel() {
+		this.cancelled = true;
+
+		Runnable canceller = this.canceller;
+
+		if (canceller != null) {
+			canceller.run();
+		}
+	}
+}
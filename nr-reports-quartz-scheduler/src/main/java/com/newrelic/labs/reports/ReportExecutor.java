@@ -0,0 +1,659 @@
+package com.newrelic.labs.reports;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ReportExecutor implements Closeable {
+	private static final Logger LOGGER =
+		Logger.getLogger(ReportExecutor.class.getName());
+
+	private static class QueuedRun {
+		private final ReportRun run;
+		private final CompletableFuture<Integer> result =
+			new CompletableFuture<>();
+
+		private QueuedRun(ReportRun run) {
+			this.run = run;
+		}
+	}
+
+	private final Util util;
+	private final ReportExecutorConfig config;
+	private final ReportWorkerPool pool;
+	private final ReportCoalescer coalescer;
+	private final int maxConcurrent;
+	private final Deque<QueuedRun> queue = new ArrayDeque<>();
+	private final Map<String, Integer> runningByAccount = new HashMap<>();
+	private final ExecutorService dispatcher;
+	private final ScheduledExecutorService watchdog;
+	private final Set<ReportExecution> executions =
+		ConcurrentHashMap.newKeySet();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong timedOutMillis = new AtomicLong();
+	private int running = 0;
+	private long rejected = 0;
+	private boolean closed = false;
+
+	public ReportExecutor(Util util, ReportExecutorConfig config) {
+		this.util = util;
+		this.config = config;
+		this.pool = config.getWorkers() > 0 ?
+			new ReportWorkerPool(
+				this::createWorkerProcessBuilder,
+				config.getWorkers(),
+				config.getWorkerMaxRuns(),
+				config.getWorkerStartTimeoutMillis(),
+				config.getWorkerHealthCheckIntervalMillis()
+			) :
+			null;
+		this.coalescer = config.getCoalesceWindowMillis() > 0 ?
+			new ReportCoalescer(
+				this,
+				config.getCoalesceWindowMillis(),
+				config.getCoalesceMaxBatchSize()
+			) :
+			null;
+
+		// Acquiring a worker blocks when all workers are busy so admission
+		// never lets more runs through than there are workers.
+		this.maxConcurrent = this.pool != null ?
+			Math.min(config.getMaxConcurrent(), config.getWorkers()) :
+			config.getMaxConcurrent();
+
+		// Queued runs are started from a dedicated thread instead of the
+		// thread that observed the completion of the previous run, which may
+		// be the output reader of a worker.
+		this.dispatcher = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "report-dispatcher");
+
+			t.setDaemon(true);
+
+			return t;
+		});
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "report-watchdog");
+
+			t.setDaemon(true);
+
+			return t;
+		});
+	}
+
+	public ReportExecutorConfig getConfig() {
+		return this.config;
+	}
+
+	public int getMaxConcurrent() {
+		return this.maxConcurrent;
+	}
+
+	public int getRunning() {
+		synchronized (this.queue) {
+			return this.running;
+		}
+	}
+
+	public int getQueued() {
+		synchronized (this.queue) {
+			return this.queue.size();
+		}
+	}
+
+	public long getRejected() {
+		synchronized (this.queue) {
+			return this.rejected;
+		}
+	}
+
+	public long getTimedOut() {
+		return this.timedOut.get();
+	}
+
+	public long getTimedOutMillis() {
+		return this.timedOutMillis.get();
+	}
+
+	private String requireEnv(String envName, String description)
+		throws RunReportException {
+		String value = this.util.getenv(envName);
+
+		if (value == null || value.isEmpty()) {
+			throw new RunReportException("missing " + description);
+		}
+
+		return value;
+	}
+
+	private ProcessBuilder createProcessBuilder(
+		String... args
+	) throws RunReportException {
+		requireEnv("NEW_RELIC_LICENSE_KEY", "license key");
+
+		String apiKey = requireEnv("NEW_RELIC_API_KEY", "api key");
+		String nerdletPackageId = requireEnv(
+			"SOURCE_NERDLET_ID",
+			"source nerdlet ID"
+		);
+		String region = this.util.getenv(
+			"NEW_RELIC_REGION",
+			"US"
+		);
+		String nodeCmd = this.util.getenv("NODE_CMD", "node");
+		String reportsHome = this.util.getenv("REPORTS_HOME", "..");
+		String[] command = new String[args.length + 2];
+
+		command[0] = nodeCmd;
+
+		try {
+			command[1] = Path.of(
+				reportsHome,
+				"nr-reports-cli",
+				"index.js"
+			).toFile().getCanonicalPath();
+		} catch (IOException e) {
+			throw new RunReportException("invalid reports home", e);
+		}
+
+		System.arraycopy(args, 0, command, 2, args.length);
+
+		ProcessBuilder procBuilder = new ProcessBuilder(command)
+			.inheritIO()
+			.directory(
+				Path.of(reportsHome).toFile()
+			);
+		Map<String, String> environment = procBuilder.environment();
+
+		environment.put("NEW_RELIC_API_KEY", apiKey);
+		environment.put("SOURCE_NERDLET_ID", nerdletPackageId);
+		environment.put("NEW_RELIC_REGION", region);
+
+		if (LOGGER.isLoggable(Level.FINEST)) {
+			environment.put("LOG_LEVEL", "debug");
+		} else if (LOGGER.isLoggable(Level.FINE)) {
+			environment.put("LOG_LEVEL", "verbose");
+		}
+
+		LOGGER.finest(
+			"spawning node process for CLI using node command " +
+				nodeCmd
+		);
+
+		return procBuilder;
+	}
+
+	private ProcessBuilder createWorkerProcessBuilder() {
+		try {
+			// Worker requests and results are exchanged over stdin/stdout so
+			// only stderr is inherited.
+			return createProcessBuilder("--worker")
+				.redirectInput(ProcessBuilder.Redirect.PIPE)
+				.redirectOutput(ProcessBuilder.Redirect.PIPE);
+		} catch (RunReportException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	private CompletableFuture<Integer> spawn(
+		ReportExecution execution
+	) throws RunReportException {
+		ReportRun run = execution.getRun();
+		ProcessBuilder procBuilder = createProcessBuilder();
+		Map<String, String> environment = procBuilder.environment();
+
+		environment.put("NEW_RELIC_ACCOUNT_ID", run.getAccountId());
+		environment.put("REPORT_IDS", run.getReportIdsString());
+		environment.put(
+			"PUBLISH_CONFIG_IDS",
+			run.getPublishConfigIdsString()
+		);
+		environment.put(
+			"REPORT_PUBLISH_CONFIG_IDS",
+			NerdgraphCodec.getGson().toJson(run.getPublishConfigIdsByReport())
+		);
+
+		try {
+			Process proc = procBuilder.start();
+
+			execution.setCanceller(
+				() -> ReportExecution.destroyProcessTree(proc.toHandle())
+			);
+
+			return proc.onExit().thenApply(Process::exitValue);
+		} catch (IOException e) {
+			throw new RunReportException("failed to spawn CLI", e);
+		}
+	}
+
+	private CompletableFuture<Integer> launch(
+		ReportExecution execution
+	) throws RunReportException {
+		if (this.pool == null) {
+			return spawn(execution);
+		}
+
+		try {
+			return this.pool.run(execution);
+		} catch (IllegalStateException e) {
+			throw new RunReportException(e.getMessage(), e.getCause());
+		} catch (RunReportException e) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw e;
+			}
+
+			LOGGER.log(
+				Level.WARNING,
+				"report worker unavailable, falling back to one-shot CLI",
+				e
+			);
+
+			return spawn(execution);
+		}
+	}
+
+	private long getTimeoutMillis(ReportRun run) {
+		long timeoutSeconds = 0;
+
+		// A batch gets the longest deadline of its reports. A report without
+		// a deadline leaves the whole batch without one.
+		for (String reportId : run.getReportIds()) {
+			int reportTimeout = this.config.getRunTimeoutSeconds(reportId);
+
+			if (reportTimeout <= 0) {
+				return 0;
+			}
+
+			timeoutSeconds = Math.max(timeoutSeconds, reportTimeout);
+		}
+
+		return timeoutSeconds * 1000;
+	}
+
+	private void onTimeout(ReportExecution execution) {
+		LOGGER.warning(String.format(
+			"report run exceeded its deadline of %d seconds, killing %s",
+			execution.getTimeoutMillis() / 1000,
+			execution.getRun()
+		));
+		execution.timeout();
+	}
+
+	private void commitExitEvent(
+		ReportExitEvent event,
+		ReportExecution execution,
+		Integer exitValue
+	) {
+		event.end();
+
+		if (event.shouldCommit()) {
+			ReportRun run = execution.getRun();
+
+			event.accountId = run.getAccountId();
+			event.reportIds = run.getReportIdsString();
+			event.exitCode = exitValue == null ? -1 : exitValue;
+			event.timedOut = execution.isTimedOut();
+			event.cancelled = execution.isCancelled();
+			event.commit();
+		}
+	}
+
+	private int finish(
+		ReportExecution execution,
+		ReportExitEvent exitEvent,
+		ScheduledFuture<?> deadline,
+		Integer exitValue,
+		Throwable t
+	) {
+		this.executions.remove(execution);
+
+		if (deadline != null) {
+			deadline.cancel(false);
+		}
+
+		commitExitEvent(exitEvent, execution, t == null ? exitValue : null);
+
+		if (execution.isTimedOut()) {
+			long elapsed = execution.getElapsedMillis();
+
+			this.timedOut.incrementAndGet();
+			this.timedOutMillis.addAndGet(elapsed);
+
+			throw new CompletionException(new RunReportTimeoutException(
+				String.format(
+					"report run timed out after %d ms",
+					elapsed
+				)
+			));
+		}
+
+		if (execution.isCancelled()) {
+			throw new CompletionException(
+				new RunReportException("report run cancelled")
+			);
+		}
+
+		if (t != null) {
+			throw t instanceof CompletionException ?
+				(CompletionException) t :
+				new CompletionException(t);
+		}
+
+		return exitValue;
+	}
+
+	private boolean hasCapacity(String accountId) {
+		if (this.running >= this.maxConcurrent) {
+			return false;
+		}
+
+		int maxPerAccount = this.config.getMaxConcurrentPerAccount();
+
+		return maxPerAccount <= 0 ||
+			this.runningByAccount.getOrDefault(accountId, 0) < maxPerAccount;
+	}
+
+	private void acquireSlot(String accountId) {
+		this.running += 1;
+		this.runningByAccount.merge(accountId, 1, Integer::sum);
+	}
+
+	private void releaseSlot(String accountId) {
+		synchronized (this.queue) {
+			this.running -= 1;
+			this.runningByAccount.computeIfPresent(
+				accountId,
+				(k, v) -> v > 1 ? v - 1 : null
+			);
+
+			if (this.closed || this.queue.isEmpty()) {
+				return;
+			}
+		}
+
+		try {
+			this.dispatcher.execute(this::dispatch);
+		} catch (RejectedExecutionException e) {
+			LOGGER.log(Level.FINEST, "dispatcher is shut down", e);
+		}
+	}
+
+	private CompletableFuture<Integer> start(
+		ReportRun run
+	) throws RunReportException {
+		ReportExecution execution = new ReportExecution(
+			run,
+			getTimeoutMillis(run)
+		);
+		ReportSpawnEvent spawnEvent = new ReportSpawnEvent();
+		ReportExitEvent exitEvent = new ReportExitEvent();
+		CompletableFuture<Integer> result;
+
+		this.executions.add(execution);
+
+		spawnEvent.begin();
+		exitEvent.begin();
+
+		try {
+			result = launch(execution);
+		} catch (RunReportException | RuntimeException e) {
+			this.executions.remove(execution);
+			commitExitEvent(exitEvent, execution, null);
+			releaseSlot(run.getAccountId());
+			throw e;
+		} finally {
+			spawnEvent.end();
+
+			if (spawnEvent.shouldCommit()) {
+				spawnEvent.accountId = run.getAccountId();
+				spawnEvent.reportIds = run.getReportIdsString();
+				spawnEvent.reportCount = run.getReportIds().size();
+				spawnEvent.worker = this.pool != null;
+				spawnEvent.commit();
+			}
+		}
+
+		ScheduledFuture<?> deadline = execution.getTimeoutMillis() > 0 ?
+			this.watchdog.schedule(
+				() -> onTimeout(execution),
+				execution.getTimeoutMillis(),
+				TimeUnit.MILLISECONDS
+			) :
+			null;
+
+		return result
+			.handle((exitValue, t) -> finish(
+				execution,
+				exitEvent,
+				deadline,
+				exitValue,
+				t
+			))
+			.whenComplete((exitValue, t) -> releaseSlot(run.getAccountId()));
+	}
+
+	private void dispatch() {
+		while (true) {
+			QueuedRun next = null;
+
+			synchronized (this.queue) {
+				// The queue is scanned in order for the first run whose account
+				// is under its limit so that one busy account does not hold up
+				// runs for every other account.
+				Iterator<QueuedRun> it = this.queue.iterator();
+
+				while (it.hasNext()) {
+					QueuedRun queued = it.next();
+
+					if (hasCapacity(queued.run.getAccountId())) {
+						it.remove();
+						acquireSlot(queued.run.getAccountId());
+						next = queued;
+						break;
+					}
+				}
+			}
+
+			if (next == null) {
+				return;
+			}
+
+			final QueuedRun queued = next;
+
+			try {
+				start(queued.run).whenComplete((exitValue, t) -> {
+					if (t != null) {
+						queued.result.completeExceptionally(t);
+						return;
+					}
+
+					queued.result.complete(exitValue);
+				});
+			} catch (RunReportException | RuntimeException e) {
+				queued.result.completeExceptionally(e);
+			}
+		}
+	}
+
+	// Starts the run immediately when global and per-account capacity allows,
+	// otherwise queues it. The returned future completes when the CLI has
+	// finished the run, so callers never block on the child process.
+	public CompletableFuture<Integer> execute(
+		ReportRun run
+	) throws RunReportException {
+		synchronized (this.queue) {
+			if (this.closed) {
+				throw new RunReportException("report executor is closed");
+			}
+
+			if (!hasCapacity(run.getAccountId())) {
+				if (this.queue.size() >= this.config.getMaxQueued()) {
+					this.rejected += 1;
+					throw new RunReportRejectedException(String.format(
+						"report queue is full (%d running, %d queued)",
+						this.running,
+						this.queue.size()
+					));
+				}
+
+				QueuedRun queued = new QueuedRun(run);
+
+				this.queue.addLast(queued);
+
+				if (LOGGER.isLoggable(Level.FINEST)) {
+					LOGGER.finest(String.format(
+						"queued %s behind %d running and %d queued runs",
+						run,
+						this.running,
+						this.queue.size() - 1
+					));
+				}
+
+				return queued.result;
+			}
+
+			acquireSlot(run.getAccountId());
+		}
+
+		return start(run);
+	}
+
+	// Runs other reports were coalesced into are not cancelled, since the
+	// CLI invocation cannot stop a single one of its reports.
+	private boolean isCancellable(
+		ReportRun run,
+		String accountId,
+		String reportId,
+		String publishConfigId
+	) {
+		if (!run.getAccountId().equals(accountId)) {
+			return false;
+		}
+
+		List<String> publishConfigIds =
+			run.getPublishConfigIdsByReport().get(reportId);
+
+		if (
+			publishConfigIds == null ||
+			!publishConfigIds.contains(publishConfigId)
+		) {
+			return false;
+		}
+
+		if (run.getReportIds().size() > 1) {
+			LOGGER.warning(String.format(
+				"not cancelling report %s because other reports are coalesced into %s",
+				reportId,
+				run
+			));
+			return false;
+		}
+
+		return true;
+	}
+
+	// Cancels the runs of the given report and publish config, for example
+	// when its schedule is deleted. A run that is still waiting to be
+	// coalesced is taken out of its batch. Queued and running runs are only
+	// cancelled when the report is the only one in the run. Running runs are
+	// stopped by killing the CLI process tree.
+	public int cancel(
+		String accountId,
+		String reportId,
+		String publishConfigId
+	) {
+		int count = this.coalescer == null ?
+			0 :
+			this.coalescer.cancel(accountId, reportId, publishConfigId);
+
+		synchronized (this.queue) {
+			Iterator<QueuedRun> it = this.queue.iterator();
+
+			while (it.hasNext()) {
+				QueuedRun queued = it.next();
+
+				if (
+					isCancellable(
+						queued.run,
+						accountId,
+						reportId,
+						publishConfigId
+					)
+				) {
+					it.remove();
+					queued.result.completeExceptionally(
+						new RunReportException("report run cancelled")
+					);
+					count += 1;
+				}
+			}
+		}
+
+		for (ReportExecution execution : this.executions) {
+			ReportRun run = execution.getRun();
+
+			if (isCancellable(run, accountId, reportId, publishConfigId)) {
+				LOGGER.info("cancelling " + run);
+				execution.cancel();
+				count += 1;
+			}
+		}
+
+		return count;
+	}
+
+	public CompletableFuture<Integer> submit(
+		ReportRun run
+	) throws RunReportException {
+		if (this.coalescer == null) {
+			return execute(run);
+		}
+
+		return this.coalescer.submit(run);
+	}
+
+	@Override
+	public void close() {
+		synchronized (this.queue) {
+			this.closed = true;
+
+			for (QueuedRun queued : this.queue) {
+				queued.result.completeExceptionally(
+					new RunReportException("report executor is closed")
+				);
+			}
+
+			this.queue.clear();
+		}
+
+		if (this.coalescer != null) {
+			this.coalescer.close();
+		}
+
+		this.dispatcher.shutdownNow();
+		this.watchdog.shutdownNow();
+
+		if (this.pool != null) {
+			LOGGER.info("stopping report workers");
+			this.pool.close();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.newrelic.labs.reports;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ReportExecutorConfig {
+	public enum RejectionPolicy {
+		REJECT,
+		DEFER
+	}
+
+	private int workers = 0;
+	private int workerMaxRuns = 50;
+	private long workerStartTimeoutMillis = 60000;
+	private long workerHealthCheckIntervalMillis = 60000;
+	private long coalesceWindowMillis = 0;
+	private int coalesceMaxBatchSize = 10;
+	private int maxConcurrent = 5;
+	private int maxConcurrentPerAccount = 0;
+	private int maxQueued = 100;
+	private RejectionPolicy rejectionPolicy = RejectionPolicy.DEFER;
+	private int deferDelaySeconds = 60;
+	private int runTimeoutSeconds = 1800;
+	private Map<String, Integer> reportRunTimeouts = new HashMap<>();
+
+	public int getWorkers() {
+		return this.workers;
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	public int getWorkerMaxRuns() {
+		return this.workerMaxRuns;
+	}
+
+	public void setWorkerMaxRuns(int workerMaxRuns) {
+		this.workerMaxRuns = workerMaxRuns;
+	}
+
+	public long getWorkerStartTimeoutMillis() {
+		return this.workerStartTimeoutMillis;
+	}
+
+	public void setWorkerStartTimeoutMillis(long workerStartTimeoutMillis) {
+		this.workerStartTimeoutMillis = workerStartTimeoutMillis;
+	}
+
+	public long getWorkerHealthCheckIntervalMillis() {
+		return this.workerHealthCheckIntervalMillis;
+	}
+
+	public void setWorkerHealthCheckIntervalMillis(
+		long workerHealthCheckIntervalMillis
+	) {
+		this.workerHealthCheckIntervalMillis = workerHealthCheckIntervalMillis;
+	}
+
+	public long getCoalesceWindowMillis() {
+		return this.coalesceWindowMillis;
+	}
+
+	public void setCoalesceWindowMillis(long coalesceWindowMillis) {
+		this.coalesceWindowMillis = coalesceWindowMillis;
+	}
+
+	public int getCoalesceMaxBatchSize() {
+		return this.coalesceMaxBatchSize;
+	}
+
+	public void setCoalesceMaxBatchSize(int coalesceMaxBatchSize) {
+		this.coalesceMaxBatchSize = coalesceMaxBatchSize;
+	}
+
+	public int getMaxConcurrent() {
+		return this.maxConcurrent;
+	}
+
+	public void setMaxConcurrent(int maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	public int getMaxConcurrentPerAccount() {
+		return this.maxConcurrentPerAccount;
+	}
+
+	public void setMaxConcurrentPerAccount(int maxConcurrentPerAccount) {
+		this.maxConcurrentPerAccount = maxConcurrentPerAccount;
+	}
+
+	public int getMaxQueued() {
+		return this.maxQueued;
+	}
+
+	public void setMaxQueued(int maxQueued) {
+		this.maxQueued = maxQueued;
+	}
+
+	public RejectionPolicy getRejectionPolicy() {
+		return this.rejectionPolicy;
+	}
+
+	public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+		this.rejectionPolicy = rejectionPolicy;
+	}
+
+	public int getDeferDelaySeconds() {
+		return this.deferDelaySeconds;
+	}
+
+	public void setDeferDelaySeconds(int deferDelaySeconds) {
+		this.deferDelaySeconds = deferDelaySeconds;
+	}
+
+	public int getRunTimeoutSeconds() {
+		return this.runTimeoutSeconds;
+	}
+
+	public void setRunTimeoutSeconds(int runTimeoutSeconds) {
+		this.runTimeoutSeconds = runTimeoutSeconds;
+	}
+
+	public Map<String, Integer> getReportRunTimeouts() {
+		return this.reportRunTimeouts;
+	}
+
+	public void setReportRunTimeouts(Map<String, Integer> reportRunTimeouts) {
+		this.reportRunTimeouts = reportRunTimeouts;
+	}
+
+	public int getRunTimeoutSeconds(String reportId) {
+		return this.reportRunTimeouts.getOrDefault(
+			reportId,
+			this.runTimeoutSeconds
+		);
+	}
+}
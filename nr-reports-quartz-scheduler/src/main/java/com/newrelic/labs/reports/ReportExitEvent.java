@@ -0,0 +1,29 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.ReportExit")
+@Label("Report Exit")
+@Category({"New Relic Reports", "Report Run"})
+@Description("A report run, from starting the CLI until it exits")
+class ReportExitEvent extends Event {
+	@Label("Account ID")
+	String accountId;
+
+	@Label("Report IDs")
+	String reportIds;
+
+	@Label("Exit Code")
+	@Description("-1 when the run did not exit normally")
+	int exitCode;
+
+	@Label("Timed Out")
+	boolean timedOut;
+
+	@Label("Cancelled")
+	boolean cancelled;
+}
@@ -0,0 +1,93 @@
+package com.newrelic.labs.reports;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The reports of a single CLI invocation. Every report keeps its own publish
+// config IDs so that reports coalesced into one invocation are still each
+// published with the publish config they were scheduled for.
+public class ReportRun {
+	private final String accountId;
+	private final Map<String, List<String>> publishConfigIdsByReport;
+	private final List<String> reportIds;
+	private final List<String> publishConfigIds;
+
+	public ReportRun(
+		String accountId,
+		String reportId,
+		List<String> publishConfigIds
+	) {
+		this(accountId, Map.of(reportId, publishConfigIds));
+	}
+
+	// The publish config IDs of each report, keyed by report ID in the order
+	// the reports are run
+	public ReportRun(
+		String accountId,
+		Map<String, List<String>> publishConfigIdsByReport
+	) {
+		Map<String, List<String>> copy = new LinkedHashMap<>();
+		Set<String> publishConfigIds = new LinkedHashSet<>();
+
+		for (Map.Entry<String, List<String>> entry :
+			publishConfigIdsByReport.entrySet()) {
+			copy.put(entry.getKey(), List.copyOf(entry.getValue()));
+			publishConfigIds.addAll(entry.getValue());
+		}
+
+		this.accountId = accountId;
+		this.publishConfigIdsByReport = Collections.unmodifiableMap(copy);
+		this.reportIds = List.copyOf(copy.keySet());
+		this.publishConfigIds = List.copyOf(publishConfigIds);
+	}
+
+	public String getAccountId() {
+		return this.accountId;
+	}
+
+	public List<String> getReportIds() {
+		return this.reportIds;
+	}
+
+	public Map<String, List<String>> getPublishConfigIdsByReport() {
+		return this.publishConfigIdsByReport;
+	}
+
+	// The publish config IDs of all reports of the run
+	public List<String> getPublishConfigIds() {
+		return this.publishConfigIds;
+	}
+
+	public String getReportIdsString() {
+		return String.join(",", this.reportIds);
+	}
+
+	public String getPublishConfigIdsString() {
+		return String.join(",", this.publishConfigIds);
+	}
+
+	@Override
+	public String toString() {
+		List<String> reports = new ArrayList<>(this.reportIds.size());
+
+		for (Map.Entry<String, List<String>> entry :
+			this.publishConfigIdsByReport.entrySet()) {
+			reports.add(String.format(
+				"%s: %s",
+				entry.getKey(),
+				String.join(",", entry.getValue())
+			));
+		}
+
+		return String.format(
+			"account %s reports [%s]",
+			this.accountId,
+			String.join("; ", reports)
+		);
+	}
+}
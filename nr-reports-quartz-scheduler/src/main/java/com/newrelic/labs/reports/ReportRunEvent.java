@@ -0,0 +1,35 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.ReportRun")
+@Label("Report Run")
+@Category({"New Relic Reports", "Report Run"})
+@Description("A report job, from firing until its run finished, including time spent queued")
+class ReportRunEvent extends Event {
+	@Label("Account ID")
+	String accountId;
+
+	@Label("Report ID")
+	String reportId;
+
+	@Label("Publish Configuration ID")
+	String publishConfigId;
+
+	@Label("Outcome")
+	String outcome;
+
+	// The event is committed by the thread that completes the run, which is
+	// usually not the Quartz thread that fired the job.
+	@Label("Job Thread")
+	@Description("The Quartz thread that fired the job")
+	Thread jobThread;
+
+	@Label("Exit Code")
+	@Description("-1 when the run did not exit normally")
+	int exitCode;
+}
@@ -1,13 +1,21 @@
 package com.newrelic.labs.reports;
 
+import com.newrelic.labs.reports.model.Manifest;
+import com.newrelic.labs.reports.model.PublishConfigItem;
 import org.quartz.CronTrigger;
 import org.quartz.JobDetail;
+import org.quartz.ObjectAlreadyExistsException;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
-import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.Trigger;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,15 +27,22 @@ public class ReportScheduler {
 	private static final Logger LOGGER =
 		Logger.getLogger(ReportScheduler.class.getName());
 
+	public static final String NERDGRAPH_CLIENT_KEY = "nerdgraphClient";
+	public static final String SYNC_EXECUTOR_KEY = "syncExecutor";
+	public static final String REPORT_EXECUTOR_KEY = "reportExecutor";
+	public static final String SYNC_STATE_KEY = "syncState";
+	public static final String MANIFEST_CACHE_KEY = "manifestCache";
+	public static final String SHARD_MEMBERSHIP_KEY = "shardMembership";
+
+	private static final long SYNC_SHUTDOWN_TIMEOUT_SECONDS = 10;
+
 	private final Util util;
 
 	public ReportScheduler(Util util) {
 		this.util = util;
 	}
 
-	public void bootstrap() throws SyncException, IOException {
-		LOGGER.info("bootstrapping");
-
+	private void configureLogging() {
 		String logLevel = this.util.getenv("LOG_LEVEL");
 
 		if (logLevel != null && !logLevel.isEmpty()) {
@@ -39,31 +54,408 @@ public class ReportScheduler {
 				LOGGER.info("ignoring invalid log level " + logLevel);
 			}
 		}
+	}
+
+	public void bootstrap(
+		String[] accountIds,
+		NerdgraphClient client,
+		SyncState syncState,
+		ManifestCache manifestCache
+	) throws SyncException {
+		LOGGER.info("bootstrapping");
 
-		String[] accountIds = this.util.requireAccountIds();
-		NerdgraphClient client = this.util.createNerdgraphClient(this.util);
 		String scheduleGroupName = this.util.getScheduleGroupName();
 
+		Map<String, ReadDocumentsResult> results =
+			this.util.readAccountDocuments(client, accountIds, false, true);
+
 		for (String accountId : accountIds) {
-			this.util.downloadManifest(client, accountId);
+			Manifest manifest =
+				this.util.requireManifest(results.get(accountId));
+			PublishConfigItem[] publishConfigItems =
+				this.util.getPublishConfigurationItems(
+					accountId,
+					manifest.getReports()
+				);
+			Map<String, String> digests =
+				this.util.getPublishConfigurationDigests(publishConfigItems);
+			String manifestDigest = this.util.getManifestDigest(digests);
+
+			manifestCache.put(accountId, manifest);
+
+			// Intentionally specify no applied digests to force a refresh
+			this.util.hup(
+				accountId,
+				publishConfigItems,
+				Map.of(),
+				scheduleGroupName
+			);
+
+			// The metadata was not read so the first sync always checks the
+			// manifest, which is then a no-op unless it changed meanwhile.
+			syncState.put(accountId, new AccountState(
+				AccountState.UNKNOWN_LAST_MODIFIED_DATE,
+				manifestDigest,
+				digests,
+				System.currentTimeMillis()
+			));
+		}
+	}
+
+	// Rebuilds the schedules of every account found in the local checkpoint
+	// from its manifest file without any NerdGraph calls so that reports can
+	// fire as soon as the scheduler starts. Accounts that cannot be restored
+	// are left to the first sync. Returns false when nothing was restored.
+	public boolean warmStart(
+		String[] accountIds,
+		SyncState syncState
+	) throws SyncException {
+		if (!this.util.isCheckpointEnabled()) {
+			return false;
+		}
+
+		Checkpoint checkpoint = this.util.readCheckpoint();
+
+		if (checkpoint == null) {
+			return false;
+		}
+
+		LOGGER.info(
+			"warm starting from checkpoint created at " +
+			this.util.toIsoString(checkpoint.getCreatedDate())
+		);
+
+		String scheduleGroupName = this.util.getScheduleGroupName();
+		int restored = 0;
+
+		for (String accountId : accountIds) {
+			AccountState state = checkpoint.getAccounts().get(accountId);
+
+			if (state == null) {
+				LOGGER.info("no checkpoint for account ID " + accountId);
+				continue;
+			}
+
+			Manifest manifest;
+
+			try {
+				manifest = this.util.readManifest(accountId);
+			} catch (IOException | RuntimeException e) {
+				LOGGER.log(
+					Level.WARNING,
+					"failed to read manifest file for account ID " + accountId,
+					e
+				);
+				continue;
+			}
+
+			PublishConfigItem[] publishConfigItems =
+				this.util.getPublishConfigurationItems(
+					accountId,
+					manifest.getReports()
+				);
+			Map<String, String> digests =
+				this.util.getPublishConfigurationDigests(publishConfigItems);
+			String manifestDigest = this.util.getManifestDigest(digests);
+
+			// A manifest file that does not match the checkpoint is either
+			// missing or was written after the checkpoint, so the account is
+			// left to the first sync rather than trusting either one.
+			if (!manifestDigest.equals(state.getManifestDigest())) {
+				LOGGER.warning(
+					"manifest file does not match checkpoint for account ID " +
+					accountId
+				);
+				continue;
+			}
+
+			this.util.hup(
+				accountId,
+				publishConfigItems,
+				Map.of(),
+				scheduleGroupName
+			);
+
+			syncState.put(accountId, new AccountState(
+				state.getLastModifiedDate(),
+				manifestDigest,
+				digests,
+				state.getLastPolledDate()
+			));
+
+			restored += 1;
+		}
+
+		LOGGER.info(String.format(
+			"restored %d of %d accounts from checkpoint",
+			restored,
+			accountIds.length
+		));
+
+		return restored > 0;
+	}
+
+	private void registerMetrics(
+		Metrics metrics,
+		Scheduler scheduler,
+		ReportExecutor reportExecutor
+	) {
+		metrics.gauge(
+			"nr_reports_quartz_threads",
+			"Size of the Quartz thread pool",
+			() -> {
+				try {
+					return scheduler.getMetaData().getThreadPoolSize();
+				} catch (SchedulerException e) {
+					return Double.NaN;
+				}
+			}
+		);
+		metrics.gauge(
+			"nr_reports_quartz_busy_threads",
+			"Quartz threads currently executing a job on this instance",
+			() -> {
+				try {
+					return scheduler.getCurrentlyExecutingJobs().size();
+				} catch (SchedulerException e) {
+					return Double.NaN;
+				}
+			}
+		);
+		metrics.counter(
+			"nr_reports_quartz_jobs_executed_total",
+			"Jobs executed by this instance since it started",
+			() -> {
+				try {
+					return scheduler.getMetaData().getNumberOfJobsExecuted();
+				} catch (SchedulerException e) {
+					return Double.NaN;
+				}
+			}
+		);
+		metrics.gauge(
+			"nr_reports_report_runs_max_concurrent",
+			"Maximum number of CLI invocations that run at the same time",
+			reportExecutor::getMaxConcurrent
+		);
+		metrics.gauge(
+			"nr_reports_report_runs_running",
+			"CLI invocations currently running",
+			reportExecutor::getRunning
+		);
+		metrics.gauge(
+			"nr_reports_report_runs_queued",
+			"Report runs waiting for a free slot",
+			reportExecutor::getQueued
+		);
+		metrics.counter(
+			"nr_reports_report_runs_rejected_total",
+			"Report runs rejected because the queue was full",
+			reportExecutor::getRejected
+		);
+		metrics.counter(
+			"nr_reports_report_runs_timed_out_total",
+			"CLI invocations killed because they exceeded their deadline",
+			reportExecutor::getTimedOut
+		);
+		metrics.counter(
+			"nr_reports_report_runs_timed_out_seconds_total",
+			"Time CLI invocations ran before they were killed for exceeding their deadline",
+			() -> reportExecutor.getTimedOutMillis() / 1000.0
+		);
+		metrics.gauge(
+			"nr_reports_child_processes",
+			"Processes started by the scheduler, including CLI workers and browsers",
+			() -> ProcessHandle.current().descendants().count()
+		);
+	}
+
+	private MetricsServer startMetricsServer() {
+		int port = this.util.getenvInt("METRICS_PORT", 0);
+
+		if (port <= 0) {
+			return null;
+		}
+
+		try {
+			MetricsServer server = new MetricsServer(
+				Metrics.getInstance(),
+				new InetSocketAddress(
+					this.util.getenv("METRICS_BIND_ADDRESS", "0.0.0.0"),
+					port
+				)
+			);
+
+			server.start();
 
-			// Intentionally specify 0 for lastPolledDate to force a refresh
-			this.util.hup(accountId, 0, scheduleGroupName);
+			return server;
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "failed to start metrics server", e);
+			return null;
 		}
 	}
 
+	// Lets the account syncs in flight finish so that their schedules and sync
+	// state are consistent when the checkpoint is written. Syncs that are
+	// still running after the timeout are interrupted.
+	private void stopSyncExecutor(ExecutorService syncExecutor) {
+		syncExecutor.shutdown();
+
+		try {
+			if (
+				!syncExecutor.awaitTermination(
+					SYNC_SHUTDOWN_TIMEOUT_SECONDS,
+					TimeUnit.SECONDS
+				)
+			) {
+				LOGGER.warning("timed out waiting for account syncs to finish");
+				syncExecutor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			syncExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Every instance of a cluster schedules the sync job when it starts. Only
+	// the first one creates it. The others keep the existing job, including
+	// the sync state in its job data, and only replace its trigger when the
+	// sync schedule changed. Returns true if the job was created.
+	private boolean scheduleClusteredSyncJob(
+		Scheduler scheduler,
+		JobDetail job,
+		CronTrigger trigger
+	) throws SchedulerException {
+		try {
+			scheduler.scheduleJob(job, trigger);
+			return true;
+		} catch (ObjectAlreadyExistsException e) {
+			LOGGER.finest("sync job already scheduled by another instance");
+		}
+
+		Trigger existing = scheduler.getTrigger(trigger.getKey());
+
+		if (existing == null) {
+			scheduler.scheduleJob(trigger);
+		} else if (
+			!(existing instanceof CronTrigger) ||
+			!((CronTrigger) existing).getCronExpression().equals(
+				trigger.getCronExpression()
+			)
+		) {
+			LOGGER.info("replacing sync job trigger");
+			scheduler.rescheduleJob(trigger.getKey(), trigger);
+		}
+
+		return false;
+	}
+
 	@SuppressWarnings("InfiniteLoopStatement")
 	public void run() {
+		configureLogging();
+
+		// The NerdGraph client and its connection pool are shared by the
+		// bootstrap and every execution of the sync job and are only closed
+		// when the scheduler shuts down.
+		final NerdgraphClient client;
+		final SyncState syncState = new SyncState();
+		final ManifestCache manifestCache = new ManifestCache(this.util);
+
+		try {
+			client = this.util.createNerdgraphClient(this.util);
+			client.start();
+		} catch (SyncException e) {
+			LOGGER.log(Level.SEVERE, "failed to create nerdgraph client", e);
+			return;
+		}
+
+		final Scheduler scheduler;
+		final boolean clustered;
+
 		try {
-			bootstrap();
-		} catch (SyncException | IOException e) {
-			LOGGER.log(Level.SEVERE, "bootstrap failed", e);
+			scheduler = this.util.getScheduler();
+			clustered = this.util.isClustered(scheduler);
+		} catch (SchedulerException e) {
+			LOGGER.log(Level.SEVERE, "failed to create scheduler", e);
+			manifestCache.close();
+			client.close();
+			return;
+		}
+
+		ShardMembership shardMembership;
+		String[] accountIds;
+
+		try {
+			shardMembership = this.util.createShardMembership();
+
+			if (shardMembership != null && clustered) {
+				LOGGER.warning(
+					"ignoring account sharding with a clustered job store"
+				);
+				shardMembership = null;
+			}
+
+			accountIds = this.util.requireAccountIds();
+
+			if (shardMembership != null) {
+				accountIds = shardMembership.getOwnedAccountIds(accountIds);
+			}
+		} catch (SyncException e) {
+			LOGGER.log(Level.SEVERE, "failed to determine accounts", e);
+			manifestCache.close();
+			client.close();
 			return;
 		}
 
+		boolean warm = false;
+
+		if (clustered) {
+			// The schedules are kept in the shared job store and are only
+			// changed by the sync job, which runs on one instance at a time.
+			LOGGER.info("using clustered job store, skipping bootstrap");
+		} else {
+			try {
+				warm = warmStart(accountIds, syncState);
+			} catch (SyncException e) {
+				LOGGER.log(Level.WARNING, "warm start failed", e);
+			}
+
+			if (!warm) {
+				try {
+					bootstrap(accountIds, client, syncState, manifestCache);
+					manifestCache.checkpoint(syncState);
+				} catch (SyncException e) {
+					LOGGER.log(Level.SEVERE, "bootstrap failed", e);
+					manifestCache.close();
+					client.close();
+					return;
+				}
+			}
+		}
+
 		try {
-			final Scheduler scheduler =
-				StdSchedulerFactory.getDefaultScheduler();
+			final ExecutorService syncExecutor =
+				this.util.createSyncExecutor();
+			final ReportExecutor reportExecutor =
+				this.util.createReportExecutor();
+
+			registerMetrics(Metrics.getInstance(), scheduler, reportExecutor);
+
+			final MetricsServer metricsServer = startMetricsServer();
+
+			scheduler.getContext().put(NERDGRAPH_CLIENT_KEY, client);
+			scheduler.getContext().put(SYNC_EXECUTOR_KEY, syncExecutor);
+			scheduler.getContext().put(REPORT_EXECUTOR_KEY, reportExecutor);
+			scheduler.getContext().put(SYNC_STATE_KEY, syncState);
+			scheduler.getContext().put(MANIFEST_CACHE_KEY, manifestCache);
+
+			if (shardMembership != null) {
+				scheduler.getContext().put(
+					SHARD_MEMBERSHIP_KEY,
+					shardMembership
+				);
+			}
+
 			String syncSchedule = this.util.getenv(
 				"SYNC_SCHEDULE",
 				"0 */5 * * * ?"
@@ -73,18 +465,53 @@ public class ReportScheduler {
 				.build();
 			CronTrigger trigger = newTrigger()
 				.withIdentity("syncTrigger", "default")
-				.withSchedule(cronSchedule(syncSchedule))
+				.forJob(job)
+				.withSchedule(
+					cronSchedule(syncSchedule)
+						// A sync that overruns its interval must not be
+						// followed by a burst of catch-up executions.
+						.withMisfireHandlingInstructionDoNothing()
+				)
 				.build();
 
 			LOGGER.info(
 				"scheduling sync job with schedule " +
 				syncSchedule
 			);
-			scheduler.scheduleJob(job, trigger);
+
+			boolean reconcile = warm;
+
+			if (clustered) {
+				reconcile = scheduleClusteredSyncJob(scheduler, job, trigger);
+			} else {
+				scheduler.scheduleJob(job, trigger);
+			}
 
 			LOGGER.info("starting scheduler");
 			scheduler.start();
 
+			// Reports can fire from here on. The startup benchmark waits for
+			// this message.
+			long startupMillis =
+				ManagementFactory.getRuntimeMXBean().getUptime();
+
+			Metrics.getInstance().gauge(
+				"nr_reports_startup_seconds",
+				"Time from JVM start until the scheduler was started with the bootstrapped schedules",
+				() -> startupMillis / 1000.0
+			);
+			LOGGER.info(String.format(
+				"scheduler started %d ms after JVM start",
+				startupMillis
+			));
+
+			if (reconcile) {
+				// Reconcile the restored schedules with NerdStorage in the
+				// background while they are already firing.
+				LOGGER.info("triggering sync to reconcile schedules");
+				scheduler.triggerJob(job.getKey());
+			}
+
 			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 				try {
 					LOGGER.info("stopping scheduler");
@@ -95,6 +522,21 @@ public class ReportScheduler {
 						"scheduler failed to shutdown properly",
 						e
 					);
+				} finally {
+					if (metricsServer != null) {
+						metricsServer.close();
+					}
+
+					stopSyncExecutor(syncExecutor);
+					reportExecutor.close();
+
+					if (!clustered) {
+						manifestCache.checkpoint(syncState);
+					}
+
+					manifestCache.close();
+					LOGGER.info("closing nerdgraph client");
+					client.close();
 				}
 			}));
 
@@ -123,6 +565,8 @@ public class ReportScheduler {
 			}
 		} catch (SchedulerException e) {
 			LOGGER.log(Level.SEVERE, "scheduler failed", e);
+			manifestCache.close();
+			client.close();
 		}
 	}
 
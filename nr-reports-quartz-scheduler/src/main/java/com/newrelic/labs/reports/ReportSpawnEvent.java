@@ -0,0 +1,25 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.ReportSpawn")
+@Label("Report Spawn")
+@Category({"New Relic Reports", "Report Run"})
+@Description("Starting a report run on a CLI worker or a new CLI process")
+class ReportSpawnEvent extends Event {
+	@Label("Account ID")
+	String accountId;
+
+	@Label("Report IDs")
+	String reportIds;
+
+	@Label("Reports")
+	int reportCount;
+
+	@Label("Worker Pool")
+	boolean worker;
+}
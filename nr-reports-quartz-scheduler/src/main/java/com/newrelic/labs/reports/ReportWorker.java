@@ -0,0 +1,280 @@
+package com.newrelic.labs.reports;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ReportWorker {
+	private static final Logger LOGGER =
+		Logger.getLogger(ReportWorker.class.getName());
+
+	// Must match the marker written by the CLI in worker mode. Any other
+	// output on stdout (for example, log lines) is passed through.
+	private static final String MESSAGE_PREFIX = "{\"nrReportsWorker\":1";
+
+	private final int id;
+	private final Process process;
+	private final BufferedWriter writer;
+	private final CompletableFuture<Void> ready = new CompletableFuture<>();
+	private final Map<String, CompletableFuture<JsonObject>> pending =
+		new ConcurrentHashMap<>();
+	private final AtomicLong requestIds = new AtomicLong();
+	private volatile int runs;
+	private volatile long lastUsed;
+
+	public ReportWorker(int id, ProcessBuilder procBuilder) throws IOException {
+		this.id = id;
+		this.process = procBuilder.start();
+		this.writer = new BufferedWriter(new OutputStreamWriter(
+			this.process.getOutputStream(),
+			StandardCharsets.UTF_8
+		));
+		this.lastUsed = System.currentTimeMillis();
+
+		Thread reader = new Thread(
+			this::readOutput,
+			"report-worker-" + id + "-reader"
+		);
+
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	public int getId() {
+		return this.id;
+	}
+
+	public Process getProcess() {
+		return this.process;
+	}
+
+	public long getPid() {
+		return this.process.pid();
+	}
+
+	public int getRuns() {
+		return this.runs;
+	}
+
+	public long getLastUsed() {
+		return this.lastUsed;
+	}
+
+	public boolean isAlive() {
+		return this.process.isAlive();
+	}
+
+	private void readOutput() {
+		try (
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+				this.process.getInputStream(),
+				StandardCharsets.UTF_8
+			))
+		) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith(MESSAGE_PREFIX)) {
+					// The CLI writes its own log output, whose verbosity
+					// already follows LOG_LEVEL.
+					if (LOGGER.isLoggable(Level.INFO)) {
+						LOGGER.info(String.format(
+							"report worker %d: %s",
+							this.id,
+							line
+						));
+					}
+					continue;
+				}
+
+				handleMessage(line);
+			}
+		} catch (IOException e) {
+			LOGGER.log(
+				Level.FINEST,
+				"failed reading output of report worker " + this.id,
+				e
+			);
+		} finally {
+			IOException e = new IOException(
+				"report worker " + this.id + " exited"
+			);
+
+			this.ready.completeExceptionally(e);
+			this.pending.values().forEach(f -> f.completeExceptionally(e));
+			this.pending.clear();
+		}
+	}
+
+	private void handleMessage(String line) {
+		JsonObject message;
+
+		try {
+			message = JsonParser.parseString(line).getAsJsonObject();
+		} catch (JsonParseException | IllegalStateException e) {
+			LOGGER.warning(String.format(
+				"ignoring invalid message from report worker %d: %s",
+				this.id,
+				line
+			));
+			return;
+		}
+
+		String type = message.has("type") ?
+			message.get("type").getAsString() :
+			"";
+
+		if (type.equals("ready")) {
+			this.ready.complete(null);
+			return;
+		}
+
+		String requestId = message.has("id") ?
+			message.get("id").getAsString() :
+			null;
+		CompletableFuture<JsonObject> future = requestId == null ?
+			null :
+			this.pending.remove(requestId);
+
+		if (future == null) {
+			LOGGER.warning(String.format(
+				"ignoring unexpected message from report worker %d: %s",
+				this.id,
+				line
+			));
+			return;
+		}
+
+		future.complete(message);
+	}
+
+	private CompletableFuture<JsonObject> send(JsonObject request) {
+		String requestId = Long.toString(this.requestIds.incrementAndGet());
+		CompletableFuture<JsonObject> future = new CompletableFuture<>();
+
+		request.addProperty("id", requestId);
+		this.pending.put(requestId, future);
+
+		try {
+			synchronized (this.writer) {
+				this.writer.write(request.toString());
+				this.writer.newLine();
+				this.writer.flush();
+			}
+		} catch (IOException e) {
+			this.pending.remove(requestId);
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	public void awaitReady(long timeoutMillis) throws RunReportException {
+		try {
+			this.ready.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RunReportException(
+				"interrupted waiting for report worker " + this.id,
+				e
+			);
+		} catch (ExecutionException | TimeoutException e) {
+			throw new RunReportException(
+				"report worker " + this.id + " failed to start",
+				e
+			);
+		}
+	}
+
+	public boolean ping(long timeoutMillis) {
+		JsonObject request = new JsonObject();
+
+		request.addProperty("type", "ping");
+
+		try {
+			send(request).get(timeoutMillis, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException | TimeoutException e) {
+			LOGGER.log(
+				Level.WARNING,
+				"health check failed for report worker " + this.id,
+				e
+			);
+			return false;
+		}
+	}
+
+	public CompletableFuture<Integer> run(ReportRun run) {
+		JsonObject request = new JsonObject();
+
+		request.addProperty("type", "run");
+		request.addProperty("accountId", run.getAccountId());
+		request.addProperty("reportIds", run.getReportIdsString());
+		request.addProperty(
+			"publishConfigIds",
+			run.getPublishConfigIdsString()
+		);
+		request.add(
+			"reportPublishConfigIds",
+			NerdgraphCodec.getGson().toJsonTree(run.getPublishConfigIdsByReport())
+		);
+
+		this.runs += 1;
+		this.lastUsed = System.currentTimeMillis();
+
+		return send(request).thenApply(result -> {
+			this.lastUsed = System.currentTimeMillis();
+
+			if (result.has("message") && LOGGER.isLoggable(Level.FINE)) {
+				LOGGER.fine(String.format(
+					"report worker %d run failed: %s",
+					this.id,
+					result.get("message").getAsString()
+				));
+			}
+
+			return result.has("exitCode") ?
+				result.get("exitCode").getAsInt() :
+				-1;
+		});
+	}
+
+	public void close() {
+		// Closing stdin lets the worker finish its current run, close the
+		// browser and flush pending agent data before it exits.
+		try {
+			synchronized (this.writer) {
+				this.writer.close();
+			}
+		} catch (IOException e) {
+			LOGGER.log(
+				Level.FINEST,
+				"failed to close input of report worker " + this.id,
+				e
+			);
+		}
+	}
+
+	public void kill() {
+		ReportExecution.destroyProcessTree(this.process.toHandle());
+	}
+}
@@ -0,0 +1,240 @@
+package com.newrelic.labs.reports;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ReportWorkerPool implements Closeable {
+	private static final Logger LOGGER =
+		Logger.getLogger(ReportWorkerPool.class.getName());
+
+	private static final long PING_TIMEOUT_MILLIS = 10000;
+	private static final long CLOSE_GRACE_MILLIS = 10000;
+
+	private final Supplier<ProcessBuilder> procBuilderFactory;
+	private final int size;
+	private final int maxRuns;
+	private final long startTimeoutMillis;
+	private final long healthCheckIntervalMillis;
+	private final Semaphore permits;
+	private final Deque<ReportWorker> idle = new ArrayDeque<>();
+	private final Set<ReportWorker> workers = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger workerIds = new AtomicInteger();
+	private volatile boolean closed = false;
+
+	public ReportWorkerPool(
+		Supplier<ProcessBuilder> procBuilderFactory,
+		int size,
+		int maxRuns,
+		long startTimeoutMillis,
+		long healthCheckIntervalMillis
+	) {
+		this.procBuilderFactory = procBuilderFactory;
+		this.size = size;
+		this.maxRuns = maxRuns;
+		this.startTimeoutMillis = startTimeoutMillis;
+		this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+		this.permits = new Semaphore(size, true);
+	}
+
+	public int getSize() {
+		return this.size;
+	}
+
+	private ReportWorker startWorker() throws RunReportException {
+		int id = this.workerIds.incrementAndGet();
+		ReportWorker worker;
+
+		LOGGER.finest("starting report worker " + id);
+
+		try {
+			worker = new ReportWorker(id, this.procBuilderFactory.get());
+		} catch (IOException e) {
+			throw new RunReportException(
+				"failed to start report worker " + id,
+				e
+			);
+		}
+
+		this.workers.add(worker);
+
+		try {
+			worker.awaitReady(this.startTimeoutMillis);
+		} catch (RunReportException e) {
+			retire(worker);
+			throw e;
+		}
+
+		LOGGER.fine(String.format(
+			"started report worker %d with pid %d",
+			id,
+			worker.getPid()
+		));
+
+		return worker;
+	}
+
+	private boolean isHealthy(ReportWorker worker) {
+		if (!worker.isAlive()) {
+			return false;
+		}
+
+		long idleMillis = System.currentTimeMillis() - worker.getLastUsed();
+
+		// Only ping workers that have been idle for a while. A worker that
+		// just returned a result is known to be responsive.
+		if (idleMillis < this.healthCheckIntervalMillis) {
+			return true;
+		}
+
+		return worker.ping(PING_TIMEOUT_MILLIS);
+	}
+
+	private ReportWorker acquire() throws RunReportException {
+		try {
+			this.permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RunReportException(
+				"interrupted waiting for a report worker",
+				e
+			);
+		}
+
+		try {
+			while (true) {
+				ReportWorker worker;
+
+				synchronized (this.idle) {
+					worker = this.idle.pollFirst();
+				}
+
+				if (worker == null) {
+					return startWorker();
+				}
+
+				if (isHealthy(worker)) {
+					return worker;
+				}
+
+				LOGGER.warning(
+					"retiring unhealthy report worker " + worker.getId()
+				);
+				retire(worker);
+			}
+		} catch (RunReportException | RuntimeException e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	private void release(ReportWorker worker, boolean failed) {
+		try {
+			if (this.closed || failed || !worker.isAlive()) {
+				retire(worker);
+				return;
+			}
+
+			if (worker.getRuns() >= this.maxRuns) {
+				LOGGER.fine(String.format(
+					"recycling report worker %d after %d runs",
+					worker.getId(),
+					worker.getRuns()
+				));
+				retire(worker);
+				return;
+			}
+
+			// Most recently used workers are handed out first so that extra
+			// workers stay idle long enough to be health checked or recycled.
+			synchronized (this.idle) {
+				this.idle.addFirst(worker);
+			}
+		} finally {
+			this.permits.release();
+		}
+	}
+
+	private void retire(ReportWorker worker) {
+		this.workers.remove(worker);
+		worker.close();
+
+		worker.getProcess().onExit()
+			.orTimeout(CLOSE_GRACE_MILLIS, TimeUnit.MILLISECONDS)
+			.exceptionally(t -> {
+				LOGGER.warning(
+					"killing report worker " + worker.getId() +
+					" after it failed to exit"
+				);
+				worker.kill();
+				return null;
+			});
+	}
+
+	public CompletableFuture<Integer> run(
+		ReportExecution execution
+	) throws RunReportException {
+		ReportRun run = execution.getRun();
+
+		if (this.closed) {
+			throw new RunReportException("report worker pool is closed");
+		}
+
+		ReportWorker worker = acquire();
+
+		if (LOGGER.isLoggable(Level.FINEST)) {
+			LOGGER.finest(String.format(
+				"running %s on report worker %d",
+				run,
+				worker.getId()
+			));
+		}
+
+		// A single run can not be aborted inside a worker so cancelling it
+		// kills the worker, which is then retired.
+		execution.setCanceller(worker::kill);
+
+		return worker.run(run).whenComplete(
+			(exitValue, t) -> release(worker, t != null)
+		);
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+
+		synchronized (this.idle) {
+			this.idle.clear();
+		}
+
+		for (ReportWorker worker : this.workers) {
+			worker.close();
+		}
+
+		for (ReportWorker worker : this.workers) {
+			try {
+				worker.getProcess().onExit()
+					.get(CLOSE_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				worker.kill();
+			} catch (ExecutionException | TimeoutException e) {
+				worker.kill();
+			}
+		}
+
+		this.workers.clear();
+	}
+}
@@ -1,118 +1,234 @@
 package com.newrelic.labs.reports;
 
-import org.quartz.Job;
+import org.quartz.InterruptableJob;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.UnableToInterruptJobException;
 
-import java.io.IOException;
-import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class RunReportJob implements Job {
+import static org.quartz.TriggerBuilder.newTrigger;
+
+public class RunReportJob implements InterruptableJob {
 	private static final Logger LOGGER =
 		Logger.getLogger(RunReportJob.class.getName());
 
-	private final Util util = Util.getInstance();
+	private volatile ReportExecutor executor = null;
+	private volatile ReportRun run = null;
+	private final ReportRunEvent event = new ReportRunEvent();
 
-	private void runReport(
-		String accountId,
-		String reportId,
-		String publishConfigId
-	) throws RunReportException {
+	private void defer(
+		Scheduler scheduler,
+		JobKey jobKey,
+		int delaySeconds
+	) {
 		try {
-			LOGGER.info("executing run report job");
+			// The run is retried by a one-shot trigger for the same job. Being
+			// attached to the job, the trigger is removed along with the job
+			// if the schedule is deleted in the meantime. The scheduler
+			// instance ID keeps the trigger name unique within a cluster and,
+			// with a clustered job store, the retry can fire on any instance.
+			Trigger trigger = newTrigger()
+				.withIdentity(
+					String.format(
+						"%s_deferred_%s_%d",
+						jobKey.getName(),
+						scheduler.getSchedulerInstanceId(),
+						System.currentTimeMillis()
+					),
+					jobKey.getGroup()
+				)
+				.forJob(jobKey)
+				.startAt(
+					new Date(System.currentTimeMillis() + delaySeconds * 1000L)
+				)
+				.build();
 
-			String licenseKey = this.util.getenv(
-				"NEW_RELIC_LICENSE_KEY"
+			scheduler.scheduleJob(trigger);
+			LOGGER.warning(String.format(
+				"report run for job %s deferred by %d seconds",
+				jobKey,
+				delaySeconds
+			));
+		} catch (SchedulerException e) {
+			LOGGER.log(
+				Level.SEVERE,
+				"failed to defer report run for job " + jobKey,
+				e
 			);
+		}
+	}
 
-			if (licenseKey == null || licenseKey.isEmpty()) {
-				throw new RunReportException("missing license key");
-			}
+	private void handleRejection(
+		JobExecutionContext context,
+		ReportExecutor executor,
+		RunReportRejectedException e
+	) {
+		ReportExecutorConfig config = executor.getConfig();
 
-			String apiKey = this.util.getenv("NEW_RELIC_API_KEY");
+		if (
+			config.getRejectionPolicy() ==
+				ReportExecutorConfig.RejectionPolicy.DEFER
+		) {
+			defer(
+				context.getScheduler(),
+				context.getJobDetail().getKey(),
+				config.getDeferDelaySeconds()
+			);
+			return;
+		}
 
-			if (apiKey == null || apiKey.isEmpty()) {
-				throw new RunReportException("missing api key");
-			}
+		LOGGER.log(
+			Level.SEVERE,
+			"report run for job " + context.getJobDetail().getKey() +
+				" rejected",
+			e
+		);
+	}
 
-			String nerdletPackageId = this.util.getenv(
-				"SOURCE_NERDLET_ID"
-			);
+	private void recordRun(
+		JobExecutionContext context,
+		String outcome,
+		Integer exitValue
+	) {
+		Metrics metrics = Metrics.getInstance();
 
-			if (nerdletPackageId == null || nerdletPackageId.isEmpty()) {
-				throw new RunReportException("missing source nerdlet ID");
-			}
+		this.event.end();
 
-			String region = this.util.getenv(
-				"NEW_RELIC_REGION",
-				"US"
-			);
-			String nodeCmd = util.getenv("NODE_CMD", "node");
-			String reportsHome = util.getenv("REPORTS_HOME", "..");
-
-			ProcessBuilder procBuilder = new ProcessBuilder(
-				nodeCmd,
-				Path.of(
-					reportsHome,
-					"nr-reports-cli",
-					"index.js"
-				).toFile().getCanonicalPath()
-			)
-				.inheritIO()
-				.directory(
-					Path.of(reportsHome).toFile()
-				);
-			Map<String, String> environment = procBuilder.environment();
-
-			environment.put("NEW_RELIC_API_KEY", apiKey);
-			environment.put("SOURCE_NERDLET_ID", nerdletPackageId);
-			environment.put("NEW_RELIC_REGION", region);
-			environment.put("NEW_RELIC_ACCOUNT_ID", accountId);
-			environment.put("REPORT_IDS", reportId);
-			environment.put("PUBLISH_CONFIG_IDS", publishConfigId);
-
-			if (LOGGER.isLoggable(Level.FINEST)) {
-				environment.put("LOG_LEVEL", "debug");
-			} else if (LOGGER.isLoggable(Level.FINE)) {
-				environment.put("LOG_LEVEL", "verbose");
-			}
+		if (this.event.shouldCommit()) {
+			JobDataMap data = context.getMergedJobDataMap();
 
-			LOGGER.finest(
-				"spawning node process for CLI using node command " +
-					nodeCmd
-			);
+			this.event.accountId = data.getString("accountId");
+			this.event.reportId = data.getString("reportId");
+			this.event.publishConfigId = data.getString("publishConfigId");
+			this.event.outcome = outcome;
+			this.event.exitCode = exitValue == null ? -1 : exitValue;
+			this.event.commit();
+		}
 
-			Process proc = procBuilder.start();
+		metrics.increment(
+			"nr_reports_report_runs_total",
+			"Report runs by outcome and CLI exit code",
+			"outcome", outcome,
+			"exit_code", exitValue == null ? "" : exitValue.toString()
+		);
 
-			int exitValue = proc.waitFor();
+		if (outcome.equals("rejected")) {
+			return;
+		}
 
-			LOGGER.finest("CLI exited with code " + exitValue);
-		} catch (IOException | InterruptedException e) {
-			LOGGER.log(Level.SEVERE, "run report failed", e);
-			throw new RunReportException(
-				"run report failed",
-				e
-			);
-		} catch (Throwable t) {
-			LOGGER.log(
-				Level.SEVERE,
-				"run report failed due to unexpected exception",
-				t
-			);
-			throw new RunReportException(
-				"run report failed due to unexpected exception",
-				t
+		metrics.observe(
+			"nr_reports_report_run_duration_seconds",
+			"Time from a report job firing until its run finished, including time spent queued",
+			Metrics.DURATION_BUCKETS,
+			(System.currentTimeMillis() - context.getFireTime().getTime()) /
+				1000.0,
+			"outcome", outcome
+		);
+	}
+
+	private void onComplete(
+		JobExecutionContext context,
+		ReportExecutor executor,
+		ReportRun run,
+		Integer exitValue,
+		Throwable t
+	) {
+		Throwable cause = t instanceof CompletionException ?
+			t.getCause() :
+			t;
+
+		if (cause instanceof RunReportRejectedException) {
+			recordRun(context, "rejected", null);
+			handleRejection(
+				context,
+				executor,
+				(RunReportRejectedException) cause
 			);
+			return;
 		}
+
+		if (cause instanceof RunReportTimeoutException) {
+			recordRun(context, "timed_out", null);
+			LOGGER.severe(String.format(
+				"run report timed out for %s: %s",
+				run,
+				cause.getMessage()
+			));
+			return;
+		}
+
+		if (cause != null) {
+			recordRun(context, "error", null);
+			LOGGER.log(Level.SEVERE, "run report failed for " + run, cause);
+			return;
+		}
+
+		if (exitValue != 0) {
+			recordRun(context, "failed", exitValue);
+			LOGGER.warning(String.format(
+				"CLI exited with code %d for %s",
+				exitValue,
+				run
+			));
+			return;
+		}
+
+		recordRun(context, "succeeded", exitValue);
+		LOGGER.finest("CLI exited with code " + exitValue);
+	}
+
+	private void runReport(
+		JobExecutionContext context,
+		ReportExecutor executor,
+		String accountId,
+		String reportId,
+		String publishConfigId
+	) throws RunReportException {
+		LOGGER.info("executing run report job");
+
+		ReportRun run = new ReportRun(
+			accountId,
+			reportId,
+			List.of(publishConfigId)
+		);
+		CompletableFuture<Integer> result;
+
+		this.executor = executor;
+		this.run = run;
+
+		try {
+			result = executor.submit(run);
+		} catch (RunReportRejectedException e) {
+			recordRun(context, "rejected", null);
+			handleRejection(context, executor, e);
+			return;
+		}
+
+		// The Quartz thread is released as soon as the run is started or
+		// queued. The outcome of the run is only logged.
+		result.whenComplete(
+			(exitValue, t) -> onComplete(context, executor, run, exitValue, t)
+		);
 	}
 
 	public void execute(
 		JobExecutionContext context
 	) throws JobExecutionException {
+		this.event.begin();
+		this.event.jobThread = Thread.currentThread();
+
 		JobDataMap data = context.getMergedJobDataMap();
 		String accountId = data.getString("accountId");
 		String reportId = data.getString("reportId");
@@ -131,12 +247,45 @@ public class RunReportJob implements Job {
 				throw new RunReportException("missing publish config ID");
 			}
 
-			runReport(accountId, reportId, publishConfigId);
-		} catch (RunReportException e) {
+			ReportExecutor executor = (ReportExecutor) context.getScheduler()
+				.getContext()
+				.get(ReportScheduler.REPORT_EXECUTOR_KEY);
+
+			if (executor == null) {
+				throw new RunReportException("missing report executor");
+			}
+
+			runReport(context, executor, accountId, reportId, publishConfigId);
+		} catch (RunReportException | SchedulerException e) {
+			LOGGER.log(Level.SEVERE, "run report failed", e);
 			throw new JobExecutionException(
 				"run report failed",
 				e
 			);
 		}
 	}
+
+	// The job returns as soon as its run is started or queued, so Quartz only
+	// interrupts it during that window. Runs that are already in flight are
+	// cancelled when their schedule is deleted. Either way, a run that other
+	// reports were coalesced into keeps running for their sake.
+	public void interrupt() throws UnableToInterruptJobException {
+		ReportExecutor executor = this.executor;
+		ReportRun run = this.run;
+
+		if (executor == null || run == null) {
+			return;
+		}
+
+		for (Map.Entry<String, List<String>> entry :
+			run.getPublishConfigIdsByReport().entrySet()) {
+			for (String publishConfigId : entry.getValue()) {
+				executor.cancel(
+					run.getAccountId(),
+					entry.getKey(),
+					publishConfigId
+				);
+			}
+		}
+	}
 }
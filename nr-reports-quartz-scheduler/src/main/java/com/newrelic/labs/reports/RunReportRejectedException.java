@@ -0,0 +1,11 @@
+package com.newrelic.labs.reports;
+
+public class RunReportRejectedException extends RunReportException {
+	public RunReportRejectedException(String message) {
+		super(message);
+	}
+
+	public RunReportRejectedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,11 @@
+package com.newrelic.labs.reports;
+
+public class RunReportTimeoutException extends RunReportException {
+	public RunReportTimeoutException(String message) {
+		super(message);
+	}
+
+	public RunReportTimeoutException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
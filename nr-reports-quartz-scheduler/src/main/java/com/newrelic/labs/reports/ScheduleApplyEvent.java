@@ -0,0 +1,25 @@
+package com.newrelic.labs.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.newrelic.labs.reports.ScheduleApply")
+@Label("Quartz Apply")
+@Category({"New Relic Reports", "Sync"})
+@Description("Applying a change set to the Quartz scheduler")
+class ScheduleApplyEvent extends Event {
+	@Label("Account ID")
+	String accountId;
+
+	@Label("Creates")
+	int createCount;
+
+	@Label("Updates")
+	int updateCount;
+
+	@Label("Deletes")
+	int deleteCount;
+}
@@ -0,0 +1,156 @@
+package com.newrelic.labs.reports;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Decides which of the configured accounts this scheduler instance owns when
+// accounts are sharded across instances that do not share a job store. Each
+// account is owned by exactly one member of a consistent hash ring built from
+// the member list, so every instance agrees on the owners without talking to
+// the others.
+public class ShardMembership {
+	private static final Logger LOGGER =
+		Logger.getLogger(ShardMembership.class.getName());
+
+	private final String memberId;
+	private final String members;
+	private final Path membersFile;
+	private final int virtualNodes;
+	private volatile HashRing ring;
+
+	public ShardMembership(
+		String memberId,
+		String members,
+		Path membersFile,
+		int virtualNodes
+	) throws SyncException {
+		this.memberId = memberId;
+		this.members = members;
+		this.membersFile = membersFile;
+		this.virtualNodes = virtualNodes;
+		this.ring = load();
+
+		LOGGER.info(String.format(
+			"shard member %s of %s",
+			memberId,
+			this.ring.getMembers()
+		));
+	}
+
+	private List<String> parseMembers(String value) {
+		Set<String> parsed = new LinkedHashSet<>();
+
+		if (value != null) {
+			for (String member : value.split("[,\\s]+")) {
+				if (!member.isEmpty()) {
+					parsed.add(member);
+				}
+			}
+		}
+
+		return new ArrayList<>(parsed);
+	}
+
+	private HashRing load() throws SyncException {
+		String value = this.members;
+
+		if (this.membersFile != null) {
+			try {
+				value = Files.readString(this.membersFile);
+			} catch (IOException e) {
+				throw new SyncException(
+					"failed to read shard members file " + this.membersFile,
+					e
+				);
+			}
+		}
+
+		List<String> parsed = parseMembers(value);
+
+		if (parsed.isEmpty()) {
+			throw new SyncException("no shard members configured");
+		}
+
+		if (!parsed.contains(this.memberId)) {
+			LOGGER.warning(String.format(
+				"shard member %s is not one of %s and owns no accounts",
+				this.memberId,
+				parsed
+			));
+		}
+
+		return new HashRing(parsed, this.virtualNodes);
+	}
+
+	// Only a members file can change while the scheduler runs. It is re-read
+	// on every sync so that deployment tooling can add or remove instances by
+	// rewriting it. A file that cannot be read leaves the membership as is.
+	public boolean refresh() {
+		if (this.membersFile == null) {
+			return false;
+		}
+
+		HashRing next;
+
+		try {
+			next = load();
+		} catch (SyncException e) {
+			LOGGER.log(
+				Level.WARNING,
+				"keeping current shard membership " + this.ring.getMembers(),
+				e
+			);
+			return false;
+		}
+
+		if (
+			new HashSet<>(next.getMembers()).equals(
+				new HashSet<>(this.ring.getMembers())
+			)
+		) {
+			return false;
+		}
+
+		LOGGER.info(String.format(
+			"shard membership changed from %s to %s",
+			this.ring.getMembers(),
+			next.getMembers()
+		));
+
+		this.ring = next;
+
+		return true;
+	}
+
+	public String getOwner(String accountId) {
+		return this.ring.getOwner(accountId);
+	}
+
+	public String[] getOwnedAccountIds(String[] accountIds) {
+		HashRing ring = this.ring;
+		List<String> owned = new ArrayList<>();
+
+		for (String accountId : accountIds) {
+			if (this.memberId.equals(ring.getOwner(accountId))) {
+				owned.add(accountId);
+			}
+		}
+
+		LOGGER.info(String.format(
+			"shard member %s owns %d of %d accounts",
+			this.memberId,
+			owned.size(),
+			accountIds.length
+		));
+
+		return owned.toArray(new String[0]);
+	}
+}
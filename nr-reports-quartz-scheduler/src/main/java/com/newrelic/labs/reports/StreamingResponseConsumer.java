@@ -0,0 +1,149 @@
+package com.newrelic.labs.reports;
+
+import org.apache.hc.client5.http.async.methods.AbstractBinResponseConsumer;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Hands the response body to the calling thread chunk by chunk as it is
+// received by the I/O reactor, so that the body can be decoded while it is
+// still being downloaded and is never buffered as a whole.
+public class StreamingResponseConsumer
+	extends AbstractBinResponseConsumer<HttpResponse> {
+	private static final int CAPACITY_INCREMENT = 64 * 1024;
+	private static final byte[] END_OF_STREAM = new byte[0];
+
+	private final CompletableFuture<HttpResponse> head =
+		new CompletableFuture<>();
+	private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+	private volatile Exception failure = null;
+	private HttpResponse response;
+
+	private class BodyInputStream extends InputStream {
+		private byte[] chunk = null;
+		private int offset = 0;
+		private boolean done = false;
+
+		private boolean nextChunk() throws IOException {
+			while (this.chunk == null || this.offset >= this.chunk.length) {
+				if (this.done) {
+					return false;
+				}
+
+				byte[] next;
+
+				try {
+					next = StreamingResponseConsumer.this.chunks.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(
+						"interrupted reading response body"
+					);
+				}
+
+				if (next == END_OF_STREAM) {
+					Exception failure = StreamingResponseConsumer.this.failure;
+
+					if (failure != null) {
+						throw new IOException(
+							"failed reading response body",
+							failure
+						);
+					}
+
+					this.done = true;
+					return false;
+				}
+
+				this.chunk = next;
+				this.offset = 0;
+			}
+
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!nextChunk()) {
+				return -1;
+			}
+
+			return this.chunk[this.offset++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			if (!nextChunk()) {
+				return -1;
+			}
+
+			int n = Math.min(len, this.chunk.length - this.offset);
+
+			System.arraycopy(this.chunk, this.offset, b, off, n);
+			this.offset += n;
+
+			return n;
+		}
+	}
+
+	public CompletableFuture<HttpResponse> getHead() {
+		return this.head;
+	}
+
+	public InputStream getBody() {
+		return new BodyInputStream();
+	}
+
+	@Override
+	protected void start(HttpResponse response, ContentType contentType) {
+		this.response = response;
+		this.head.complete(response);
+	}
+
+	@Override
+	protected int capacityIncrement() {
+		return CAPACITY_INCREMENT;
+	}
+
+	@Override
+	protected void data(ByteBuffer src, boolean endOfStream) {
+		if (src.hasRemaining()) {
+			byte[] chunk = new byte[src.remaining()];
+
+			src.get(chunk);
+			this.chunks.add(chunk);
+		}
+	}
+
+	// Called once the exchange completes, including for responses without a
+	// body, so the reader never waits for data that will not come.
+	@Override
+	protected HttpResponse buildResult() {
+		this.chunks.add(END_OF_STREAM);
+		return this.response;
+	}
+
+	@Override
+	public void failed(Exception cause) {
+		this.failure = cause;
+		this.head.completeExceptionally(cause);
+		this.chunks.add(END_OF_STREAM);
+		super.failed(cause);
+	}
+
+	@Override
+	public void releaseResources() {
+		// nothing to release, undelivered chunks are garbage collected
+	}
+}
@@ -1,74 +1,701 @@
 package com.newrelic.labs.reports;
 
+import com.newrelic.labs.reports.model.Manifest;
 import com.newrelic.labs.reports.model.Metadata;
+import com.newrelic.labs.reports.model.PublishConfigItem;
+import org.apache.hc.core5.util.Timeout;
+import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.quartz.PersistJobDataAfterExecution;
+import org.quartz.SchedulerContext;
+import org.quartz.SchedulerException;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+// With a clustered job store, DisallowConcurrentExecution applies across all
+// scheduler instances, so only one instance syncs at a time and it is the only
+// one changing schedules. The sync state is then kept in the job data of the
+// sync job so that whichever instance runs the next sync starts from it.
+@DisallowConcurrentExecution
+@PersistJobDataAfterExecution
 public class SyncJob implements Job {
 	private static final Logger LOGGER =
 		Logger.getLogger(SyncJob.class.getName());
+	private static final int DEFAULT_ACCOUNT_TIMEOUT_SECONDS = 120;
+	private static final long POLL_INTERVAL_MILLIS = 250;
+	private static final long WRITE_LINGER_MILLIS = 1000;
+	private static final String SYNC_STATE_KEY = "syncState";
+
+	public enum Outcome {
+		UNCHANGED,
+		SUCCEEDED,
+		FAILED,
+		TIMED_OUT
+	}
+
+	// The manifest of an account is applied on the sync executor, which may
+	// block on the job store. The metadata write is then buffered and sent
+	// with the writes of other accounts, without holding a sync executor
+	// thread and without counting towards the timeout of the account.
+	//
+	// A cancelled sync is not interrupted, because an interrupt could abort a
+	// manifest file write or a job store call midway and leave the schedules
+	// half applied. The sync instead stops at the next step that checks
+	// whether it was cancelled.
+	private static class AccountSync {
+		private final String accountId;
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+		private volatile long startTime;
+		private volatile CompletableFuture<Void> write = null;
+		private volatile boolean cancelled = false;
+		private Future<?> work;
+
+		AccountSync(String accountId) {
+			this.accountId = accountId;
+		}
+
+		void checkCancelled() {
+			if (this.cancelled) {
+				throw new CancellationException(
+					"sync cancelled for account ID " + this.accountId
+				);
+			}
+		}
+
+		void cancel() {
+			CompletableFuture<Void> write = this.write;
+
+			this.cancelled = true;
+			this.work.cancel(false);
+
+			if (write != null) {
+				write.cancel(false);
+			}
+
+			this.result.cancel(false);
+		}
+	}
 
 	private final Util util = Util.getInstance();
 
-	private void pollAccount(
-		NerdgraphClient client,
-		String accountId
-	) throws SyncException {
-		Metadata metadata = this.util.loadMetadata(client, accountId);
+	private boolean isModified(
+		String accountId,
+		Metadata metadata,
+		AccountState state
+	) {
 		long lastModifiedDate = metadata.getLastModifiedDate();
-		long lastPolledDate = metadata.getLastPolledDate();
 
 		if (LOGGER.isLoggable(Level.FINEST)) {
 			LOGGER.finest(String.format(
-				"lastModified: %s; lastPolled: %s",
+				"account: %s; lastModified: %s; last seen lastModified: %s",
+				accountId,
 				this.util.toIsoString(lastModifiedDate),
-				this.util.toIsoString(lastPolledDate)
+				state == null ?
+					"never" :
+					this.util.toIsoString(state.getLastModifiedDate())
+			));
+		}
+
+		// The lastModifiedDate is only compared against the value seen when
+		// the account was last synced and never against the local clock, so
+		// clock skew between the builder and the scheduler does not matter.
+		if (state != null && lastModifiedDate == state.getLastModifiedDate()) {
+			LOGGER.info(String.format(
+				"Metadata unchanged since last sync for account ID %s, skipping.",
+				accountId
 			));
+			return false;
 		}
 
-		if (lastModifiedDate < lastPolledDate) {
-			LOGGER.info(
-				"Last modified is less than last polled, exiting."
+		return true;
+	}
+
+	// The scheduler tracks changes with its own sync state, so the last
+	// polled date stored in NerdStorage is only informational. It no longer
+	// records every poll but acknowledges the last modification the scheduler
+	// applied. It is therefore only written when it is older than the last
+	// modified date. Writes that would only move it forward, for example on
+	// the first sync after a restart, are skipped, and so are writes when it
+	// equals the last modified date. A write that is still buffered when the
+	// account is synced again is simply made again.
+	static boolean isMetadataWriteNeeded(Metadata metadata) {
+		return metadata.getLastPolledDate() < metadata.getLastModifiedDate();
+	}
+
+	private String[] getDueAccountIds(
+		PollPolicy pollPolicy,
+		SyncState syncState,
+		String[] accountIds,
+		long now
+	) {
+		List<String> due = new ArrayList<>(accountIds.length);
+
+		for (String accountId : accountIds) {
+			if (pollPolicy.isDue(syncState.get(accountId), now)) {
+				due.add(accountId);
+			}
+		}
+
+		LOGGER.info(String.format(
+			"polling %d of %d accounts",
+			due.size(),
+			accountIds.length
+		));
+
+		return due.toArray(new String[0]);
+	}
+
+	private void pollAccount(
+		SyncState syncState,
+		ManifestCache manifestCache,
+		AccountSync task,
+		Metadata metadata,
+		Manifest manifest
+	) throws SyncException {
+		String accountId = task.accountId;
+		AccountSyncEvent event = new AccountSyncEvent();
+
+		event.begin();
+
+		AccountState state = syncState.get(accountId);
+		long now = System.currentTimeMillis();
+		PublishConfigItem[] publishConfigItems =
+			this.util.getPublishConfigurationItems(
+				accountId,
+				manifest.getReports()
 			);
-			return;
+		Map<String, String> digests =
+			this.util.getPublishConfigurationDigests(publishConfigItems);
+		String manifestDigest = this.util.getManifestDigest(digests);
+
+		boolean manifestChanged = state == null ||
+			!manifestDigest.equals(state.getManifestDigest());
+
+		if (!manifestChanged) {
+			LOGGER.finest(
+				"manifest unchanged for account ID " + accountId
+			);
+
+			syncState.put(
+				accountId,
+				state.withLastModifiedDate(metadata.getLastModifiedDate(), now)
+			);
+		} else {
+			// Once the schedules are changed, the sync state must record
+			// them, so this is the last point at which the sync stops.
+			task.checkCancelled();
+
+			manifestCache.put(accountId, manifest);
+
+			LOGGER.finest("signalling HUP for account ID " + accountId);
+
+			this.util.hup(
+				accountId,
+				publishConfigItems,
+				state == null ? Map.of() : state.getScheduleDigests(),
+				this.util.getScheduleGroupName()
+			);
+
+			syncState.put(accountId, new AccountState(
+				metadata.getLastModifiedDate(),
+				manifestDigest,
+				digests,
+				now
+			));
 		}
 
-		this.util.downloadManifest(client, accountId);
+		metadata.setLastPolledDate(now);
+
+		event.end();
+
+		if (event.shouldCommit()) {
+			event.accountId = accountId;
+			event.publishConfigCount = publishConfigItems.length;
+			event.manifestChanged = manifestChanged;
+			event.commit();
+		}
+	}
+
+	private void syncAccount(
+		SyncState syncState,
+		ManifestCache manifestCache,
+		AccountSync task,
+		Metadata metadata,
+		ReadDocumentsResult manifest,
+		MetadataWriteBuffer writeBuffer,
+		AtomicInteger unfinished
+	) {
+		String accountId = task.accountId;
+
+		task.startTime = System.currentTimeMillis();
 
 		try {
-			String scheduleGroupName = this.util.getScheduleGroupName();
+			long startTime = System.nanoTime();
+			boolean writeNeeded = isMetadataWriteNeeded(metadata);
 
-			LOGGER.finest("signalling HUP for account ID " + accountId);
+			task.checkCancelled();
+			pollAccount(
+				syncState,
+				manifestCache,
+				task,
+				metadata,
+				this.util.requireManifest(manifest)
+			);
+
+			Metrics.getInstance().observe(
+				"nr_reports_sync_account_duration_seconds",
+				"Duration of applying the manifest of a modified account",
+				Metrics.LATENCY_BUCKETS,
+				(System.nanoTime() - startTime) / 1e9,
+				"account_id", accountId
+			);
 
-			this.util.hup(accountId, lastPolledDate, scheduleGroupName);
+			if (!writeNeeded) {
+				MetadataWriteBuffer.recordWrite(Metrics.getInstance(), "skipped");
+				task.result.complete(null);
+				return;
+			}
 
-			metadata.setLastPolledDate(System.currentTimeMillis());
+			task.checkCancelled();
 
-			this.util.storeMetadata(client, accountId, metadata);
-		} catch (IOException e) {
-			throw new SyncException(
-				"hup failed for account ID " + accountId,
-				e
+			CompletableFuture<Void> write = writeBuffer.write(
+				accountId,
+				metadata
+			);
+
+			task.write = write;
+			write.whenComplete((v, t) -> {
+				if (t != null) {
+					task.result.completeExceptionally(this.util.unwrap(t));
+				} else {
+					task.result.complete(null);
+				}
+			});
+		} catch (Throwable t) {
+			task.result.completeExceptionally(t);
+		} finally {
+			// The last account to finish sends the remaining writes
+			if (unfinished.decrementAndGet() == 0) {
+				writeBuffer.flush();
+			}
+		}
+	}
+
+	private void syncAccounts(
+		ExecutorService executor,
+		NerdgraphClient client,
+		SyncState syncState,
+		ManifestCache manifestCache,
+		Map<String, Metadata> modified,
+		Map<String, ReadDocumentsResult> manifests,
+		Map<String, Outcome> outcomes
+	) throws InterruptedException {
+		long timeoutMillis = TimeUnit.SECONDS.toMillis(this.util.getenvInt(
+			"SYNC_ACCOUNT_TIMEOUT",
+			DEFAULT_ACCOUNT_TIMEOUT_SECONDS
+		));
+
+		syncAccounts(
+			executor,
+			new MetadataWriteBuffer(
+				client,
+				client.getConfig().getWriteBatchSize(),
+				Timeout.ofMilliseconds(timeoutMillis),
+				WRITE_LINGER_MILLIS
+			),
+			timeoutMillis,
+			syncState,
+			manifestCache,
+			modified,
+			manifests,
+			outcomes
+		);
+	}
+
+	void syncAccounts(
+		ExecutorService executor,
+		MetadataWriteBuffer writeBuffer,
+		long timeoutMillis,
+		SyncState syncState,
+		ManifestCache manifestCache,
+		Map<String, Metadata> modified,
+		Map<String, ReadDocumentsResult> manifests,
+		Map<String, Outcome> outcomes
+	) throws InterruptedException {
+		List<AccountSync> tasks = new ArrayList<>(modified.size());
+		AtomicInteger unfinished = new AtomicInteger(modified.size());
+
+		for (Map.Entry<String, Metadata> entry : modified.entrySet()) {
+			String accountId = entry.getKey();
+			AccountSync task = new AccountSync(accountId);
+
+			task.work = executor.submit(() -> syncAccount(
+				syncState,
+				manifestCache,
+				task,
+				entry.getValue(),
+				manifests.get(accountId),
+				writeBuffer,
+				unfinished
+			));
+			tasks.add(task);
+		}
+
+		CompletableFuture<Void> all = CompletableFuture.allOf(
+			tasks.stream()
+				.map(task -> task.result)
+				.toArray(CompletableFuture[]::new)
+		);
+
+		try {
+			while (!all.isDone()) {
+				try {
+					all.get(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException | ExecutionException e) {
+					// outcomes are collected below
+				}
+
+				long now = System.currentTimeMillis();
+
+				// The deadline of an account stops once its metadata write is
+				// handed to the write buffer. The write is bounded by its own
+				// NerdGraph deadline, and waiting for the batch it is part of
+				// must not time out an account that has finished syncing.
+				for (AccountSync task : tasks) {
+					long startTime = task.startTime;
+
+					if (
+						startTime > 0 &&
+						task.write == null &&
+						!task.result.isDone() &&
+						now - startTime > timeoutMillis
+					) {
+						task.cancel();
+						outcomes.put(task.accountId, Outcome.TIMED_OUT);
+						LOGGER.severe(String.format(
+							"sync timed out for account ID %s after %d ms",
+							task.accountId,
+							now - startTime
+						));
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			for (AccountSync task : tasks) {
+				task.cancel();
+			}
+
+			throw e;
+		}
+
+		for (AccountSync task : tasks) {
+			if (task.result.isCancelled()) {
+				// already recorded as timed out
+				continue;
+			}
+
+			try {
+				task.result.join();
+				outcomes.put(task.accountId, Outcome.SUCCEEDED);
+				LOGGER.finest(
+					"sync succeeded for account ID " + task.accountId
+				);
+			} catch (CompletionException e) {
+				outcomes.put(task.accountId, Outcome.FAILED);
+				LOGGER.log(
+					Level.SEVERE,
+					"sync failed for account ID " + task.accountId,
+					this.util.unwrap(e)
+				);
+			}
+		}
+	}
+
+	// Drops the schedules and state of the accounts this instance owned so far
+	// but that moved to another member after a membership change. The new
+	// owner creates their schedules on its next sync.
+	private void releaseAccounts(
+		ShardMembership shardMembership,
+		SyncState syncState,
+		String[] ownedAccountIds
+	) throws SyncException {
+		Set<String> owned = Set.of(ownedAccountIds);
+		String scheduleGroupName = this.util.getScheduleGroupName();
+
+		for (String accountId : List.copyOf(syncState.getAccounts().keySet())) {
+			if (owned.contains(accountId)) {
+				continue;
+			}
+
+			LOGGER.info(String.format(
+				"releasing account ID %s to shard member %s",
+				accountId,
+				shardMembership.getOwner(accountId)
+			));
+
+			this.util.deleteAccountSchedules(accountId, scheduleGroupName);
+			syncState.remove(accountId);
+		}
+	}
+
+	private void recordSync(Map<String, Outcome> outcomes, long durationNanos) {
+		Metrics metrics = Metrics.getInstance();
+
+		metrics.observe(
+			"nr_reports_sync_duration_seconds",
+			"Duration of sync cycles across all accounts",
+			Metrics.LATENCY_BUCKETS,
+			durationNanos / 1e9
+		);
+
+		for (Map.Entry<String, Outcome> entry : outcomes.entrySet()) {
+			metrics.increment(
+				"nr_reports_sync_accounts_total",
+				"Accounts processed by sync cycles, by outcome",
+				"account_id", entry.getKey(),
+				"outcome", entry.getValue().name().toLowerCase()
+			);
+		}
+	}
+
+	private void loadSharedState(
+		JobExecutionContext context,
+		SyncState syncState
+	) {
+		String json = context.getJobDetail().getJobDataMap().getString(
+			SYNC_STATE_KEY
+		);
+
+		if (json == null) {
+			LOGGER.finest("no shared sync state found");
+			return;
+		}
+
+		try {
+			Checkpoint checkpoint = NerdgraphCodec.getGson().fromJson(
+				json,
+				Checkpoint.class
 			);
+
+			syncState.replace(checkpoint.getAccounts());
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "ignoring invalid shared sync state", e);
+		}
+	}
+
+	private void storeSharedState(
+		JobExecutionContext context,
+		SyncState syncState
+	) {
+		context.getJobDetail().getJobDataMap().put(
+			SYNC_STATE_KEY,
+			NerdgraphCodec.getGson().toJson(new Checkpoint(
+				System.currentTimeMillis(),
+				syncState.getAccounts()
+			))
+		);
+	}
+
+	private void checkpoint(JobExecutionContext context) {
+		try {
+			SchedulerContext schedulerContext =
+				context.getScheduler().getContext();
+
+			((ManifestCache) schedulerContext.get(
+				ReportScheduler.MANIFEST_CACHE_KEY
+			)).checkpoint((SyncState) schedulerContext.get(
+				ReportScheduler.SYNC_STATE_KEY
+			));
+		} catch (SchedulerException e) {
+			LOGGER.log(Level.WARNING, "failed to write checkpoint", e);
 		}
 	}
 
 	public void execute(
 		JobExecutionContext context
 	) throws JobExecutionException {
+		Map<String, Outcome> outcomes = new LinkedHashMap<>();
+		long startTime = System.nanoTime();
+		SyncState syncState = null;
+		boolean clustered = false;
+
 		try {
 			LOGGER.info("executing sync job");
 
 			String[] accountIds = this.util.requireAccountIds();
-			NerdgraphClient client = this.util.createNerdgraphClient(this.util);
+			SchedulerContext schedulerContext =
+				context.getScheduler().getContext();
+			NerdgraphClient client = (NerdgraphClient) schedulerContext.get(
+				ReportScheduler.NERDGRAPH_CLIENT_KEY
+			);
+			ExecutorService executor = (ExecutorService) schedulerContext.get(
+				ReportScheduler.SYNC_EXECUTOR_KEY
+			);
+			syncState = (SyncState) schedulerContext.get(
+				ReportScheduler.SYNC_STATE_KEY
+			);
+			ManifestCache manifestCache = (ManifestCache) schedulerContext.get(
+				ReportScheduler.MANIFEST_CACHE_KEY
+			);
+
+			if (client == null) {
+				throw new SyncException("missing nerdgraph client");
+			}
+
+			if (executor == null) {
+				throw new SyncException("missing sync executor");
+			}
+
+			if (syncState == null) {
+				throw new SyncException("missing sync state");
+			}
+
+			if (manifestCache == null) {
+				throw new SyncException("missing manifest cache");
+			}
+
+			clustered = this.util.isClustered(context.getScheduler());
+
+			if (clustered) {
+				loadSharedState(context, syncState);
+			}
+
+			ShardMembership shardMembership =
+				(ShardMembership) schedulerContext.get(
+					ReportScheduler.SHARD_MEMBERSHIP_KEY
+				);
+
+			if (shardMembership != null) {
+				shardMembership.refresh();
+				accountIds = shardMembership.getOwnedAccountIds(accountIds);
+				releaseAccounts(
+					shardMembership,
+					syncState,
+					accountIds
+				);
+			}
+
+			PollPolicy pollPolicy = this.util.createPollPolicy();
+			long now = System.currentTimeMillis();
+
+			if (pollPolicy.isEnabled()) {
+				accountIds = getDueAccountIds(
+					pollPolicy,
+					syncState,
+					accountIds,
+					now
+				);
+
+				if (accountIds.length == 0) {
+					LOGGER.finest("no accounts due for polling");
+					return;
+				}
+			}
+
+			// Metadata for all due accounts is read in as few batched queries as
+			// possible. Manifests are then read in a second batched pass for
+			// only the accounts that were modified, unless they are prefetched
+			// with the metadata.
+			boolean prefetchManifests = Boolean.parseBoolean(
+				this.util.getenv("SYNC_PREFETCH_MANIFESTS", "false")
+			);
+			Map<String, ReadDocumentsResult> results =
+				this.util.readAccountDocuments(
+					client,
+					accountIds,
+					true,
+					prefetchManifests
+				);
+			Map<String, Metadata> modified = new LinkedHashMap<>();
 
 			for (String accountId : accountIds) {
-				pollAccount(client, accountId);
+				try {
+					Metadata metadata = this.util.requireMetadata(
+						results.get(accountId)
+					);
+
+					AccountState state = syncState.get(accountId);
+
+					if (!isModified(accountId, metadata, state)) {
+						outcomes.put(accountId, Outcome.UNCHANGED);
+
+						if (pollPolicy.isEnabled()) {
+							syncState.put(
+								accountId,
+								pollPolicy.scheduleNextPoll(state, false, now)
+							);
+						}
+
+						continue;
+					}
+
+					modified.put(accountId, metadata);
+				} catch (SyncException e) {
+					outcomes.put(accountId, Outcome.FAILED);
+					LOGGER.log(
+						Level.SEVERE,
+						"sync failed for account ID " + accountId,
+						e
+					);
+				}
+			}
+
+			if (!modified.isEmpty()) {
+				Map<String, ReadDocumentsResult> manifests = prefetchManifests ?
+					results :
+					this.util.readAccountDocuments(
+						client,
+						modified.keySet().toArray(new String[0]),
+						false,
+						true
+					);
+
+				// Each modified account is synced on the shared sync executor
+				// so that a slow or failing account does not delay or block
+				// any other account.
+				syncAccounts(
+					executor,
+					client,
+					syncState,
+					manifestCache,
+					modified,
+					manifests,
+					outcomes
+				);
+
+				// Accounts that failed keep their state and are polled again
+				// on the next sync.
+				if (pollPolicy.isEnabled()) {
+					for (String accountId : modified.keySet()) {
+						if (outcomes.get(accountId) == Outcome.SUCCEEDED) {
+							syncState.put(
+								accountId,
+								pollPolicy.scheduleNextPoll(
+									syncState.get(accountId),
+									true,
+									now
+								)
+							);
+						}
+					}
+				}
 			}
 		} catch (SyncException e) {
 			LOGGER.log(Level.SEVERE, "sync failed", e);
@@ -86,6 +713,41 @@ public class SyncJob implements Job {
 				"sync failed due to unexpected exception",
 				t
 			);
+		} finally {
+			recordSync(outcomes, System.nanoTime() - startTime);
+		}
+
+		context.setResult(outcomes);
+
+		if (clustered) {
+			storeSharedState(context, syncState);
+		} else if (!outcomes.isEmpty()) {
+			checkpoint(context);
+		}
+
+		List<String> failed = new ArrayList<>();
+		int succeeded = 0;
+		int unchanged = 0;
+
+		for (Map.Entry<String, Outcome> entry : outcomes.entrySet()) {
+			switch (entry.getValue()) {
+				case SUCCEEDED -> succeeded += 1;
+				case UNCHANGED -> unchanged += 1;
+				default -> failed.add(entry.getKey());
+			}
+		}
+
+		LOGGER.info(String.format(
+			"sync completed: %d succeeded; %d unchanged; %d failed",
+			succeeded,
+			unchanged,
+			failed.size()
+		));
+
+		if (!failed.isEmpty()) {
+			throw new JobExecutionException(
+				"sync failed for account IDs " + String.join(", ", failed)
+			);
 		}
 	}
 }
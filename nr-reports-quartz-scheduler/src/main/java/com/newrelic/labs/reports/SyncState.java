@@ -0,0 +1,30 @@
+package com.newrelic.labs.reports;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SyncState {
+	private final Map<String, AccountState> accounts =
+		new ConcurrentHashMap<>();
+
+	public AccountState get(String accountId) {
+		return this.accounts.get(accountId);
+	}
+
+	public void put(String accountId, AccountState state) {
+		this.accounts.put(accountId, state);
+	}
+
+	public void remove(String accountId) {
+		this.accounts.remove(accountId);
+	}
+
+	public void replace(Map<String, AccountState> accounts) {
+		this.accounts.keySet().retainAll(accounts.keySet());
+		this.accounts.putAll(accounts);
+	}
+
+	public Map<String, AccountState> getAccounts() {
+		return this.accounts;
+	}
+}
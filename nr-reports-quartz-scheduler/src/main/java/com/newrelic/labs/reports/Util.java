@@ -1,14 +1,19 @@
 package com.newrelic.labs.reports;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.newrelic.labs.reports.model.Manifest;
 import com.newrelic.labs.reports.model.Metadata;
 import com.newrelic.labs.reports.model.PublishConfig;
 import com.newrelic.labs.reports.model.PublishConfigItem;
-import com.newrelic.labs.reports.model.ReadDocumentResponse;
 import com.newrelic.labs.reports.model.Report;
+import com.newrelic.labs.reports.model.Schedule;
+import jdk.jfr.Event;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.quartz.CronTrigger;
+import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.JobKey;
 import org.quartz.Scheduler;
@@ -20,17 +25,35 @@ import org.quartz.impl.matchers.GroupMatcher;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,6 +65,12 @@ public class Util {
 	private static final Logger LOGGER =
 		Logger.getLogger(Util.class.getName());
 	private static final Util INSTANCE = new Util();
+	private static final String METADATA_ALIAS = "metadata";
+	private static final String MANIFEST_ALIAS = "manifest";
+	private static final int DEFAULT_SHARD_VIRTUAL_NODES = 128;
+	private static final int MAX_SHARD_VIRTUAL_NODES = 1024;
+
+	private Scheduler scheduler = null;
 
 	private Util() {}
 
@@ -71,11 +100,42 @@ public class Util {
 		return getenv(envName, null);
 	}
 
-	public String escapeQuotes(String json) {
-		return json.replaceAll(
-			"\"",
-			"\\\\\""
-		);
+	public int getenvInt(String envName, int def) {
+		String str = getenv(envName);
+
+		if (str == null || str.isEmpty()) {
+			return def;
+		}
+
+		try {
+			return Integer.parseInt(str);
+		} catch (NumberFormatException e) {
+			LOGGER.warning(String.format(
+				"ignoring invalid value \"%s\" for %s",
+				str,
+				envName
+			));
+			return def;
+		}
+	}
+
+	public double getenvDouble(String envName, double def) {
+		String str = getenv(envName);
+
+		if (str == null || str.isEmpty()) {
+			return def;
+		}
+
+		try {
+			return Double.parseDouble(str);
+		} catch (NumberFormatException e) {
+			LOGGER.warning(String.format(
+				"ignoring invalid value \"%s\" for %s",
+				str,
+				envName
+			));
+			return def;
+		}
 	}
 
 	public String toIsoString(long millis) {
@@ -87,6 +147,69 @@ public class Util {
 		return DateTimeFormatter.ISO_INSTANT.format(dateTime);
 	}
 
+	public synchronized Scheduler getScheduler() throws SchedulerException {
+		if (this.scheduler == null) {
+			this.scheduler = createScheduler();
+		}
+
+		return this.scheduler;
+	}
+
+	private Scheduler createScheduler() throws SchedulerException {
+		String propertiesFile = getenv("QUARTZ_PROPERTIES");
+
+		if (propertiesFile == null || propertiesFile.isEmpty()) {
+			return StdSchedulerFactory.getDefaultScheduler();
+		}
+
+		LOGGER.info("loading quartz properties from " + propertiesFile);
+
+		Properties props = new Properties();
+
+		try (
+			Reader reader = Files.newBufferedReader(
+				Path.of(propertiesFile),
+				StandardCharsets.UTF_8
+			)
+		) {
+			props.load(reader);
+		} catch (IOException e) {
+			throw new SchedulerException(
+				"failed to read quartz properties " + propertiesFile,
+				e
+			);
+		}
+
+		// As with the default quartz.properties, system properties override
+		// the file so that, for example, database credentials can be passed
+		// with JAVA_OPTS.
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith("org.quartz.")) {
+				props.setProperty(name, System.getProperty(name));
+			}
+		}
+
+		Scheduler scheduler = new StdSchedulerFactory(props).getScheduler();
+		String schema = getenv("QUARTZ_INITIALIZE_SCHEMA");
+
+		if (schema != null && !schema.isEmpty()) {
+			try {
+				new JobStoreSchema(
+					props.getProperty("org.quartz.jobStore.dataSource"),
+					props.getProperty("org.quartz.jobStore.tablePrefix")
+				).initialize(schema);
+			} catch (SyncException e) {
+				throw new SchedulerException(e.getMessage(), e.getCause());
+			}
+		}
+
+		return scheduler;
+	}
+
+	public boolean isClustered(Scheduler scheduler) throws SchedulerException {
+		return scheduler.getMetaData().isJobStoreClustered();
+	}
+
 	public String getScheduleGroupName() throws SyncException {
 		String val = getenv("SCHEDULE_GROUP_NAME", "schedules");
 
@@ -119,6 +242,95 @@ public class Util {
 		throw new SyncException("invalid New Relic region " + region);
 	}
 
+	private HttpVersionPolicy getHttpVersionPolicy(
+		String httpVersion
+	) throws SyncException {
+		if (httpVersion == null || httpVersion.equalsIgnoreCase("NEGOTIATE")) {
+			return HttpVersionPolicy.NEGOTIATE;
+		}
+
+		if (httpVersion.equalsIgnoreCase("HTTP_1")) {
+			return HttpVersionPolicy.FORCE_HTTP_1;
+		}
+
+		if (httpVersion.equalsIgnoreCase("HTTP_2")) {
+			return HttpVersionPolicy.FORCE_HTTP_2;
+		}
+
+		throw new SyncException("invalid NerdGraph HTTP version " + httpVersion);
+	}
+
+	public NerdgraphClientConfig createNerdgraphClientConfig()
+		throws SyncException {
+		NerdgraphClientConfig config = new NerdgraphClientConfig();
+
+		config.setMaxConnections(Math.max(1, getenvInt(
+			"NERDGRAPH_MAX_CONNECTIONS",
+			config.getMaxConnections()
+		)));
+		config.setIoThreadCount(Math.max(1, getenvInt(
+			"NERDGRAPH_IO_THREADS",
+			config.getIoThreadCount()
+		)));
+		config.setConnectTimeout(Timeout.ofSeconds(getenvInt(
+			"NERDGRAPH_CONNECT_TIMEOUT",
+			(int) config.getConnectTimeout().toSeconds()
+		)));
+		config.setSocketTimeout(Timeout.ofSeconds(getenvInt(
+			"NERDGRAPH_SOCKET_TIMEOUT",
+			(int) config.getSocketTimeout().toSeconds()
+		)));
+		config.setResponseTimeout(Timeout.ofSeconds(getenvInt(
+			"NERDGRAPH_RESPONSE_TIMEOUT",
+			(int) config.getResponseTimeout().toSeconds()
+		)));
+		config.setIdleTimeout(TimeValue.ofSeconds(getenvInt(
+			"NERDGRAPH_IDLE_TIMEOUT",
+			(int) config.getIdleTimeout().toSeconds()
+		)));
+		config.setVersionPolicy(
+			getHttpVersionPolicy(getenv("NERDGRAPH_HTTP_VERSION"))
+		);
+		config.setBatchSize(Math.max(1, getenvInt(
+			"NERDGRAPH_BATCH_SIZE",
+			config.getBatchSize()
+		)));
+		config.setWriteBatchSize(Math.max(1, getenvInt(
+			"NERDGRAPH_WRITE_BATCH_SIZE",
+			config.getWriteBatchSize()
+		)));
+		config.setRateLimit(Math.max(0, getenvDouble(
+			"NERDGRAPH_RATE_LIMIT",
+			config.getRateLimit()
+		)));
+		config.setRateLimitBurst(Math.max(1, getenvInt(
+			"NERDGRAPH_RATE_LIMIT_BURST",
+			config.getRateLimitBurst()
+		)));
+		config.setMaxRetries(Math.max(0, getenvInt(
+			"NERDGRAPH_MAX_RETRIES",
+			config.getMaxRetries()
+		)));
+		config.setRetryBaseDelay(TimeValue.ofMilliseconds(Math.max(1, getenvInt(
+			"NERDGRAPH_RETRY_BASE_DELAY",
+			(int) config.getRetryBaseDelay().toMilliseconds()
+		))));
+		config.setRetryMaxDelay(TimeValue.ofSeconds(Math.max(1, getenvInt(
+			"NERDGRAPH_RETRY_MAX_DELAY",
+			(int) config.getRetryMaxDelay().toSeconds()
+		))));
+		config.setBreakerFailureThreshold(Math.max(0, getenvInt(
+			"NERDGRAPH_BREAKER_FAILURES",
+			config.getBreakerFailureThreshold()
+		)));
+		config.setBreakerOpenDuration(TimeValue.ofSeconds(Math.max(1, getenvInt(
+			"NERDGRAPH_BREAKER_OPEN_DURATION",
+			(int) config.getBreakerOpenDuration().toSeconds()
+		))));
+
+		return config;
+	}
+
 	public NerdgraphClient createNerdgraphClient(
 		Util util
 	) throws SyncException {
@@ -134,74 +346,233 @@ public class Util {
 			throw new SyncException("missing source nerdlet ID");
 		}
 
-		String region = getenv("NEW_RELIC_REGION");
+		// An explicit endpoint, such as a proxy or a local NerdGraph stub,
+		// takes precedence over the region.
+		String endpointUrl = getenv("NERDGRAPH_URL");
+
+		if (endpointUrl == null || endpointUrl.isEmpty()) {
+			endpointUrl = getEndpointUrl(getenv("NEW_RELIC_REGION"));
+		}
 
 		return new NerdgraphClient(
 			util,
-			getEndpointUrl(region),
+			endpointUrl,
 			apiKey,
-			nerdletPackageId
+			nerdletPackageId,
+			createNerdgraphClientConfig()
 		);
 	}
 
-	public String getReportName(Report r) {
-		String name = r.getName();
+	public PollPolicy createPollPolicy() {
+		return new PollPolicy(
+			TimeUnit.SECONDS.toMillis(
+				Math.max(0, getenvInt("SYNC_POLL_MIN_INTERVAL", 0))
+			),
+			TimeUnit.SECONDS.toMillis(
+				Math.max(0, getenvInt("SYNC_POLL_MAX_INTERVAL", 1800))
+			),
+			Math.max(1, getenvDouble("SYNC_POLL_BACKOFF", 2)),
+			Math.min(1, Math.max(0, getenvDouble("SYNC_POLL_JITTER", 0.2)))
+		);
+	}
 
-		if (name != null) {
-			return name;
+	public ShardMembership createShardMembership() throws SyncException {
+		String memberId = getenv("SHARD_MEMBER_ID");
+
+		if (memberId == null || memberId.isEmpty()) {
+			return null;
 		}
 
-		return r.getId();
+		String membersFile = getenv("SHARD_MEMBERS_FILE");
+		int virtualNodes = getenvInt(
+			"SHARD_VIRTUAL_NODES",
+			DEFAULT_SHARD_VIRTUAL_NODES
+		);
+
+		// Every member gets this many points on the ring, so a huge value
+		// makes each ring rebuild slow and a value below one leaves the ring
+		// empty.
+		if (
+			virtualNodes < 1 ||
+			virtualNodes > MAX_SHARD_VIRTUAL_NODES
+		) {
+			int clamped = Math.min(
+				MAX_SHARD_VIRTUAL_NODES,
+				Math.max(1, virtualNodes)
+			);
+
+			LOGGER.warning(String.format(
+				"SHARD_VIRTUAL_NODES %d out of range 1-%d, using %d",
+				virtualNodes,
+				MAX_SHARD_VIRTUAL_NODES,
+				clamped
+			));
+			virtualNodes = clamped;
+		}
+
+		return new ShardMembership(
+			memberId,
+			getenv("SHARD_MEMBERS"),
+			membersFile == null || membersFile.isEmpty() ?
+				null :
+				Path.of(membersFile),
+			virtualNodes
+		);
 	}
 
-	public Metadata loadMetadata(
-		NerdgraphClient client,
-		String accountId
-	) throws SyncException {
+	public ExecutorService createSyncExecutor() {
+		int parallelism = Math.max(1, getenvInt("SYNC_PARALLELISM", 4));
+		AtomicInteger threadNumber = new AtomicInteger();
+
+		LOGGER.finest("creating sync executor with parallelism " + parallelism);
+
+		return Executors.newFixedThreadPool(parallelism, r -> {
+			Thread t = new Thread(
+				r,
+				"sync-worker-" + threadNumber.incrementAndGet()
+			);
+
+			t.setDaemon(true);
+
+			return t;
+		});
+	}
+
+	private ReportExecutorConfig.RejectionPolicy getRejectionPolicy(
+		String policy,
+		ReportExecutorConfig.RejectionPolicy def
+	) {
+		if (policy == null || policy.isEmpty()) {
+			return def;
+		}
+
 		try {
-			ReadDocumentResponse<Metadata> response = client.readDocument(
-				"metadata",
-				"metadata.json",
-				accountId,
-				// @see https://github.com/google/gson/blob/main/UserGuide.md#serializing-and-deserializing-generic-types
-				new TypeToken<ReadDocumentResponse<Metadata>>() {}.getType()
+			return ReportExecutorConfig.RejectionPolicy.valueOf(
+				policy.toUpperCase()
 			);
-			Metadata m = response.getDocument();
+		} catch (IllegalArgumentException e) {
+			LOGGER.warning(String.format(
+				"invalid report rejection policy %s, using %s",
+				policy,
+				def
+			));
+			return def;
+		}
+	}
+
+	private Map<String, Integer> getReportRunTimeouts(String timeouts) {
+		Map<String, Integer> reportRunTimeouts = new HashMap<>();
+
+		if (timeouts == null || timeouts.isEmpty()) {
+			return reportRunTimeouts;
+		}
+
+		// Format is reportId=seconds[,reportId=seconds...]
+		for (String entry : timeouts.split(",")) {
+			String[] parts = entry.split("=", 2);
+
+			try {
+				if (parts.length != 2 || parts[0].isBlank()) {
+					throw new NumberFormatException(entry);
+				}
 
-			if (m == null) {
-				throw new SyncException(
-					"missing metadata/metadata.json in nerdstorage for account ID "
-						+ accountId
+				reportRunTimeouts.put(
+					parts[0].trim(),
+					Math.max(0, Integer.parseInt(parts[1].trim()))
 				);
+			} catch (NumberFormatException e) {
+				LOGGER.warning(String.format(
+					"ignoring invalid report run timeout %s",
+					entry
+				));
 			}
+		}
 
-			return m;
-		} catch (NerdgraphQueryException e) {
-			throw new SyncException(
-				"failed to read metadata for account ID " + accountId,
-				e
-			);
+		return reportRunTimeouts;
+	}
+
+	public ReportExecutorConfig createReportExecutorConfig() {
+		ReportExecutorConfig config = new ReportExecutorConfig();
+
+		config.setWorkers(Math.max(0, getenvInt(
+			"REPORT_WORKERS",
+			config.getWorkers()
+		)));
+		config.setWorkerMaxRuns(Math.max(1, getenvInt(
+			"REPORT_WORKER_MAX_RUNS",
+			config.getWorkerMaxRuns()
+		)));
+		config.setWorkerStartTimeoutMillis(getenvInt(
+			"REPORT_WORKER_START_TIMEOUT",
+			(int) (config.getWorkerStartTimeoutMillis() / 1000)
+		) * 1000L);
+		config.setWorkerHealthCheckIntervalMillis(getenvInt(
+			"REPORT_WORKER_HEALTH_CHECK_INTERVAL",
+			(int) (config.getWorkerHealthCheckIntervalMillis() / 1000)
+		) * 1000L);
+		config.setCoalesceWindowMillis(Math.max(0, getenvInt(
+			"REPORT_COALESCE_WINDOW",
+			(int) config.getCoalesceWindowMillis()
+		)));
+		config.setCoalesceMaxBatchSize(Math.max(1, getenvInt(
+			"REPORT_COALESCE_MAX_BATCH",
+			config.getCoalesceMaxBatchSize()
+		)));
+		config.setMaxConcurrent(Math.max(1, getenvInt(
+			"REPORT_MAX_CONCURRENT",
+			config.getMaxConcurrent()
+		)));
+		config.setMaxConcurrentPerAccount(Math.max(0, getenvInt(
+			"REPORT_MAX_CONCURRENT_PER_ACCOUNT",
+			config.getMaxConcurrentPerAccount()
+		)));
+		config.setMaxQueued(Math.max(0, getenvInt(
+			"REPORT_QUEUE_SIZE",
+			config.getMaxQueued()
+		)));
+		config.setRejectionPolicy(getRejectionPolicy(
+			getenv("REPORT_REJECTION_POLICY"),
+			config.getRejectionPolicy()
+		));
+		config.setDeferDelaySeconds(Math.max(1, getenvInt(
+			"REPORT_DEFER_DELAY",
+			config.getDeferDelaySeconds()
+		)));
+		config.setRunTimeoutSeconds(Math.max(0, getenvInt(
+			"REPORT_RUN_TIMEOUT",
+			config.getRunTimeoutSeconds()
+		)));
+		config.setReportRunTimeouts(
+			getReportRunTimeouts(getenv("REPORT_RUN_TIMEOUTS"))
+		);
+
+		return config;
+	}
+
+	public ReportExecutor createReportExecutor() {
+		return new ReportExecutor(this, createReportExecutorConfig());
+	}
+
+	public String getReportName(Report r) {
+		String name = r.getName();
+
+		if (name != null) {
+			return name;
 		}
+
+		return r.getId();
 	}
 
-	public void storeMetadata(
-		NerdgraphClient client,
-		String accountId,
-		Metadata metadata
-	) throws SyncException {
-		try {
-			client.writeDocument(
-				"metadata",
-				"metadata.json",
-				accountId,
-				metadata
-			);
-		} catch (NerdgraphQueryException e) {
-			throw new SyncException(
-				"failed to write metadata for account ID " + accountId,
-				e
-			);
+	// Returns the cause of a failure passed along a chain of stages
+	public Throwable unwrap(Throwable t) {
+		if (
+			(t instanceof CompletionException || t instanceof ExecutionException)
+			&& t.getCause() != null
+		) {
+			return t.getCause();
 		}
+
+		return t;
 	}
 
 	public Manifest readManifest(
@@ -230,15 +601,40 @@ public class Util {
 			return new Manifest();
 		}
 
-		String data = Files.readString(
-			manifestFile.toPath(),
-			StandardCharsets.UTF_8
-		);
-
 		LOGGER.finest("found manifest for account ID " + accountId);
-		LOGGER.finest(data);
 
-		return new Gson().fromJson(data, Manifest.class);
+		ManifestParseEvent event = new ManifestParseEvent();
+
+		event.begin();
+
+		try (
+			JsonReader reader = new JsonReader(Files.newBufferedReader(
+				manifestFile.toPath(),
+				StandardCharsets.UTF_8
+			))
+		) {
+			Manifest manifest = NerdgraphCodec.<Manifest>getAdapter(
+				Manifest.class
+			).read(reader);
+
+			if (manifest == null) {
+				manifest = new Manifest();
+			}
+
+			event.end();
+
+			if (event.shouldCommit()) {
+				event.accountId = accountId;
+				event.source = "file";
+				event.reportCount = manifest.getReports() == null ?
+					0 :
+					manifest.getReports().length;
+				event.bytes = manifestFile.length();
+				event.commit();
+			}
+
+			return manifest;
+		}
 	}
 
 	public void writeManifest(
@@ -258,55 +654,247 @@ public class Util {
 
 		LOGGER.finest("storing manifest for account ID " + accountId);
 
-		String json = new Gson().toJson(manifest);
-
-		LOGGER.finest(json);
+		writeJsonFile(
+			manifestDir.toPath().resolve("manifest_" + accountId + ".json"),
+			Manifest.class,
+			manifest
+		);
+	}
 
-		File manifestFile = new File(
-			manifestDir,
-			"manifest_" + accountId + ".json"
+	private <T> void writeJsonFile(
+		Path file,
+		Type type,
+		T value
+	) throws IOException {
+		// The value is written to a temporary file that then replaces the
+		// target file so that a crash never leaves a partially written file.
+		Path tempFile = Files.createTempFile(
+			file.toAbsolutePath().getParent(),
+			file.getFileName().toString(),
+			".tmp"
 		);
 
-		Files.writeString(
-			manifestFile.toPath(),
-			json,
-			StandardCharsets.UTF_8
+		try {
+			try (
+				JsonWriter writer = new JsonWriter(Files.newBufferedWriter(
+					tempFile,
+					StandardCharsets.UTF_8
+				))
+			) {
+				// Match the output of Gson.toJson, which omits null fields
+				writer.setSerializeNulls(false);
+				NerdgraphCodec.<T>getAdapter(type).write(writer, value);
+			}
+
+			try {
+				Files.move(
+					tempFile,
+					file,
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING
+				);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(
+					tempFile,
+					file,
+					StandardCopyOption.REPLACE_EXISTING
+				);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	public boolean isCheckpointEnabled() {
+		return Boolean.parseBoolean(getenv("CHECKPOINT_ENABLED", "true"));
+	}
+
+	public Path getCheckpointFile() {
+		String checkpointFile = getenv("CHECKPOINT_FILE");
+
+		if (checkpointFile != null && !checkpointFile.isEmpty()) {
+			return Path.of(checkpointFile);
+		}
+
+		String memberId = getenv("SHARD_MEMBER_ID");
+
+		// Sharded instances may share a MANIFEST_DIR, e.g. when they run on
+		// the same machine, so each one keeps its own checkpoint.
+		return Path.of(
+			getenv("MANIFEST_DIR", "conf"),
+			memberId == null || memberId.isEmpty() ?
+				"checkpoint.json" :
+				"checkpoint_" +
+					memberId.replaceAll("[^A-Za-z0-9._-]", "_") +
+					".json"
 		);
 	}
 
-	public void downloadManifest(
+	public Checkpoint readCheckpoint() {
+		Path checkpointFile = getCheckpointFile();
+
+		if (!Files.exists(checkpointFile)) {
+			LOGGER.info("no checkpoint found at " + checkpointFile);
+			return null;
+		}
+
+		try (
+			JsonReader reader = new JsonReader(Files.newBufferedReader(
+				checkpointFile,
+				StandardCharsets.UTF_8
+			))
+		) {
+			Checkpoint checkpoint = NerdgraphCodec.<Checkpoint>getAdapter(
+				Checkpoint.class
+			).read(reader);
+
+			if (
+				checkpoint == null ||
+				checkpoint.getVersion() != Checkpoint.VERSION ||
+				checkpoint.getAccounts() == null
+			) {
+				LOGGER.warning(
+					"ignoring unsupported checkpoint " + checkpointFile
+				);
+				return null;
+			}
+
+			return checkpoint;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.log(
+				Level.WARNING,
+				"ignoring unreadable checkpoint " + checkpointFile,
+				e
+			);
+			return null;
+		}
+	}
+
+	public void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+		Path checkpointFile = getCheckpointFile();
+
+		LOGGER.finest("storing checkpoint to " + checkpointFile);
+
+		writeJsonFile(checkpointFile, Checkpoint.class, checkpoint);
+	}
+
+	public Map<String, ReadDocumentsResult> readAccountDocuments(
 		NerdgraphClient client,
-		String accountId
-	) throws SyncException {
-		try {
-			ReadDocumentResponse<Manifest> response = client.readDocument(
+		String[] accountIds,
+		boolean includeMetadata,
+		boolean includeManifest
+	) {
+		List<DocumentRef> documents = new ArrayList<>();
+
+		if (includeMetadata) {
+			documents.add(new DocumentRef(
+				METADATA_ALIAS,
+				"metadata",
+				"metadata.json",
+				Metadata.class
+			));
+		}
+
+		if (includeManifest) {
+			documents.add(new DocumentRef(
+				MANIFEST_ALIAS,
 				"manifests",
 				"manifest.json",
-				accountId,
-				// @see https://github.com/google/gson/blob/main/UserGuide.md#serializing-and-deserializing-generic-types
-				new TypeToken<ReadDocumentResponse<Manifest>>() {}.getType()
-			);
-			Manifest manifest = response.getDocument();
+				Manifest.class
+			));
+		}
 
-			if (manifest == null) {
-				throw new SyncException(
-					"missing manifests/manifest.json in nerdstorage for account ID "
-						+ accountId
-				);
+		// The metadata read starts every sync. Reads of only the manifests
+		// download the manifests of modified accounts or of all accounts on
+		// startup.
+		Event event = includeMetadata ?
+			new MetadataReadEvent() :
+			new ManifestDownloadEvent();
+
+		event.begin();
+
+		Map<String, ReadDocumentsResult> results = client.readDocuments(
+			accountIds,
+			documents.toArray(new DocumentRef[0])
+		);
+
+		event.end();
+
+		if (event.shouldCommit()) {
+			int failedCount = 0;
+
+			for (ReadDocumentsResult result : results.values()) {
+				if (!result.isSuccess()) {
+					failedCount += 1;
+				}
 			}
 
-			writeManifest(accountId, manifest);
-		} catch (NerdgraphQueryException e) {
+			if (event instanceof MetadataReadEvent) {
+				MetadataReadEvent metadataRead = (MetadataReadEvent) event;
+
+				metadataRead.accountCount = accountIds.length;
+				metadataRead.failedCount = failedCount;
+				metadataRead.includesManifests = includeManifest;
+			} else {
+				ManifestDownloadEvent manifestDownload =
+					(ManifestDownloadEvent) event;
+
+				manifestDownload.accountCount = accountIds.length;
+				manifestDownload.failedCount = failedCount;
+			}
+
+			event.commit();
+		}
+
+		return results;
+	}
+
+	public Metadata requireMetadata(
+		ReadDocumentsResult result
+	) throws SyncException {
+		String accountId = result.getAccountId();
+
+		if (!result.isSuccess()) {
+			throw new SyncException(
+				"failed to read metadata for account ID " + accountId,
+				result.getError()
+			);
+		}
+
+		Metadata m = result.getDocument(METADATA_ALIAS);
+
+		if (m == null) {
+			throw new SyncException(
+				"missing metadata/metadata.json in nerdstorage for account ID "
+					+ accountId
+			);
+		}
+
+		return m;
+	}
+
+	public Manifest requireManifest(
+		ReadDocumentsResult result
+	) throws SyncException {
+		String accountId = result.getAccountId();
+
+		if (!result.isSuccess()) {
 			throw new SyncException(
 				"failed to read manifest for account ID " + accountId,
-				e
+				result.getError()
 			);
-		} catch (IOException e) {
+		}
+
+		Manifest manifest = result.getDocument(MANIFEST_ALIAS);
+
+		if (manifest == null) {
 			throw new SyncException(
-				"failed to store manifest for account ID " + accountId,
-				e
+				"missing manifests/manifest.json in nerdstorage for account ID "
+					+ accountId
 			);
 		}
+
+		return manifest;
 	}
 
 	public String[] getScheduleNames(
@@ -314,7 +902,7 @@ public class Util {
 		String scheduleGroupName
 	) throws SyncException {
 		try {
-			Scheduler scheduler = StdSchedulerFactory.getDefaultScheduler();
+			Scheduler scheduler = getScheduler();
 			Set<JobKey> jobKeys;
 
 			jobKeys = scheduler.getJobKeys(
@@ -398,7 +986,7 @@ public class Util {
 					),
 					r,
 					publishConfig.getId(),
-					schedule,
+					Schedule.of(schedule),
 					publishConfig.isEnabled()
 				));
 			}
@@ -410,149 +998,172 @@ public class Util {
 		return publishConfigItems.toArray(arr);
 	}
 
-	public int findPublishConfigurationItemByScheduleName(
-		List<PublishConfigItem> publishConfigItems,
-		String scheduleName
-	) {
-		for (int index = 0; index < publishConfigItems.size(); index += 1) {
-			PublishConfigItem publishConfigItem = publishConfigItems.get(index);
+	public Schedule getValidSchedule(
+		PublishConfigItem publishConfigItem
+	) throws SyncException {
+		Schedule schedule = publishConfigItem.getSchedule();
 
-			if (publishConfigItem.getScheduleName().equals(scheduleName)) {
-				return index;
-			}
+		if (!schedule.isValid()) {
+			throw new SyncException(
+				String.format(
+					"invalid cron expression \"%s\" for report \"%s\": %s",
+					schedule.getExpression(),
+					getReportName(publishConfigItem.getReport()),
+					schedule.getError()
+				)
+			);
 		}
 
-		return -1;
+		return schedule;
 	}
 
-	public String scheduleExpressionFromCronExpression(
-		Report report,
+	public boolean isPublishConfigurationEnabled(
 		PublishConfigItem publishConfigItem
-	) throws SyncException {
-  		String reportName = getReportName(report);
-		String schedule = publishConfigItem.getSchedule();
-		List<String> parts = new LinkedList<>(
-			Arrays.asList(schedule.trim().split("\\s+"))
-		);
-		int size = parts.size();
+	) {
+		Report r = publishConfigItem.getReport();
 
-		if (size == 5) {
-			// Push a year field if it's only a 5 field expression
-			parts.add("0");
-		} else if (size != 6) {
-			throw new SyncException(
-				String.format(
-					"invalid cron expression \"%s\" for report \"%s\": Expected 6 parts in CRON expression but found %d.",
-					schedule,
-					reportName,
-					size
+		return r.isEnabled() && publishConfigItem.isEnabled();
+	}
+
+	private String sha256(String data) {
+		try {
+			return HexFormat.of().formatHex(
+				MessageDigest.getInstance("SHA-256").digest(
+					data.getBytes(StandardCharsets.UTF_8)
 				)
 			);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
 		}
+	}
 
-		if (!parts.get(2).equals("?") && !parts.get(4).equals("?")) {
-			throw new SyncException(
-				String.format(
-					"invalid cron expression \"%s\" for report \"%s\": Day of month and day of week cannot both be specified.",
-					schedule,
-					reportName
-				)
+	public String getPublishConfigurationDigest(
+		PublishConfigItem publishConfigItem
+	) {
+		// Only what ends up in the job and trigger of a schedule is part of
+		// the digest so that edits to other report properties, such as the
+		// report name or the lastModifiedDate, are not seen as changes.
+		return sha256(String.join(
+			"\n",
+			publishConfigItem.getScheduleName(),
+			publishConfigItem.getSchedule().getExpression(),
+			Boolean.toString(isPublishConfigurationEnabled(publishConfigItem))
+		));
+	}
+
+	public Map<String, String> getPublishConfigurationDigests(
+		PublishConfigItem[] publishConfigItems
+	) {
+		Map<String, String> digests = new TreeMap<>();
+
+		for (PublishConfigItem publishConfigItem : publishConfigItems) {
+			digests.putIfAbsent(
+				publishConfigItem.getScheduleName(),
+				getPublishConfigurationDigest(publishConfigItem)
 			);
 		}
 
-		// Java Quartz wants a seconds field
-		parts.add(0, "0");
+		return digests;
+	}
+
+	public String getManifestDigest(Map<String, String> digests) {
+		StringBuilder builder = new StringBuilder(digests.size() * 128);
+
+		// The digests are sorted by schedule name so the manifest digest does
+		// not depend on the order of reports in the manifest.
+		for (Map.Entry<String, String> entry : digests.entrySet()) {
+			builder
+				.append(entry.getKey())
+				.append('=')
+				.append(entry.getValue())
+				.append('\n');
+		}
 
-		return String.join(" ", parts);
+		return sha256(builder.toString());
 	}
 
-	public boolean isPublishConfigurationEnabled(
-		PublishConfigItem publishConfigItem
-	) {
-		Report r = publishConfigItem.getReport();
+	public String getPausedTriggerGroupName(String scheduleGroupName) {
+		return scheduleGroupName + "_paused";
+	}
 
-		return r.isEnabled() && publishConfigItem.isEnabled();
+	public TriggerKey getTriggerKey(
+		String scheduleGroupName,
+		String scheduleName,
+		boolean enabled
+	) {
+		// Triggers for disabled publish configurations are stored in a
+		// separate trigger group that is paused as a whole. Enabling or
+		// disabling a schedule is then a matter of moving its trigger between
+		// groups instead of pausing or resuming each trigger individually.
+		return new TriggerKey(
+			scheduleName + "_trigger",
+			enabled ?
+				scheduleGroupName :
+				getPausedTriggerGroupName(scheduleGroupName)
+		);
 	}
 
-	public void scheduleJob(
+	public JobDetail buildJobDetail(
 		String accountId,
 		String scheduleGroupName,
 		PublishConfigItem publishConfigItem
-	) throws SyncException {
-		try {
-			Scheduler scheduler = StdSchedulerFactory.getDefaultScheduler();
-
-			JobDetail job = newJob(RunReportJob.class)
-				.withIdentity(
-					publishConfigItem.getScheduleName(),
-					scheduleGroupName
-				)
-				.usingJobData("accountId", accountId)
-				.usingJobData(
-					"reportId",
-					publishConfigItem.getReport().getId()
-				)
-				.usingJobData(
-					"publishConfigId",
-					publishConfigItem.getPublishConfigId()
-				)
-				.build();
+	) {
+		return newJob(RunReportJob.class)
+			.withIdentity(
+				publishConfigItem.getScheduleName(),
+				scheduleGroupName
+			)
+			.usingJobData("accountId", accountId)
+			.usingJobData(
+				"reportId",
+				publishConfigItem.getReport().getId()
+			)
+			.usingJobData(
+				"publishConfigId",
+				publishConfigItem.getPublishConfigId()
+			)
+			.build();
+	}
 
-			CronTrigger trigger = newTrigger()
-				.withIdentity(
-					publishConfigItem.getScheduleName() + "_trigger",
-					scheduleGroupName
-				)
-				.withSchedule(
-					cronSchedule(scheduleExpressionFromCronExpression(
-						publishConfigItem.getReport(),
-						publishConfigItem
-					))
-						.withMisfireHandlingInstructionDoNothing()
+	public CronTrigger buildTrigger(
+		String scheduleGroupName,
+		PublishConfigItem publishConfigItem
+	) throws SyncException {
+		return newTrigger()
+			.withIdentity(getTriggerKey(
+				scheduleGroupName,
+				publishConfigItem.getScheduleName(),
+				isPublishConfigurationEnabled(publishConfigItem)
+			))
+			.forJob(
+				publishConfigItem.getScheduleName(),
+				scheduleGroupName
+			)
+			.withSchedule(
+				cronSchedule(
+					getValidSchedule(publishConfigItem).getCronExpression()
 				)
-				.build();
-
-			if (LOGGER.isLoggable(Level.FINEST)) {
-				LOGGER.finest(String.format(
-					"scheduling job for publish config %s for report %s for account %s",
-					publishConfigItem.getPublishConfigId(),
-					publishConfigItem.getReport().getId(),
-					accountId
-				));
-			}
+					.withMisfireHandlingInstructionDoNothing()
+			)
+			.build();
+	}
 
-			scheduler.scheduleJob(job, trigger);
+	public void ensurePausedTriggerGroup(
+		Scheduler scheduler,
+		String scheduleGroupName
+	) throws SchedulerException {
+		String pausedGroupName = getPausedTriggerGroupName(scheduleGroupName);
 
-			boolean enabled = isPublishConfigurationEnabled(publishConfigItem);
+		if (scheduler.getPausedTriggerGroups().contains(pausedGroupName)) {
+			return;
+		}
 
-			if (!enabled) {
-				if (LOGGER.isLoggable(Level.FINEST)) {
-					LOGGER.finest(String.format(
-						"pausing schedule for publish config %s for report %s for account %s",
-						publishConfigItem.getPublishConfigId(),
-						publishConfigItem.getReport().getId(),
-						accountId
-					));
-				}
+		LOGGER.finest("pausing trigger group " + pausedGroupName);
 
-				scheduler.pauseTrigger(
-					new TriggerKey(
-						publishConfigItem.getScheduleName() + "_trigger",
-						scheduleGroupName
-					)
-				);
-			}
-		} catch (SchedulerException e) {
-			throw new SyncException(
-				String.format(
-					"failed to schedule job for publish config %s for report %s for account %s",
-					publishConfigItem.getPublishConfigId(),
-					publishConfigItem.getReport().getId(),
-					accountId
-				),
-				e
-			);
-		}
+		scheduler.pauseTriggers(GroupMatcher.triggerGroupEquals(
+			pausedGroupName
+		));
 	}
 
 	public void createSchedules(
@@ -560,6 +1171,10 @@ public class Util {
 		String scheduleGroupName,
 		List<PublishConfigItem> schedulesToCreate
 	) throws SyncException {
+		Map<JobDetail, Set<? extends Trigger>> jobs = new LinkedHashMap<>(
+			(int) (schedulesToCreate.size() / 0.75f) + 1
+		);
+
 		for (PublishConfigItem publishConfigItem : schedulesToCreate) {
 			if (LOGGER.isLoggable(Level.FINEST)) {
 				LOGGER.finest(String.format(
@@ -567,14 +1182,47 @@ public class Util {
 					publishConfigItem.getPublishConfigId(),
 					publishConfigItem.getReport().getId(),
 					accountId,
-					publishConfigItem.getSchedule()
+					publishConfigItem.getSchedule().getExpression()
 				));
 			}
 
-			scheduleJob(
-				accountId,
-				scheduleGroupName,
-				publishConfigItem
+			try {
+				jobs.put(
+					buildJobDetail(accountId, scheduleGroupName, publishConfigItem),
+					Set.of(buildTrigger(scheduleGroupName, publishConfigItem))
+				);
+			} catch (SyncException e) {
+				// An invalid schedule should not prevent the remaining
+				// schedules from being created.
+				LOGGER.log(
+					Level.WARNING,
+					String.format(
+						"ignoring publish config %s for report %s for account %s",
+						publishConfigItem.getPublishConfigId(),
+						publishConfigItem.getReport().getId(),
+						accountId
+					),
+					e
+				);
+			}
+		}
+
+		if (jobs.isEmpty()) {
+			return;
+		}
+
+		try {
+			Scheduler scheduler = getScheduler();
+
+			scheduler.scheduleJobs(jobs, false);
+		} catch (SchedulerException e) {
+			throw new SyncException(
+				String.format(
+					"failed to schedule %d jobs for account %s",
+					jobs.size(),
+					accountId
+				),
+				e
 			);
 		}
 	}
@@ -585,13 +1233,23 @@ public class Util {
 		List<PublishConfigItem> schedulesToUpdate
 	) throws SyncException {
 		try {
-			Scheduler scheduler = StdSchedulerFactory.getDefaultScheduler();
+			Scheduler scheduler = getScheduler();
+			Set<TriggerKey> pausedTriggerKeys = scheduler.getTriggerKeys(
+				GroupMatcher.triggerGroupEquals(
+					getPausedTriggerGroupName(scheduleGroupName)
+				)
+			);
 
 			for (PublishConfigItem publishConfigItem : schedulesToUpdate) {
-				TriggerKey key = new TriggerKey(
-					publishConfigItem.getScheduleName() + "_trigger",
-					scheduleGroupName
+				String scheduleName = publishConfigItem.getScheduleName();
+				TriggerKey pausedKey = getTriggerKey(
+					scheduleGroupName,
+					scheduleName,
+					false
 				);
+				TriggerKey key = pausedTriggerKeys.contains(pausedKey) ?
+					pausedKey :
+					getTriggerKey(scheduleGroupName, scheduleName, true);
 				CronTrigger trigger = (CronTrigger)scheduler.getTrigger(key);
 
 				if (trigger == null) {
@@ -604,96 +1262,75 @@ public class Util {
 					continue;
 				}
 
-				String cronExpression = trigger.getCronExpression();
-				String schedule = scheduleExpressionFromCronExpression(
-					publishConfigItem.getReport(),
-					publishConfigItem
-				);
-
-				if (LOGGER.isLoggable(Level.FINEST)) {
-					LOGGER.finest(String.format(
-						"trigger schedule: \"%s\"; publishConfig schedule:\"%s\"",
-						cronExpression,
-						schedule
-					));
-				}
+				Schedule schedule;
 
-				if (!cronExpression.equals(schedule)) {
-					if (LOGGER.isLoggable(Level.FINEST)) {
-						LOGGER.finest(String.format(
-							"updating schedule for publish config %s for report %s for account %s on schedule %s",
+				try {
+					schedule = getValidSchedule(publishConfigItem);
+				} catch (SyncException e) {
+					LOGGER.log(
+						Level.WARNING,
+						String.format(
+							"ignoring update for publish config %s for report %s for account %s",
 							publishConfigItem.getPublishConfigId(),
 							publishConfigItem.getReport().getId(),
-							accountId,
-							publishConfigItem.getSchedule()
-						));
-					}
-
-					scheduler.deleteJob(
-						new JobKey(
-							publishConfigItem.getScheduleName(),
-							scheduleGroupName
-						)
-					);
-
-					scheduleJob(
-						accountId,
-						scheduleGroupName,
-						publishConfigItem
+							accountId
+						),
+						e
 					);
-
 					continue;
 				}
 
-				Trigger.TriggerState state = scheduler.getTriggerState(
-					trigger.getKey()
+				// Compare with the compiled schedule first so that no
+				// trigger is built for the schedules that did not change.
+				TriggerKey newKey = getTriggerKey(
+					scheduleGroupName,
+					scheduleName,
+					isPublishConfigurationEnabled(publishConfigItem)
 				);
-				boolean isEnabled = isPublishConfigurationEnabled(publishConfigItem);
 
 				if (LOGGER.isLoggable(Level.FINEST)) {
 					LOGGER.finest(String.format(
-						"trigger state: \"%s\"; publishConfig enabled:\"%s\"",
-						state,
-						isEnabled
+						"trigger schedule: \"%s\"; publishConfig schedule:\"%s\"; trigger group: \"%s\"; publishConfig enabled:\"%s\"",
+						trigger.getCronExpression(),
+						schedule.getQuartzExpression(),
+						key.getGroup(),
+						isPublishConfigurationEnabled(publishConfigItem)
 					));
 				}
 
-				if (!isEnabled && state == Trigger.TriggerState.NORMAL) {
-					if (LOGGER.isLoggable(Level.FINEST)) {
-						LOGGER.finest(String.format(
-							"pausing schedule for publish config %s for report %s for account %s",
-							publishConfigItem.getPublishConfigId(),
-							publishConfigItem.getReport().getId(),
-							accountId
-						));
-					}
-
-					scheduler.pauseTrigger(key);
-					continue;
-				}
-
-				if (isEnabled && state == Trigger.TriggerState.PAUSED) {
+				if (
+					trigger.getCronExpression().equals(
+						schedule.getQuartzExpression()
+					) &&
+					key.equals(newKey)
+				) {
 					if (LOGGER.isLoggable(Level.FINEST)) {
 						LOGGER.finest(String.format(
-							"resuming schedule for publish config %s for report %s for account %s",
+							"ignoring update for publish config %s for report %s for account %s because nothing changed",
 							publishConfigItem.getPublishConfigId(),
 							publishConfigItem.getReport().getId(),
 							accountId
 						));
 					}
-
-					scheduler.resumeTrigger(key);
 					continue;
 				}
 
 				if (LOGGER.isLoggable(Level.FINEST)) {
 					LOGGER.finest(String.format(
-						"ignoring update for publish config %s for report %s for account %s because nothing changed",
+						"rescheduling publish config %s for report %s for account %s on schedule %s",
 						publishConfigItem.getPublishConfigId(),
 						publishConfigItem.getReport().getId(),
-						accountId
+						accountId,
+						publishConfigItem.getSchedule().getExpression()
 					));
 				}
+
+				// Replace the trigger in place. The job and its data are left
+				// untouched.
+				scheduler.rescheduleJob(
+					key,
+					buildTrigger(scheduleGroupName, publishConfigItem)
+				);
 			}
 		} catch (SchedulerException e) {
 			throw new SyncException(
@@ -703,20 +1340,53 @@ public class Util {
 		}
 	}
 
+	// Report runs started by a deleted schedule are cancelled so that a
+	// report whose publish configuration was removed stops publishing.
+	private void cancelReportRuns(
+		Scheduler scheduler,
+		List<JobKey> jobKeys
+	) throws SchedulerException {
+		ReportExecutor executor = (ReportExecutor) scheduler.getContext().get(
+			ReportScheduler.REPORT_EXECUTOR_KEY
+		);
+
+		if (executor == null) {
+			return;
+		}
+
+		for (JobKey jobKey : jobKeys) {
+			JobDetail job = scheduler.getJobDetail(jobKey);
+
+			if (job == null) {
+				continue;
+			}
+
+			JobDataMap data = job.getJobDataMap();
+
+			executor.cancel(
+				data.getString("accountId"),
+				data.getString("reportId"),
+				data.getString("publishConfigId")
+			);
+		}
+	}
+
 	public void deleteSchedules(
 		String scheduleGroupName,
 		List<String> schedulesToDelete
 	) throws SyncException {
 		try {
-			Scheduler scheduler = StdSchedulerFactory.getDefaultScheduler();
+			Scheduler scheduler = getScheduler();
+			List<JobKey> jobKeys = new ArrayList<>(schedulesToDelete.size());
 
 			for (String scheduleName : schedulesToDelete) {
 				LOGGER.finest("deleting schedule " + scheduleName);
 
-				scheduler.deleteJob(
-					new JobKey(scheduleName, scheduleGroupName)
-				);
+				jobKeys.add(new JobKey(scheduleName, scheduleGroupName));
 			}
+
+			cancelReportRuns(scheduler, jobKeys);
+			scheduler.deleteJobs(jobKeys);
 		} catch (SchedulerException e) {
 			throw new SyncException(
 				"delete schedules failed",
@@ -725,13 +1395,63 @@ public class Util {
 		}
 	}
 
+	public void deleteAccountSchedules(
+		String accountId,
+		String scheduleGroupName
+	) throws SyncException {
+		String[] scheduleNames = getScheduleNames(accountId, scheduleGroupName);
+
+		if (scheduleNames.length > 0) {
+			deleteSchedules(scheduleGroupName, Arrays.asList(scheduleNames));
+		}
+	}
+
+	private void recordChangeSet(ChangeSet changeSet) {
+		Metrics metrics = Metrics.getInstance();
+		String name = "nr_reports_change_set_size";
+		String help = "Number of schedules per change set applied by a sync";
+
+		metrics.observe(
+			name,
+			help,
+			Metrics.SIZE_BUCKETS,
+			changeSet.getSchedulesToCreate().size(),
+			"action", "create"
+		);
+		metrics.observe(
+			name,
+			help,
+			Metrics.SIZE_BUCKETS,
+			changeSet.getSchedulesToUpdate().size(),
+			"action", "update"
+		);
+		metrics.observe(
+			name,
+			help,
+			Metrics.SIZE_BUCKETS,
+			changeSet.getSchedulesToDelete().size(),
+			"action", "delete"
+		);
+		metrics.observe(
+			name,
+			help,
+			Metrics.SIZE_BUCKETS,
+			changeSet.getUnchangedSchedules().size(),
+			"action", "unchanged"
+		);
+	}
+
 	public void applyChangeSet(
 		String accountId,
 		String scheduleGroupName,
-		List<PublishConfigItem> schedulesToCreate,
-		List<PublishConfigItem> schedulesToUpdate,
-		List<String> schedulesToDelete
+		ChangeSet changeSet
 	) throws SyncException {
+		List<PublishConfigItem> schedulesToCreate =
+			changeSet.getSchedulesToCreate();
+		List<PublishConfigItem> schedulesToUpdate =
+			changeSet.getSchedulesToUpdate();
+		List<String> schedulesToDelete = changeSet.getSchedulesToDelete();
+
 		if (LOGGER.isLoggable(Level.FINEST)) {
 			LOGGER.finest(
 				"schedules to create: " + schedulesToCreate.size()
@@ -742,6 +1462,32 @@ public class Util {
 			LOGGER.finest(
 				"schedules to delete: " + schedulesToDelete.size()
 			);
+			LOGGER.finest(
+				"schedules unchanged: " +
+					changeSet.getUnchangedSchedules().size()
+			);
+		}
+
+		recordChangeSet(changeSet);
+
+		if (changeSet.isEmpty()) {
+			return;
+		}
+
+		ScheduleApplyEvent event = new ScheduleApplyEvent();
+
+		event.begin();
+
+		try {
+			ensurePausedTriggerGroup(
+				getScheduler(),
+				scheduleGroupName
+			);
+		} catch (SchedulerException e) {
+			throw new SyncException(
+				"failed to pause trigger group for disabled schedules",
+				e
+			);
 		}
 
 		if (!schedulesToCreate.isEmpty()) {
@@ -755,91 +1501,59 @@ public class Util {
 		if (!schedulesToDelete.isEmpty()) {
 			deleteSchedules(scheduleGroupName, schedulesToDelete);
 		}
+
+		event.end();
+
+		if (event.shouldCommit()) {
+			event.accountId = accountId;
+			event.createCount = schedulesToCreate.size();
+			event.updateCount = schedulesToUpdate.size();
+			event.deleteCount = schedulesToDelete.size();
+			event.commit();
+		}
 	}
 
-	public void calculateAndApplyChangeSet(
-		String accountId,
-		String scheduleGroupName,
-		long lastPolledDate,
+	public ChangeSet calculateChangeSet(
+		Map<String, String> appliedDigests,
 		String[] scheduleNames,
 		PublishConfigItem[] publishConfigItems
-	) throws SyncException {
-		List<PublishConfigItem> p = new LinkedList<>(
-			Arrays.asList(publishConfigItems)
-		);
-		List<PublishConfigItem> schedulesToCreate = new LinkedList<>();
-		List<String> schedulesToDelete = new LinkedList<>();
-		List<PublishConfigItem> schedulesToUpdate = new LinkedList<>();
+	) {
+		ChangeSet changeSet = new ChangeSet(publishConfigItems.length);
 
 		LOGGER.finest(
 			"processing " + scheduleNames.length + " schedules"
 		);
+		LOGGER.finest(
+			"publish configuration items to process: " +
+				publishConfigItems.length
+		);
 
-		if (p.isEmpty()) {
-			LOGGER.finest("no publish configuration items to process");
+		// Index the publish configuration items by schedule name so that each
+		// existing schedule can be matched in constant time. The index
+		// preserves manifest order so schedules are created in that order.
+		Map<String, PublishConfigItem> index = new LinkedHashMap<>(
+			(int) (publishConfigItems.length / 0.75f) + 1
+		);
 
-			if (scheduleNames.length > 0) {
-				schedulesToDelete.addAll(Arrays.asList(scheduleNames));
-			}
-		} else {
-			LOGGER.finest(
-				"publish configuration items to process: " + p.size()
+		for (PublishConfigItem publishConfigItem : publishConfigItems) {
+			PublishConfigItem existing = index.putIfAbsent(
+				publishConfigItem.getScheduleName(),
+				publishConfigItem
 			);
 
-			for (String scheduleName : scheduleNames) {
-				LOGGER.finest(
-					"searching for a publish configuration item matching schedule " +
-						scheduleName
-				);
-
-				int index = findPublishConfigurationItemByScheduleName(
-					p,
-					scheduleName
-				);
-
-				if (index >= 0) {
-					PublishConfigItem publishConfigItem = p.remove(index);
-					Report report = publishConfigItem.getReport();
-					String reportName = getReportName(report);
-
-					if (LOGGER.isLoggable(Level.FINEST)) {
-						LOGGER.finest(String.format(
-							"publish configuration item for publish configuration %s for report %s matches schedule %s",
-							publishConfigItem.getPublishConfigId(),
-							reportName,
-							scheduleName
-						));
-						LOGGER.finest(String.format(
-							"report last modified: %s; last polled: %s",
-							toIsoString(report.getLastModifiedDate()),
-							toIsoString(lastPolledDate)
-						));
-					}
-
-					if (report.getLastModifiedDate() < lastPolledDate) {
-						// report wasn't modified, ignore it
-						if (LOGGER.isLoggable(Level.FINEST)) {
-							LOGGER.finest(String.format(
-								"ignoring publish configuration item for publish configuration %s for report %s because report has not changed since last polled date",
-								publishConfigItem.getPublishConfigId(),
-								reportName
-							));
-						}
-						continue;
-					}
-
-					if (LOGGER.isLoggable(Level.FINEST)) {
-						LOGGER.finest(String.format(
-							"adding publish configuration item for publish configuration %s for report %s to update list",
-							publishConfigItem.getPublishConfigId(),
-							reportName
-						));
-					}
+			if (existing != null) {
+				LOGGER.warning(String.format(
+					"ignoring duplicate publish configuration %s for report %s",
+					publishConfigItem.getPublishConfigId(),
+					getReportName(publishConfigItem.getReport())
+				));
+			}
+		}
 
-					schedulesToUpdate.add(publishConfigItem);
-					continue;
-				}
+		for (String scheduleName : scheduleNames) {
+			PublishConfigItem publishConfigItem = index.remove(scheduleName);
 
+			if (publishConfigItem == null) {
 				if (LOGGER.isLoggable(Level.FINEST)) {
 					LOGGER.finest(String.format(
 						"adding schedule %s to delete list because no matching publish configuration items were found",
@@ -847,50 +1561,107 @@ public class Util {
 					));
 				}
 
-				schedulesToDelete.add(scheduleName);
+				changeSet.getSchedulesToDelete().add(scheduleName);
+				continue;
 			}
 
+			String digest = getPublishConfigurationDigest(publishConfigItem);
+
 			if (LOGGER.isLoggable(Level.FINEST)) {
-				for (PublishConfigItem publishConfigItem : p) {
-					Report report = publishConfigItem.getReport();
-					String reportName = getReportName(report);
+				LOGGER.finest(String.format(
+					"publish configuration item for publish configuration %s for report %s matches schedule %s",
+					publishConfigItem.getPublishConfigId(),
+					getReportName(publishConfigItem.getReport()),
+					scheduleName
+				));
+			}
 
+			if (digest.equals(appliedDigests.get(scheduleName))) {
+				// publish configuration wasn't modified, ignore it
+				if (LOGGER.isLoggable(Level.FINEST)) {
 					LOGGER.finest(String.format(
-						"adding publish configuration item for publish configuration %s for report %s to create list",
+						"ignoring publish configuration item for publish configuration %s for report %s because its digest has not changed",
 						publishConfigItem.getPublishConfigId(),
-						reportName
+						getReportName(publishConfigItem.getReport())
 					));
 				}
+
+				changeSet.getUnchangedSchedules().add(publishConfigItem);
+				continue;
+			}
+
+			if (LOGGER.isLoggable(Level.FINEST)) {
+				LOGGER.finest(String.format(
+					"adding publish configuration item for publish configuration %s for report %s to update list",
+					publishConfigItem.getPublishConfigId(),
+					getReportName(publishConfigItem.getReport())
+				));
 			}
 
-			schedulesToCreate.addAll(p);
+			changeSet.getSchedulesToUpdate().add(publishConfigItem);
 		}
 
-		applyChangeSet(
-			accountId,
-			scheduleGroupName,
-			schedulesToCreate,
-			schedulesToUpdate,
-			schedulesToDelete
+		// Whatever is left in the index has no existing schedule.
+		if (LOGGER.isLoggable(Level.FINEST)) {
+			for (PublishConfigItem publishConfigItem : index.values()) {
+				LOGGER.finest(String.format(
+					"adding publish configuration item for publish configuration %s for report %s to create list",
+					publishConfigItem.getPublishConfigId(),
+					getReportName(publishConfigItem.getReport())
+				));
+			}
+		}
+
+		changeSet.getSchedulesToCreate().addAll(index.values());
+
+		return changeSet;
+	}
+
+	public void calculateAndApplyChangeSet(
+		String accountId,
+		String scheduleGroupName,
+		Map<String, String> appliedDigests,
+		String[] scheduleNames,
+		PublishConfigItem[] publishConfigItems
+	) throws SyncException {
+		ChangeSetEvent event = new ChangeSetEvent();
+
+		event.begin();
+
+		ChangeSet changeSet = calculateChangeSet(
+			appliedDigests,
+			scheduleNames,
+			publishConfigItems
 		);
+
+		event.end();
+
+		if (event.shouldCommit()) {
+			event.accountId = accountId;
+			event.publishConfigCount = publishConfigItems.length;
+			event.scheduleCount = scheduleNames.length;
+			event.createCount = changeSet.getSchedulesToCreate().size();
+			event.updateCount = changeSet.getSchedulesToUpdate().size();
+			event.deleteCount = changeSet.getSchedulesToDelete().size();
+			event.unchangedCount = changeSet.getUnchangedSchedules().size();
+			event.commit();
+		}
+
+		applyChangeSet(accountId, scheduleGroupName, changeSet);
 	}
 
 	public void hup(
 		String accountId,
-		long lastPolledDate,
+		PublishConfigItem[] publishConfigItems,
+		Map<String, String> appliedDigests,
 		String scheduleGroupName
-	) throws SyncException, IOException {
-		Manifest manifest = readManifest(accountId);
+	) throws SyncException {
 		String[] scheduleNames = getScheduleNames(accountId, scheduleGroupName);
-		PublishConfigItem[] publishConfigItems = getPublishConfigurationItems(
-			accountId,
-			manifest.getReports()
-		);
 
 		calculateAndApplyChangeSet(
 			accountId,
 			scheduleGroupName,
-			lastPolledDate,
+			appliedDigests,
 			scheduleNames,
 			publishConfigItems
 		);
@@ -4,14 +4,14 @@ public class PublishConfigItem {
 	private final String scheduleName;
 	private final Report report;
 	private final String publishConfigId;
-	private final String schedule;
+	private final Schedule schedule;
 	private final boolean enabled;
 
 	public PublishConfigItem(
 		String scheduleName,
 		Report r,
 		String publishConfigId,
-		String schedule,
+		Schedule schedule,
 		boolean enabled
 	) {
 		this.scheduleName = scheduleName;
@@ -33,7 +33,7 @@ public class PublishConfigItem {
 		return this.publishConfigId;
 	}
 
-	public String getSchedule() { return this.schedule; }
+	public Schedule getSchedule() { return this.schedule; }
 
 	public boolean isEnabled() {
 		return this.enabled;
@@ -0,0 +1,146 @@
+package com.newrelic.labs.reports.model;
+
+import org.quartz.CronExpression;
+
+import java.text.ParseException;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The schedule of a publish configuration, compiled once from the cron
+// expression in the manifest. Manifests use the cron format of AWS
+// EventBridge, minutes through day of week and an optional year, which is
+// converted to a Quartz cron expression and parsed when the schedule is
+// created. An expression that cannot be converted or parsed yields an invalid
+// schedule that carries the reason.
+//
+// Schedules are immutable and interned by expression, so all publish
+// configurations with the same expression share one instance.
+public final class Schedule {
+	// Bounds the interned schedules of a scheduler that sees many distinct
+	// expressions over time. Schedules still in use are compiled again on
+	// their next lookup.
+	private static final int MAX_INTERNED = 10_000;
+	private static final Map<String, Schedule> INTERNED =
+		new ConcurrentHashMap<>();
+
+	private final String expression;
+	private final String quartzExpression;
+	private final CronExpression cronExpression;
+	private final String error;
+
+	private Schedule(
+		String expression,
+		String quartzExpression,
+		CronExpression cronExpression,
+		String error
+	) {
+		this.expression = expression;
+		this.quartzExpression = quartzExpression;
+		this.cronExpression = cronExpression;
+		this.error = error;
+	}
+
+	public static Schedule of(String expression) {
+		Schedule schedule = INTERNED.get(expression);
+
+		if (schedule != null) {
+			return schedule;
+		}
+
+		if (INTERNED.size() >= MAX_INTERNED) {
+			INTERNED.clear();
+		}
+
+		return INTERNED.computeIfAbsent(expression, Schedule::compile);
+	}
+
+	private static Schedule invalid(String expression, String error) {
+		return new Schedule(expression, null, null, error);
+	}
+
+	private static Schedule compile(String expression) {
+		String[] fields = expression.trim().split("\\s+");
+
+		if (fields.length != 5 && fields.length != 6) {
+			return invalid(
+				expression,
+				String.format(
+					"Expected 5 or 6 parts in CRON expression but found %d.",
+					fields.length
+				)
+			);
+		}
+
+		if (!fields[2].equals("?") && !fields[4].equals("?")) {
+			return invalid(
+				expression,
+				"Day of month and day of week cannot both be specified."
+			);
+		}
+
+		// Java Quartz wants a seconds field
+		StringBuilder builder = new StringBuilder(expression.length() + 4);
+
+		builder.append('0');
+
+		for (String field : fields) {
+			builder.append(' ').append(field);
+		}
+
+		// Push a year field if it's only a 5 field expression
+		if (fields.length == 5) {
+			builder.append(" *");
+		}
+
+		String quartzExpression = builder.toString();
+
+		try {
+			CronExpression cronExpression = new CronExpression(quartzExpression);
+
+			// CronExpression otherwise sets its time zone lazily, which is a
+			// write to an instance shared by every thread that builds
+			// triggers from this schedule.
+			cronExpression.setTimeZone(TimeZone.getDefault());
+
+			return new Schedule(
+				expression,
+				quartzExpression,
+				cronExpression,
+				null
+			);
+		} catch (ParseException e) {
+			return invalid(expression, e.getMessage());
+		}
+	}
+
+	// The expression as it appears in the manifest
+	public String getExpression() {
+		return this.expression;
+	}
+
+	public boolean isValid() {
+		return this.error == null;
+	}
+
+	// Why the expression is invalid, or null if it is valid
+	public String getError() {
+		return this.error;
+	}
+
+	// The Quartz cron expression, or null if the expression is invalid
+	public String getQuartzExpression() {
+		return this.quartzExpression;
+	}
+
+	// The parsed Quartz cron expression, or null if the expression is
+	// invalid. The instance is shared and must not be modified.
+	public CronExpression getCronExpression() {
+		return this.cronExpression;
+	}
+
+	@Override
+	public String toString() {
+		return this.expression;
+	}
+}
@@ -0,0 +1,106 @@
+package com.newrelic.labs.reports;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CircuitBreakerTest {
+	// Opens after two failures and half opens right away
+	private static CircuitBreaker halfOpen() {
+		CircuitBreaker breaker = new CircuitBreaker(2, 0);
+
+		breaker.onFailure(breaker.acquire());
+		breaker.onFailure(breaker.acquire());
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		return breaker;
+	}
+
+	@Test
+	void admitsEveryRequestWhileClosed() {
+		CircuitBreaker breaker = new CircuitBreaker(2, 60_000);
+
+		assertNotNull(breaker.acquire());
+		assertNotNull(breaker.acquire());
+		assertEquals(0, breaker.getRejected());
+	}
+
+	@Test
+	void admitsASingleTrialWhileHalfOpen() {
+		CircuitBreaker breaker = halfOpen();
+
+		assertNotNull(breaker.acquire());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertNull(breaker.acquire());
+		assertEquals(1, breaker.getRejected());
+	}
+
+	@Test
+	void releasesTheTrialWhenTheTrialIsAbandoned() {
+		CircuitBreaker breaker = halfOpen();
+		CircuitBreaker.Permit trial = breaker.acquire();
+
+		breaker.onAbandoned(trial);
+
+		assertNotNull(breaker.acquire());
+	}
+
+	@Test
+	void keepsTheTrialWhenAnotherRequestIsAbandoned() {
+		CircuitBreaker breaker = new CircuitBreaker(2, 0);
+		CircuitBreaker.Permit request = breaker.acquire();
+
+		breaker.onFailure(breaker.acquire());
+		breaker.onFailure(breaker.acquire());
+
+		assertNotNull(breaker.acquire());
+
+		// A request admitted while the breaker was closed ends after the
+		// trial started
+		breaker.onAbandoned(request);
+
+		assertNull(breaker.acquire());
+	}
+
+	@Test
+	void closesWhenTheTrialSucceeds() {
+		CircuitBreaker breaker = halfOpen();
+
+		breaker.onSuccess(breaker.acquire());
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void ignoresStragglersWhileHalfOpen() {
+		CircuitBreaker breaker = new CircuitBreaker(2, 0);
+		CircuitBreaker.Permit succeeded = breaker.acquire();
+		CircuitBreaker.Permit failed = breaker.acquire();
+
+		breaker.onFailure(breaker.acquire());
+		breaker.onFailure(breaker.acquire());
+
+		CircuitBreaker.Permit trial = breaker.acquire();
+
+		assertNotNull(trial);
+
+		// Requests admitted while the breaker was closed complete while the
+		// trial is still in flight
+		breaker.onSuccess(succeeded);
+
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertNull(breaker.acquire());
+
+		breaker.onFailure(failed);
+
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertEquals(1, breaker.getOpened());
+
+		breaker.onSuccess(trial);
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+}
@@ -0,0 +1,125 @@
+package com.newrelic.labs.reports;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashRingTest {
+	private static final int VIRTUAL_NODES = 128;
+	private static final int KEYS = 10_000;
+
+	private static String key(int i) {
+		return String.valueOf(1000000 + i);
+	}
+
+	private static Map<String, String> owners(HashRing ring) {
+		Map<String, String> owners = new HashMap<>();
+
+		for (int i = 0; i < KEYS; i += 1) {
+			owners.put(key(i), ring.getOwner(key(i)));
+		}
+
+		return owners;
+	}
+
+	@Test
+	void hasNoOwnerWithoutMembers() {
+		assertNull(new HashRing(List.of(), VIRTUAL_NODES).getOwner("1"));
+	}
+
+	@Test
+	void assignsEveryKeyToTheOnlyMember() {
+		HashRing ring = new HashRing(List.of("a"), VIRTUAL_NODES);
+
+		for (int i = 0; i < 100; i += 1) {
+			assertEquals("a", ring.getOwner(key(i)));
+		}
+	}
+
+	@Test
+	void assignsTheSameOwnersRegardlessOfMemberOrder() {
+		assertEquals(
+			owners(new HashRing(List.of("a", "b", "c"), VIRTUAL_NODES)),
+			owners(new HashRing(List.of("c", "a", "b"), VIRTUAL_NODES))
+		);
+	}
+
+	@Test
+	void assignsStableOwners() {
+		// The hash does not depend on the JVM, so every instance and every
+		// release must assign these keys to the same members.
+		HashRing ring = new HashRing(List.of("a", "b", "c"), VIRTUAL_NODES);
+
+		assertEquals("b", ring.getOwner("1000000"));
+		assertEquals("b", ring.getOwner("1000001"));
+		assertEquals("c", ring.getOwner("1000002"));
+		assertEquals("b", ring.getOwner("1000003"));
+		assertEquals("b", ring.getOwner("1000004"));
+		assertEquals("c", ring.getOwner("1000005"));
+	}
+
+	@Test
+	void spreadsKeysEvenly() {
+		List<String> members = List.of("a", "b", "c", "d");
+		Map<String, Integer> counts = new HashMap<>();
+
+		for (String owner : owners(new HashRing(members, VIRTUAL_NODES)).values()) {
+			counts.merge(owner, 1, Integer::sum);
+		}
+
+		assertEquals(members.size(), counts.size());
+
+		for (int count : counts.values()) {
+			// Within 30% of a fair share
+			assertTrue(
+				Math.abs(count - KEYS / members.size()) < 0.3 * KEYS / members.size(),
+				"unbalanced ring: " + counts
+			);
+		}
+	}
+
+	@Test
+	void movesOnlyTheKeysOfARemovedMember() {
+		Map<String, String> before = owners(
+			new HashRing(List.of("a", "b", "c"), VIRTUAL_NODES)
+		);
+		Map<String, String> after = owners(
+			new HashRing(List.of("a", "b"), VIRTUAL_NODES)
+		);
+
+		for (Map.Entry<String, String> entry : before.entrySet()) {
+			if (!entry.getValue().equals("c")) {
+				assertEquals(entry.getValue(), after.get(entry.getKey()));
+			}
+		}
+	}
+
+	@Test
+	void movesKeysOnlyToAnAddedMember() {
+		Map<String, String> before = owners(
+			new HashRing(List.of("a", "b"), VIRTUAL_NODES)
+		);
+		Map<String, String> after = owners(
+			new HashRing(List.of("a", "b", "c"), VIRTUAL_NODES)
+		);
+		int moved = 0;
+
+		for (Map.Entry<String, String> entry : before.entrySet()) {
+			String owner = after.get(entry.getKey());
+
+			if (!owner.equals(entry.getValue())) {
+				assertEquals("c", owner);
+				moved += 1;
+			}
+		}
+
+		// Roughly a third of the keys move to the new member
+		assertTrue(moved > KEYS / 5 && moved < KEYS / 2, "moved: " + moved);
+	}
+}
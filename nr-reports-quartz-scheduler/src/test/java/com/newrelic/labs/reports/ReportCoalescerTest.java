@@ -0,0 +1,157 @@
+package com.newrelic.labs.reports;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReportCoalescerTest {
+	private static final long WINDOW_MILLIS = 60_000;
+
+	private final List<ReportRun> executed =
+		Collections.synchronizedList(new ArrayList<>());
+	private ReportExecutor executor;
+	private ReportCoalescer coalescer;
+
+	@BeforeEach
+	void setUp() {
+		// Records the runs instead of starting the CLI
+		this.executor = new ReportExecutor(
+			Util.getInstance(),
+			new ReportExecutorConfig()
+		) {
+			@Override
+			public CompletableFuture<Integer> execute(ReportRun run) {
+				executed.add(run);
+				return CompletableFuture.completedFuture(0);
+			}
+		};
+		this.coalescer = new ReportCoalescer(this.executor, WINDOW_MILLIS, 3);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.coalescer.close();
+		this.executor.close();
+	}
+
+	private static ReportRun run(
+		String accountId,
+		String reportId,
+		String publishConfigId
+	) {
+		return new ReportRun(accountId, reportId, List.of(publishConfigId));
+	}
+
+	@Test
+	void coalescesRunsWithTheSamePublishConfigId() throws Exception {
+		CompletableFuture<Integer> a = this.coalescer.submit(run("1", "a", "p"));
+		CompletableFuture<Integer> b = this.coalescer.submit(run("1", "b", "p"));
+		CompletableFuture<Integer> c = this.coalescer.submit(run("1", "c", "p"));
+
+		// The third run fills the batch, which is then run right away
+		assertEquals(0, a.get(5, TimeUnit.SECONDS));
+		assertEquals(0, b.get(5, TimeUnit.SECONDS));
+		assertEquals(0, c.get(5, TimeUnit.SECONDS));
+		assertEquals(1, this.executed.size());
+		assertEquals(List.of("a", "b", "c"), this.executed.get(0).getReportIds());
+		assertEquals(List.of("p"), this.executed.get(0).getPublishConfigIds());
+		assertEquals(
+			List.of("p"),
+			this.executed.get(0).getPublishConfigIdsByReport().get("b")
+		);
+	}
+
+	@Test
+	void coalescesRunsWithDifferentPublishConfigIds() {
+		// Every publish config has its own ID, so runs of different reports
+		// never share one.
+		this.coalescer.submit(run("1", "a", "p"));
+		this.coalescer.submit(run("1", "b", "q"));
+
+		assertEquals(0, this.executed.size());
+
+		this.coalescer.submit(run("1", "c", "r"));
+
+		assertEquals(1, this.executed.size());
+
+		ReportRun batch = this.executed.get(0);
+
+		assertEquals(List.of("a", "b", "c"), batch.getReportIds());
+		assertEquals(
+			Map.of("a", List.of("p"), "b", List.of("q"), "c", List.of("r")),
+			batch.getPublishConfigIdsByReport()
+		);
+	}
+
+	@Test
+	void doesNotCoalesceRunsOfDifferentAccounts() {
+		this.coalescer.submit(run("1", "a", "p"));
+		this.coalescer.submit(run("2", "b", "p"));
+		this.coalescer.submit(run("1", "c", "p"));
+		this.coalescer.submit(run("1", "d", "p"));
+
+		assertEquals(1, this.executed.size());
+		assertEquals("1", this.executed.get(0).getAccountId());
+		assertEquals(
+			List.of("a", "c", "d"),
+			this.executed.get(0).getReportIds()
+		);
+	}
+
+	@Test
+	void runsARepeatedReportInItsOwnInvocation() {
+		this.coalescer.submit(run("1", "a", "p"));
+		this.coalescer.submit(run("1", "a", "p"));
+
+		// The second run supersedes the pending batch, which runs right away
+		assertEquals(1, this.executed.size());
+		assertEquals(List.of("a"), this.executed.get(0).getReportIds());
+	}
+
+	@Test
+	void cancelRemovesOnlyTheCancelledReportFromItsBatch() throws Exception {
+		CompletableFuture<Integer> a = this.coalescer.submit(run("1", "a", "p"));
+		CompletableFuture<Integer> b = this.coalescer.submit(run("1", "b", "p"));
+
+		assertEquals(1, this.coalescer.cancel("1", "a", "p"));
+		assertTrue(a.isCompletedExceptionally());
+		assertFalse(b.isDone());
+
+		this.coalescer.submit(run("1", "c", "p"));
+		this.coalescer.submit(run("1", "d", "p"));
+
+		assertEquals(0, b.get(5, TimeUnit.SECONDS));
+		assertEquals(1, this.executed.size());
+		assertEquals(
+			List.of("b", "c", "d"),
+			this.executed.get(0).getReportIds()
+		);
+	}
+
+	@Test
+	void cancelIgnoresOtherPublishConfigsOfTheReport() {
+		CompletableFuture<Integer> a = this.coalescer.submit(run("1", "a", "p"));
+
+		assertEquals(0, this.coalescer.cancel("1", "a", "q"));
+		assertFalse(a.isDone());
+	}
+
+	@Test
+	void cancelIgnoresOtherAccounts() {
+		CompletableFuture<Integer> a = this.coalescer.submit(run("1", "a", "p"));
+
+		assertEquals(0, this.coalescer.cancel("2", "a", "p"));
+		assertFalse(a.isDone());
+	}
+}
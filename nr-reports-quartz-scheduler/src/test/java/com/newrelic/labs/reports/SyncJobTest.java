@@ -0,0 +1,166 @@
+package com.newrelic.labs.reports;
+
+import com.newrelic.labs.reports.model.Manifest;
+import com.newrelic.labs.reports.model.Metadata;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncJobTest {
+	private static final String MANIFEST =
+		"{\"reports\":[{\"id\":\"r\",\"name\":\"R\",\"publishConfigs\":[" +
+			"{\"id\":\"p\",\"schedule\":\"0 6 * * ?\",\"enabled\":true}" +
+		"]}]}";
+
+	private final Util util = Util.getInstance();
+
+	private static Metadata metadata(long lastPolledDate, long lastModifiedDate) {
+		return NerdgraphCodec.getGson().fromJson(
+			String.format(
+				"{\"lastPolledDate\":%d,\"lastModifiedDate\":%d}",
+				lastPolledDate,
+				lastModifiedDate
+			),
+			Metadata.class
+		);
+	}
+
+	@Test
+	void writesMetadataThatDoesNotAcknowledgeTheLastModification() {
+		assertTrue(SyncJob.isMetadataWriteNeeded(metadata(1000, 2000)));
+	}
+
+	@Test
+	void skipsMetadataThatAcknowledgesTheLastModification() {
+		assertFalse(SyncJob.isMetadataWriteNeeded(metadata(2000, 2000)));
+	}
+
+	@Test
+	void skipsMetadataPolledAfterTheLastModification() {
+		assertFalse(SyncJob.isMetadataWriteNeeded(metadata(3000, 2000)));
+	}
+
+	@Test
+	void doesNotTimeOutAccountsWaitingForASlowAccount() throws Exception {
+		List<List<String>> batches =
+			Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch sent = new CountDownLatch(1);
+		AtomicBoolean sentBeforeSlowAccount = new AtomicBoolean();
+		AtomicInteger started = new AtomicInteger();
+		NerdgraphClient client = new NerdgraphClient(
+			this.util,
+			"http://localhost",
+			"key",
+			"nerdlet",
+			this.util.createNerdgraphClientConfig()
+		) {
+			@Override
+			public <T> CompletableFuture<Map<String, NerdgraphQueryException>>
+				writeDocumentsAsync(
+					String collectionName,
+					String documentId,
+					Map<String, T> documents,
+					Timeout deadline
+				) {
+				batches.add(new ArrayList<>(documents.keySet()));
+				sent.countDown();
+				return CompletableFuture.completedFuture(Map.of());
+			}
+		};
+		// The third account only starts syncing once the writes of the first
+		// two were sent, or after a delay well past the account timeout
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			1,
+			1,
+			0,
+			TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>()
+		) {
+			@Override
+			protected void beforeExecute(Thread t, Runnable r) {
+				if (started.incrementAndGet() != 3) {
+					return;
+				}
+
+				try {
+					sentBeforeSlowAccount.set(sent.await(5, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		Manifest manifest = NerdgraphCodec.getGson().fromJson(
+			MANIFEST,
+			Manifest.class
+		);
+		SyncState syncState = new SyncState();
+		Map<String, Metadata> modified = new LinkedHashMap<>();
+		Map<String, ReadDocumentsResult> manifests = new LinkedHashMap<>();
+		Map<String, SyncJob.Outcome> outcomes = new ConcurrentHashMap<>();
+
+		for (String accountId : List.of("1", "2", "3")) {
+			Map<String, String> digests =
+				this.util.getPublishConfigurationDigests(
+					this.util.getPublishConfigurationItems(
+						accountId,
+						manifest.getReports()
+					)
+				);
+			ReadDocumentsResult result = new ReadDocumentsResult(accountId);
+
+			// The manifest is unchanged so that no schedules are applied
+			syncState.put(accountId, new AccountState(
+				1000,
+				this.util.getManifestDigest(digests),
+				digests,
+				1000
+			));
+			result.setDocument("manifest", manifest);
+			modified.put(accountId, metadata(1000, 2000));
+			manifests.put(accountId, result);
+		}
+
+		try (ManifestCache manifestCache = new ManifestCache(this.util)) {
+			new SyncJob().syncAccounts(
+				executor,
+				new MetadataWriteBuffer(client, 25, null, 100),
+				500,
+				syncState,
+				manifestCache,
+				modified,
+				manifests,
+				outcomes
+			);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertTrue(sentBeforeSlowAccount.get());
+		assertEquals(List.of("1", "2"), batches.get(0));
+		assertEquals(
+			Map.of(
+				"1", SyncJob.Outcome.SUCCEEDED,
+				"2", SyncJob.Outcome.SUCCEEDED,
+				"3", SyncJob.Outcome.SUCCEEDED
+			),
+			outcomes
+		);
+	}
+}
@@ -0,0 +1,96 @@
+package com.newrelic.labs.reports;
+
+import com.newrelic.labs.reports.model.Manifest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.quartz.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UtilTest {
+	private static final String ACCOUNT_ID = "1";
+
+	private final Util util = Util.getInstance();
+	private final List<String> cancelled =
+		Collections.synchronizedList(new ArrayList<>());
+	private Scheduler scheduler;
+	private ReportExecutor executor;
+	private String scheduleGroupName;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		// Records the cancelled runs instead of stopping any
+		this.executor = new ReportExecutor(
+			this.util,
+			new ReportExecutorConfig()
+		) {
+			@Override
+			public int cancel(
+				String accountId,
+				String reportId,
+				String publishConfigId
+			) {
+				cancelled.add(
+					accountId + "/" + reportId + "/" + publishConfigId
+				);
+				return 1;
+			}
+		};
+		this.scheduler = this.util.getScheduler();
+		this.scheduler.getContext().put(
+			ReportScheduler.REPORT_EXECUTOR_KEY,
+			this.executor
+		);
+		this.scheduleGroupName = this.util.getScheduleGroupName();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.scheduler.getContext().remove(ReportScheduler.REPORT_EXECUTOR_KEY);
+		this.util.deleteAccountSchedules(ACCOUNT_ID, this.scheduleGroupName);
+		this.executor.close();
+	}
+
+	private void apply(String manifestJson) throws SyncException {
+		Manifest manifest = NerdgraphCodec.getGson().fromJson(
+			manifestJson,
+			Manifest.class
+		);
+
+		this.util.hup(
+			ACCOUNT_ID,
+			this.util.getPublishConfigurationItems(
+				ACCOUNT_ID,
+				manifest.getReports()
+			),
+			Map.of(),
+			this.scheduleGroupName
+		);
+	}
+
+	@Test
+	void cancelsTheRunsOfDeletedSchedules() throws Exception {
+		apply(
+			"{\"reports\":[{\"id\":\"r\",\"name\":\"R\",\"publishConfigs\":[" +
+				"{\"id\":\"p\",\"schedule\":\"0 6 * * ?\",\"enabled\":true}," +
+				"{\"id\":\"q\",\"schedule\":\"0 7 * * ?\",\"enabled\":true}" +
+			"]}]}"
+		);
+
+		assertEquals(List.of(), this.cancelled);
+
+		apply(
+			"{\"reports\":[{\"id\":\"r\",\"name\":\"R\",\"publishConfigs\":[" +
+				"{\"id\":\"p\",\"schedule\":\"0 6 * * ?\",\"enabled\":true}" +
+			"]}]}"
+		);
+
+		assertEquals(List.of("1/r/q"), this.cancelled);
+	}
+}
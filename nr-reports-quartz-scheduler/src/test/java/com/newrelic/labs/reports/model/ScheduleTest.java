@@ -0,0 +1,90 @@
+package com.newrelic.labs.reports.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScheduleTest {
+	@Test
+	void addsSecondsAndYearToAFiveFieldExpression() {
+		Schedule schedule = Schedule.of("30 12 ? * MON-FRI");
+
+		assertTrue(schedule.isValid());
+		assertNull(schedule.getError());
+		assertEquals("0 30 12 ? * MON-FRI *", schedule.getQuartzExpression());
+	}
+
+	@Test
+	void addsSecondsToASixFieldExpression() {
+		Schedule schedule = Schedule.of("0/15 * 1 * ? 2030");
+
+		assertTrue(schedule.isValid());
+		assertEquals("0 0/15 * 1 * ? 2030", schedule.getQuartzExpression());
+	}
+
+	@Test
+	void ignoresExtraWhitespace() {
+		Schedule schedule = Schedule.of("  30   12 ?\t* MON ");
+
+		assertTrue(schedule.isValid());
+		assertEquals("0 30 12 ? * MON *", schedule.getQuartzExpression());
+		assertEquals("  30   12 ?\t* MON ", schedule.getExpression());
+	}
+
+	@Test
+	void sharesOneInstancePerExpression() {
+		assertSame(Schedule.of("0 6 * * ?"), Schedule.of("0 6 * * ?"));
+		assertSame(Schedule.of("0 6 * * ? 1"), Schedule.of("0 6 * * ? 1"));
+	}
+
+	@Test
+	void rejectsTheWrongNumberOfFields() {
+		Schedule schedule = Schedule.of("0 6 * ?");
+
+		assertFalse(schedule.isValid());
+		assertNull(schedule.getQuartzExpression());
+		assertNull(schedule.getCronExpression());
+		assertEquals(
+			"Expected 5 or 6 parts in CRON expression but found 4.",
+			schedule.getError()
+		);
+		assertFalse(Schedule.of("0 0 6 * * ? * *").isValid());
+	}
+
+	@Test
+	void rejectsBothDayOfMonthAndDayOfWeek() {
+		Schedule schedule = Schedule.of("0 6 1 * MON");
+
+		assertFalse(schedule.isValid());
+		assertEquals(
+			"Day of month and day of week cannot both be specified.",
+			schedule.getError()
+		);
+	}
+
+	@Test
+	void rejectsExpressionsQuartzCannotParse() {
+		Schedule schedule = Schedule.of("0 25 * * ?");
+
+		assertFalse(schedule.isValid());
+		assertNotNull(schedule.getError());
+		assertNull(schedule.getCronExpression());
+	}
+
+	@Test
+	void firesAFiveFieldExpression() {
+		// A year of 0 would never fire
+		Date next = Schedule.of("0 6 * * ?")
+			.getCronExpression()
+			.getNextValidTimeAfter(new Date());
+
+		assertNotNull(next);
+	}
+}